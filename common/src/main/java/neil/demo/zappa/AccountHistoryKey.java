@@ -0,0 +1,37 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>Key for a page of an account's transactions, those for
+ * one calendar month, such as account 1 in November 2018.
+ * </p>
+ * <p>As for {@link TimeSeriesKey}, the month is part of the key,
+ * so each page is held in a different partition. A transaction
+ * is appended to the latest page only, and the history can be
+ * read a page at a time.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountHistoryKey implements Serializable {
+
+	private String account;
+	private String month;
+
+	/**
+	 * <p>The month for a transaction time, such as
+	 * "{@code 2018-11}" for "{@code 2018-11-07T18:40}".
+	 * </p>
+	 */
+	public static String monthOf(String when) {
+		return when.substring(0, "yyyy-MM".length());
+	}
+
+}
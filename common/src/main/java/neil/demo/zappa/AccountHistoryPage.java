@@ -0,0 +1,30 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>A page of an account's transactions, those for one month,
+ * in the "{@code account_history}" {@link com.hazelcast.core.IMap IMap}
+ * under an {@link AccountHistoryKey}.
+ * </p>
+ * <p>"{@code offset}" is the Kafka offset of the last transaction
+ * added, so a transaction read again when the topic is replayed
+ * is recognised and not added twice, as for
+ * {@link AccountSummary#getOffset()}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountHistoryPage implements Serializable {
+
+	private long offset;
+	private List<AccountTransaction> transactions;
+
+}
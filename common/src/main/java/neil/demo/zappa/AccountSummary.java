@@ -0,0 +1,42 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>The current state of an account, in the "{@code account}"
+ * {@link com.hazelcast.core.IMap IMap}, without its transactions.
+ * </p>
+ * <p>The transactions are in the "{@code account_history}"
+ * {@link com.hazelcast.core.IMap IMap}, a page per account per
+ * month, see {@link AccountHistoryKey}. So a new transaction
+ * changes this small record and the month's page, the cost
+ * being the same however old the account.
+ * </p>
+ * <p>"{@code opened}" is the time of the baseline, and
+ * "{@code when}" the time of the latest transaction. Pages
+ * can only exist for the months from one to the other.
+ * </p>
+ * <p>"{@code offset}" is the Kafka offset of the latest record
+ * applied, baseline or transaction. All of an account's records
+ * are on one Kafka partition, so a record at or below this has
+ * already been applied, and is ignored if the topic is replayed.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountSummary implements Serializable {
+
+	private String owner;
+	private String opened;
+	private String when;
+	private double balance;
+	private long transactions;
+	private long offset;
+
+}
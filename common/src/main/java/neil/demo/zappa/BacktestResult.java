@@ -0,0 +1,32 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>How a moving average crossover strategy would have done over
+ * a price history, for one pair of short and long periods.
+ * </p>
+ * <p>The strategy buys on an upward cross of the short average over
+ * the long, and sells on a downward cross. A position still open at
+ * the end is valued at the last price. Profit is per unit bought,
+ * fixed-point like a price.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BacktestResult implements Serializable {
+
+	private int shortPeriod;
+	private int longPeriod;
+	private int crosses;
+	private int trades;
+	private int wins;
+	private long profit;
+
+}
@@ -0,0 +1,35 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>A summary of the prices for a currency pair over a period
+ * of time, such as a minute or an hour, a "<i>candle</i>" in
+ * chart terms. The first, highest, lowest and last price, and
+ * how many prices there were.
+ * </p>
+ * <p>The period starts at {@code start} and lasts for
+ * {@code duration}, both in milliseconds. As for {@link TimePrice},
+ * prices are fixed-point {@code long}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Candle implements Serializable {
+
+	private CurrencyPairKey key;
+	private long start;
+	private long duration;
+	private long open;
+	private long high;
+	private long low;
+	private long close;
+	private long count;
+
+}
@@ -0,0 +1,61 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>How closely the prices of currency pairs move together, as
+ * at a point in time, for every pair of currency pairs.
+ * </p>
+ * <p>The matrix is symmetric with ones on the diagonal, so only
+ * the lower triangle is held, row by row, in one array of
+ * primitives. The correlation of currency pairs "<i>i</i>" and
+ * "<i>j</i>" is at {@link #index(int, int)}. With 200 currency
+ * pairs this is about 20,000 numbers.
+ * </p>
+ * <p>A correlation is {@link Double#NaN NaN} if either currency
+ * pair hasn't moved yet.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Correlation implements Serializable {
+
+	private long timestamp;
+	private String[] currencyPairs;
+	private double[] correlations;
+
+	/**
+	 * <p>Correlation of two currency pairs.
+	 * </p>
+	 *
+	 * @param i Position of one in {@link #getCurrencyPairs()}
+	 * @param j Position of the other
+	 * @return From -1 to 1, or {@code NaN}
+	 */
+	public double get(int i, int j) {
+		return this.correlations[Correlation.index(i, j)];
+	}
+
+	/**
+	 * <p>Position in a lower triangle held row by row. Adding
+	 * another row doesn't move those before, so the array
+	 * can grow by copying.
+	 * </p>
+	 *
+	 * @param i Row or column
+	 * @param j Column or row
+	 * @return Position in the array
+	 */
+	public static int index(int i, int j) {
+		int row = Math.max(i, j);
+		int column = Math.min(i, j);
+		return row * (row + 1) / 2 + column;
+	}
+
+}
@@ -1,14 +1,23 @@
 package neil.demo.zappa;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
-import lombok.AllArgsConstructor;
+import com.hazelcast.core.PartitionAware;
+
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * <p>A currency pair.
@@ -16,15 +25,136 @@ import lombok.NoArgsConstructor;
  * <p>"{@code USD}/{@code EUR}" represents the conversion <u>from</u> (the "base")
  * US Dollars to Euros (the "quote").
  * </p>
+ * <p>Every record on the FX topic has one of these as the key, and the
+ * key is hashed and compared at each keyed stage. So the hash code is
+ * calculated once and kept, and each distinct currency pair has one
+ * canonical instance with a small integer id, see {@link #canonical(CurrencyPairKey)}.
+ * Keyed state can be held in arrays indexed by the id.
+ * </p>
+ * <p>The id is only meaningful in this JVM, it isn't serialized. A
+ * key that arrives from elsewhere looks up its id on first use.
+ * The hash code is from the currency names, so is the same everywhere.
+ * </p>
+ * <p>For Hazelcast partitioning, such as a Jet partitioned edge, the
+ * partition key is the six letters as a {@link String}, kept once made.
+ * So partitioning serializes one short string rather than this object.
+ * </p>
  */
 @SuppressWarnings("serial")
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
-public class CurrencyPairKey implements Comparable<CurrencyPairKey>, Serializable {
+public class CurrencyPairKey implements Comparable<CurrencyPairKey>, PartitionAware<String>, Serializable {
 	
+	private static final ConcurrentMap<CurrencyPairKey, CurrencyPairKey> CANONICAL = new ConcurrentHashMap<>();
+	private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
 	private String base;
 	private String quote;
+	// Derived, zero until needed
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int hash;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int id;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient String partitionKey;
+
+	public CurrencyPairKey(String base, String quote) {
+		this.base = base;
+		this.quote = quote;
+	}
+
+	public void setBase(String base) {
+		this.base = base;
+		this.hash = 0;
+		this.id = 0;
+		this.partitionKey = null;
+	}
+	public void setQuote(String quote) {
+		this.quote = quote;
+		this.hash = 0;
+		this.id = 0;
+		this.partitionKey = null;
+	}
+
+	/**
+	 * <p>The id of this currency pair, shared with all equal keys,
+	 * numbered from 1 in order of first use in this JVM.
+	 * </p>
+	 *
+	 * @return A small positive number
+	 */
+	public int getId() {
+		if (this.id == 0) {
+			this.id = CurrencyPairKey.canonical(this).id;
+		}
+		return this.id;
+	}
+
+	/**
+	 * <p>Route by the currency names, "{@code BTCUSD}" for example.
+	 * </p>
+	 */
+	@Override
+	public String getPartitionKey() {
+		if (this.partitionKey == null) {
+			this.partitionKey = this.base + this.quote;
+		}
+		return this.partitionKey;
+	}
+
+	/**
+	 * <p>Find the one instance that represents this currency pair,
+	 * creating it and giving it the next id if this pair hasn't been
+	 * seen before.
+	 * </p>
+	 *
+	 * @param key Any key
+	 * @return An equal key, the same instance for all equal keys
+	 */
+	public static CurrencyPairKey canonical(CurrencyPairKey key) {
+		CurrencyPairKey canonical = CANONICAL.get(key);
+		if (canonical == null) {
+			canonical = CANONICAL.computeIfAbsent(key, k -> {
+				CurrencyPairKey currencyPairKey = new CurrencyPairKey(k.getBase(), k.getQuote());
+				currencyPairKey.id = NEXT_ID.getAndIncrement();
+				return currencyPairKey;
+			});
+		}
+		return canonical;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof CurrencyPairKey)) {
+			return false;
+		}
+		CurrencyPairKey that = (CurrencyPairKey) o;
+		if (this.id != 0 && that.id != 0) {
+			return this.id == that.id;
+		}
+		return this.hashCode() == that.hashCode()
+				&& Objects.equals(this.base, that.getBase())
+				&& Objects.equals(this.quote, that.getQuote());
+	}
+
+	@Override
+	public int hashCode() {
+		int h = this.hash;
+		if (h == 0) {
+			h = Objects.hash(this.base, this.quote);
+			this.hash = h;
+		}
+		return h;
+	}
 
 	// Order by source currency (base) then by destination (quote)
 	@Override
@@ -42,19 +172,86 @@ public class CurrencyPairKey implements Comparable<CurrencyPairKey>, Serializabl
 	 * {@code Euro} as quote.
 	 * format.
 	 * </p>
+	 * <p>The six bytes are packed into a {@code long}, and looked up in
+	 * a small table of keys already seen by this deserializer. So
+	 * apart from the first record for each currency pair, nothing is
+	 * allocated and the canonical key is returned.
+	 * </p>
+	 * <p>Kafka uses each deserializer from one consumer thread, so
+	 * the table doesn't need to be thread-safe.
+	 * </p>
 	 */
 	public static class CurrencyPairKeyDeserializer implements Deserializer<CurrencyPairKey> {
 
+		private static final int WIRE_LENGTH = 6;
+		// Must be a power of 2
+		private static final int INITIAL_CAPACITY = 16;
+
+		private long[] codes = new long[INITIAL_CAPACITY];
+		private CurrencyPairKey[] keys = new CurrencyPairKey[INITIAL_CAPACITY];
+		private int size;
+
 		@Override
 		public CurrencyPairKey deserialize(String topic, byte[] data) {
-			CurrencyPairKey currencyPairKey = new CurrencyPairKey();
+			if (data == null) {
+				return null;
+			}
+			if (data.length < WIRE_LENGTH) {
+				throw new SerializationException("Key too short '" + new String(data) + "'");
+			}
 			
-			currencyPairKey.setBase(new String(Arrays.copyOfRange(data, 0, 3)));
-			currencyPairKey.setQuote(new String(Arrays.copyOfRange(data, 3, 6)));
+			// Printable bytes, so never zero, zero marks an empty table entry
+			long code = 0;
+			for (int i = 0 ; i < WIRE_LENGTH ; i++) {
+				code = (code << 8) | (data[i] & 0xFF);
+			}
+
+			int mask = this.codes.length - 1;
+			int index = Long.hashCode(code * 0x9E3779B97F4A7C15L) & mask;
+			while (this.codes[index] != 0) {
+				if (this.codes[index] == code) {
+					return this.keys[index];
+				}
+				index = (index + 1) & mask;
+			}
+
+			CurrencyPairKey currencyPairKey = CurrencyPairKey.canonical(
+					new CurrencyPairKey(new String(data, 0, 3), new String(data, 3, 3)));
+
+			this.codes[index] = code;
+			this.keys[index] = currencyPairKey;
+			this.size++;
+			if (2 * this.size > this.codes.length) {
+				this.rehash();
+			}
 			
 			return currencyPairKey;
 		}
 
+		/**
+		 * <p>Double the table size, keeping it at most half full.
+		 * </p>
+		 */
+		private void rehash() {
+			long[] oldCodes = this.codes;
+			CurrencyPairKey[] oldKeys = this.keys;
+
+			this.codes = new long[2 * oldCodes.length];
+			this.keys = new CurrencyPairKey[2 * oldCodes.length];
+			int mask = this.codes.length - 1;
+
+			for (int i = 0 ; i < oldCodes.length ; i++) {
+				if (oldCodes[i] != 0) {
+					int index = Long.hashCode(oldCodes[i] * 0x9E3779B97F4A7C15L) & mask;
+					while (this.codes[index] != 0) {
+						index = (index + 1) & mask;
+					}
+					this.codes[index] = oldCodes[i];
+					this.keys[index] = oldKeys[i];
+				}
+			}
+		}
+
 		@Override
 		public void configure(Map<String, ?> configs, boolean isKey) {
 		}
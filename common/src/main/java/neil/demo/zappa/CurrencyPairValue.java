@@ -1,18 +1,13 @@
 package neil.demo.zappa;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Map;
 
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
-import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateDeserializer;
-import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateSerializer;
-
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -27,6 +22,10 @@ import lombok.NoArgsConstructor;
  * spread of exchange rates depending on various factors such
  * as if buying or selling, the amount, etc.
  * </p>
+ * <p>As for {@link TimePrice}, the day is held as a timestamp,
+ * midnight UTC, and the rate as fixed-point, so there is no
+ * conversion needed as it is passed on.
+ * </p>
  */
 @SuppressWarnings("serial")
 @Data
@@ -34,10 +33,8 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class CurrencyPairValue implements Serializable {
 	
-	@JsonDeserialize(using = LocalDateDeserializer.class)
-    @JsonSerialize(using = LocalDateSerializer.class)
-	private LocalDate day;
-	private BigDecimal rate;
+	private long timestamp;
+	private long rate;
 	
 	/**
 	 * <p>How to deserialize this class from CSV format,
@@ -45,22 +42,165 @@ public class CurrencyPairValue implements Serializable {
 	 * {@code 1234} as rate.
 	 * format.
 	 * </p>
+	 * <p>This is called for every record read from Kafka, so parses
+	 * the bytes directly rather than going through {@link String},
+	 * {@link java.time.LocalDate LocalDate} and {@link java.math.BigDecimal BigDecimal}.
+	 * The date is expected as ISO, "{@code yyyy-MM-dd}", and the rate as a plain
+	 * decimal. Extra decimal places beyond {@link TimePrice#SCALE} are rounded
+	 * half-up, as {@link TimePrice#toRate(java.math.BigDecimal)} would.
+	 * </p>
+	 * <p>Prices arrive in date order, so the same few months are seen
+	 * over and over. The first day of recent months, counted from the
+	 * epoch, is cached so most records need no calendar arithmetic.
+	 * </p>
+	 * <p>Kafka uses each deserializer from one consumer thread, so
+	 * the cache doesn't need to be thread-safe.
+	 * </p>
 	 */
 	public static class CurrencyPairValueDeserializer implements Deserializer<CurrencyPairValue> {
 
+		// Must be a power of 2
+		private static final int MONTH_CACHE_SIZE = 64;
+
+		private final int[] cachedMonth = new int[MONTH_CACHE_SIZE];
+		private final long[] cachedFirstEpochDay = new long[MONTH_CACHE_SIZE];
+		private final int[] cachedLengthOfMonth = new int[MONTH_CACHE_SIZE];
+
+		public CurrencyPairValueDeserializer() {
+			Arrays.fill(this.cachedMonth, -1);
+		}
+
 		@Override
 		public CurrencyPairValue deserialize(String topic, byte[] data) {
-			String s = new String(data);
-			String[] tokens = s.split(",");
+			if (data == null) {
+				return null;
+			}
 			
-			LocalDate day = LocalDate.parse(tokens[0], DateTimeFormatter.ISO_LOCAL_DATE);
-			BigDecimal rate = new BigDecimal(tokens[1]);
+			int comma = 0;
+			while (comma < data.length && data[comma] != ',') {
+				comma++;
+			}
+			if (comma == data.length) {
+				throw new SerializationException("No comma in '" + new String(data) + "'");
+			}
+
+			try {
+				CurrencyPairValue currencyPairValue = new CurrencyPairValue();
+				currencyPairValue.setTimestamp(TimePrice.toTimestamp(this.parseEpochDay(data, 0, comma)));
+				currencyPairValue.setRate(parseRate(data, comma + 1, data.length));
+
+				return currencyPairValue;
+			} catch (ArithmeticException | IllegalArgumentException e) {
+				throw new SerializationException("Can't parse '" + new String(data) + "'", e);
+			}
+		}
+
+		/**
+		 * <p>Parse "{@code yyyy-MM-dd}" from {@code data[from]} to
+		 * {@code data[to - 1]}, giving the day number from the epoch.
+		 * </p>
+		 */
+		private long parseEpochDay(byte[] data, int from, int to) {
+			if (to - from != 10 || data[from + 4] != '-' || data[from + 7] != '-') {
+				throw new IllegalArgumentException("Date not yyyy-MM-dd");
+			}
+			int year = parseDigits(data, from, from + 4);
+			int month = parseDigits(data, from + 5, from + 7);
+			int day = parseDigits(data, from + 8, from + 10);
+
+			if (month < 1 || month > 12) {
+				throw new IllegalArgumentException("Month " + month);
+			}
+
+			int yearMonth = year * 12 + (month - 1);
+			int index = yearMonth & (MONTH_CACHE_SIZE - 1);
+			if (this.cachedMonth[index] != yearMonth) {
+				LocalDate firstDay = LocalDate.of(year, month, 1);
+				this.cachedMonth[index] = yearMonth;
+				this.cachedFirstEpochDay[index] = firstDay.toEpochDay();
+				this.cachedLengthOfMonth[index] = firstDay.lengthOfMonth();
+			}
+
+			if (day < 1 || day > this.cachedLengthOfMonth[index]) {
+				throw new IllegalArgumentException("Day " + day);
+			}
+			return this.cachedFirstEpochDay[index] + (day - 1);
+		}
+
+		/**
+		 * <p>Parse an unsigned integer from a fixed number of digits.
+		 * </p>
+		 */
+		private static int parseDigits(byte[] data, int from, int to) {
+			int result = 0;
+			for (int i = from ; i < to ; i++) {
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9) {
+					throw new IllegalArgumentException("Not a digit at " + i);
+				}
+				result = result * 10 + digit;
+			}
+			return result;
+		}
+
+		/**
+		 * <p>Parse a decimal such as "{@code -1234.56789}" into fixed-point
+		 * with {@link TimePrice#SCALE} decimal places. Trailing whitespace,
+		 * such as a carriage return, is ignored.
+		 * </p>
+		 */
+		private static long parseRate(byte[] data, int from, int to) {
+			while (to > from && data[to - 1] <= ' ') {
+				to--;
+			}
+
+			int i = from;
+			boolean negative = false;
+			if (i < to && (data[i] == '-' || data[i] == '+')) {
+				negative = (data[i] == '-');
+				i++;
+			}
+
+			long result = 0;
+			int digits = 0;
+			int decimalPlaces = -1;
+			boolean roundUp = false;
+
+			for ( ; i < to ; i++) {
+				byte b = data[i];
+				if (b == '.' && decimalPlaces < 0) {
+					decimalPlaces = 0;
+					continue;
+				}
+				int digit = b - '0';
+				if (digit < 0 || digit > 9) {
+					throw new IllegalArgumentException("Not a digit at " + i);
+				}
+				digits++;
+				if (decimalPlaces < 0) {
+					result = Math.addExact(Math.multiplyExact(result, 10), digit);
+				} else if (decimalPlaces < TimePrice.SCALE) {
+					result = Math.addExact(Math.multiplyExact(result, 10), digit);
+					decimalPlaces++;
+				} else if (decimalPlaces == TimePrice.SCALE) {
+					// First dropped digit decides rounding, rest are ignored
+					roundUp = (digit >= 5);
+					decimalPlaces++;
+				}
+			}
+
+			if (digits == 0) {
+				throw new IllegalArgumentException("No digits");
+			}
 
-			CurrencyPairValue currencyPairValue = new CurrencyPairValue();
-			currencyPairValue.setDay(day);
-			currencyPairValue.setRate(rate);
+			for (int j = Math.max(decimalPlaces, 0) ; j < TimePrice.SCALE ; j++) {
+				result = Math.multiplyExact(result, 10);
+			}
+			if (roundUp) {
+				result = Math.addExact(result, 1);
+			}
 
-			return currencyPairValue;
+			return negative ? -result : result;
 		}
 
 		@Override
@@ -1,13 +1,9 @@
 package neil.demo.zappa;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.util.Map;
 
-import org.apache.avro.AvroTypeException;
-import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.kafka.common.serialization.Deserializer;
@@ -15,54 +11,53 @@ import org.apache.kafka.common.serialization.Deserializer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * <p>A deserializer that can handle {@link AccountTransaction} or
- * {@link AccountBaseline} as input. These classes don't extend
- * a common base, and are passed as JSON strings.
+ * <p>A deserializer that can handle any of the Avro classes in
+ * {@link MyAvroSchemas}, such as {@link AccountTransaction} or
+ * {@link AccountBaseline} which share the "{@code account}"
+ * topic. These classes don't extend a common base.
  * </p>
- * <p>The method to determine which is a bit simplistic, try
- * to deserialize with one class and if this fails try to
- * deserialize with another.
+ * <p>As written by {@link MyAvroSerializer}, the first byte is
+ * the schema number, so the right reader is picked straight
+ * away and the rest decoded once.
  * </p>
- * <p>It's not good practice to mix classes on the topic in this
- * way, or to deserialize this way. It's fine for a demo, but for
- * real use a cleaner approach is in order.
+ * <p>Readers are made once, and the decoder reused for each
+ * record. Kafka uses each deserializer from one consumer thread,
+ * so these don't need to be thread-safe.
  * </p>
  */
 @Slf4j
 public class MyAvroDeserializer implements Deserializer<Object> {
 
-	private Schema accountBaselineSchema
-		= new AccountBaseline().getSchema();
-	private Schema accountTransactionSchema
-		= new AccountTransaction().getSchema();
+	private final DatumReader<Object>[] readers;
+	private BinaryDecoder decoder;
+
+	@SuppressWarnings("unchecked")
+	public MyAvroDeserializer() {
+		this.readers = new DatumReader[MyAvroSchemas.size()];
+		for (int i = 0 ; i < this.readers.length ; i++) {
+			if (MyAvroSchemas.schemaOf(i) != null) {
+				this.readers[i] = new SpecificDatumReader<>(MyAvroSchemas.schemaOf(i));
+			}
+		}
+	}
 	
 	@Override
 	public Object deserialize(String topic, byte[] data) {
+		if (data == null || data.length == 0) {
+			return null;
+		}
 		
-		try (ByteArrayInputStream byteArrayInputStream1 = new ByteArrayInputStream(data);
-			 ByteArrayInputStream byteArrayInputStream2 = new ByteArrayInputStream(data);
-			 DataInputStream dataInputStream1 = new DataInputStream(byteArrayInputStream1);
-			 DataInputStream dataInputStream2 = new DataInputStream(byteArrayInputStream2);
-				) {
-			DatumReader<Object> accountBaselineReader = 
-					new SpecificDatumReader<>(this.accountBaselineSchema);
-			DatumReader<Object> accountTransactionReader = 
-					new SpecificDatumReader<>(this.accountTransactionSchema);
-			
-			Decoder accountBaselineDecoder
-				= DecoderFactory.get().jsonDecoder(this.accountBaselineSchema, dataInputStream1);
-			Decoder accountTransactionDecoder
-				= DecoderFactory.get().jsonDecoder(this.accountTransactionSchema, dataInputStream2);
-
-			// Expecting more transactions than baselines, so try that first
-			try {
-				return accountTransactionReader.read(null, accountTransactionDecoder);
-			} catch (AvroTypeException notAnAccountTransaction) {
-				return accountBaselineReader.read(null, accountBaselineDecoder);
-			}
+		int id = data[0];
+		if (id < 0 || id >= this.readers.length || this.readers[id] == null) {
+			log.error("Topic '{}', unknown schema number {}", topic, id);
+			return null;
+		}
 			
+		try {
+			this.decoder = DecoderFactory.get().binaryDecoder(data, 1, data.length - 1, this.decoder);
+			return this.readers[id].read(null, this.decoder);
 		} catch (Exception e) {
-			log.error(new String(data), e);
+			log.error("Topic '" + topic + "', schema number " + id, e);
 		}
 		
 		return null;
@@ -0,0 +1,55 @@
+package neil.demo.zappa;
+
+import org.apache.avro.Schema;
+
+/**
+ * <p>The Avro classes written to Kafka, each with a number that
+ * is written before the record. So the reader knows which class
+ * it has from the first byte, and the schema itself doesn't need
+ * to be sent.
+ * </p>
+ * <p>Numbers must not be reused, or records already on the topics
+ * would be read as the wrong class.
+ * </p>
+ */
+public class MyAvroSchemas {
+
+	private static final Schema[] SCHEMAS = new Schema[MyConstants.AVRO_SCHEMA_ID_GPS + 1];
+	static {
+		SCHEMAS[MyConstants.AVRO_SCHEMA_ID_ACCOUNT_BASELINE] = AccountBaseline.getClassSchema();
+		SCHEMAS[MyConstants.AVRO_SCHEMA_ID_ACCOUNT_TRANSACTION] = AccountTransaction.getClassSchema();
+		SCHEMAS[MyConstants.AVRO_SCHEMA_ID_GPS] = Gps.getClassSchema();
+	}
+
+	/**
+	 * @param id From the start of a record
+	 * @return The schema, or null if not known
+	 */
+	public static Schema schemaOf(int id) {
+		if (id < 0 || id >= SCHEMAS.length) {
+			return null;
+		}
+		return SCHEMAS[id];
+	}
+
+	/**
+	 * @param schema Of a generated Avro class
+	 * @return The number to write, or -1 if not known
+	 */
+	public static int idOf(Schema schema) {
+		for (int i = 0 ; i < SCHEMAS.length ; i++) {
+			if (SCHEMAS[i] == schema) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return How many numbers are in use, counting from zero
+	 */
+	public static int size() {
+		return SCHEMAS.length;
+	}
+
+}
@@ -0,0 +1,75 @@
+package neil.demo.zappa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * <p>A serializer for the Avro classes in {@link MyAvroSchemas},
+ * writing a one byte schema number then the record in Avro's
+ * binary encoding. Read back by {@link MyAvroDeserializer}.
+ * </p>
+ * <p>A {@link Gps} point is under 30 bytes this way, against
+ * about 80 as JSON.
+ * </p>
+ * <p>Writers, the encoder and the buffer are kept and reused.
+ * Kafka calls this from whichever thread sends, so writing is
+ * synchronized to protect them.
+ * </p>
+ */
+public class MyAvroSerializer implements Serializer<SpecificRecord> {
+
+	private final DatumWriter<SpecificRecord>[] writers;
+	private final ByteArrayOutputStream byteArrayOutputStream;
+	private BinaryEncoder encoder;
+
+	@SuppressWarnings("unchecked")
+	public MyAvroSerializer() {
+		this.writers = new DatumWriter[MyAvroSchemas.size()];
+		for (int i = 0 ; i < this.writers.length ; i++) {
+			if (MyAvroSchemas.schemaOf(i) != null) {
+				this.writers[i] = new SpecificDatumWriter<>(MyAvroSchemas.schemaOf(i));
+			}
+		}
+		this.byteArrayOutputStream = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public synchronized byte[] serialize(String topic, SpecificRecord data) {
+		if (data == null) {
+			return null;
+		}
+
+		int id = MyAvroSchemas.idOf(data.getSchema());
+		if (id < 0) {
+			throw new SerializationException("No schema number for " + data.getClass().getName());
+		}
+
+		try {
+			this.byteArrayOutputStream.reset();
+			this.byteArrayOutputStream.write(id);
+			this.encoder = EncoderFactory.get().binaryEncoder(this.byteArrayOutputStream, this.encoder);
+			this.writers[id].write(data, this.encoder);
+			this.encoder.flush();
+			return this.byteArrayOutputStream.toByteArray();
+		} catch (IOException e) {
+			throw new SerializationException("Can't write " + data, e);
+		}
+	}
+
+	@Override
+	public void configure(Map<String, ?> configs, boolean isKey) {
+	}
+	@Override
+	public void close() {
+	}
+
+}
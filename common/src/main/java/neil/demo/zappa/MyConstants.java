@@ -26,23 +26,33 @@ public class MyConstants {
 	public static final String COMMAND_STOP = "stop";
 	
 	public static final String IMAP_NAME_ACCOUNT = "account";
+	public static final String IMAP_NAME_ACCOUNT_HISTORY = "account_history";
 	public static final String IMAP_NAME_ALERT = "alert";
+	public static final String IMAP_NAME_BACKTEST = "backtest";
 	public static final String IMAP_NAME_BTC_USD = "BTC/USD";
+	public static final String IMAP_NAME_CANDLE = "candle";
 	public static final String IMAP_NAME_COMMAND = "command";
+	public static final String IMAP_NAME_CORRELATION = "correlation";
 	public static final String IMAP_NAME_HAMLET = "hamlet";
 	public static final String IMAP_NAME_JSESSIONID = "jsessionid";
 	public static final String IMAP_NAME_POSITION = "position";
 	public static final String IMAP_NAME_SPEED = "speed";
+	public static final String IMAP_NAME_TIME_SERIES = "timeseries";
 	public static final String IMAP_NAME_WORDS = "words";
 	public static final String[] IMAP_NAMES = {
 			IMAP_NAME_ACCOUNT,
+			IMAP_NAME_ACCOUNT_HISTORY,
 			IMAP_NAME_ALERT,
+			IMAP_NAME_BACKTEST,
 			IMAP_NAME_BTC_USD,
+			IMAP_NAME_CANDLE,
 			IMAP_NAME_COMMAND,
+			IMAP_NAME_CORRELATION,
 			IMAP_NAME_HAMLET,
 			IMAP_NAME_JSESSIONID,
 			IMAP_NAME_POSITION,
 			IMAP_NAME_SPEED,
+			IMAP_NAME_TIME_SERIES,
 			IMAP_NAME_WORDS
 	};
 
@@ -54,16 +64,32 @@ public class MyConstants {
     public static final String[] ITOPIC_NAMES = new String[] { 
             ITOPIC_NAME_ALERT };
 	
+	public static final String BACKFILL_SOURCE_CSV = "classpath:btcusd.csv";
+
+	public static final int SERIALIZER_TYPE_ID_TIME_PRICE = 1001;
+	public static final int SERIALIZER_TYPE_ID_TIME_SERIES_BLOCK = 1002;
+	public static final int DATA_SERIALIZABLE_FACTORY_ID_ACCOUNT = 1;
+	
+	public static final int AVRO_SCHEMA_ID_ACCOUNT_BASELINE = 1;
+	public static final int AVRO_SCHEMA_ID_ACCOUNT_TRANSACTION = 2;
+	public static final int AVRO_SCHEMA_ID_GPS = 3;
+	
 	public static final String JOB_NAME_ACCOUNT = "Account Materialisation";
+	public static final String JOB_NAME_CORRELATION = "Correlation";
 	public static final String JOB_NAME_HEATHROW_EXPRESS_1 = "Heathrow Express ingest";
 	public static final String JOB_NAME_HEATHROW_EXPRESS_2 = "Heathrow Express analysis";
 	public static final String JOB_NAME_MOVING_AVERAGE = "Moving Average";
+	public static final String JOB_NAME_MOVING_AVERAGE_BACKFILL = "Moving Average Backfill";
+	public static final String JOB_NAME_MOVING_AVERAGE_BACKTEST = "Moving Average Backtest";
 	public static final String JOB_NAME_WORD_COUNT= "Word Count";
 	public static final String[] JOB_NAMES = new String[] { 
             JOB_NAME_ACCOUNT,
+            JOB_NAME_CORRELATION,
             JOB_NAME_HEATHROW_EXPRESS_1,
             JOB_NAME_HEATHROW_EXPRESS_2,
             JOB_NAME_MOVING_AVERAGE,
+            JOB_NAME_MOVING_AVERAGE_BACKFILL,
+            JOB_NAME_MOVING_AVERAGE_BACKTEST,
             JOB_NAME_WORD_COUNT
     };
 	
@@ -73,13 +99,24 @@ public class MyConstants {
     public static final String KEY_CURRENT = "Current";
     public static final String KEY_50_POINT = "50 Point";
     public static final String KEY_200_POINT = "200 Point";
+    public static final String KEY_EMA_12 = "EMA 12";
+    public static final String KEY_EMA_26 = "EMA 26";
+    public static final String KEY_MACD = "MACD";
+    public static final String KEY_MACD_SIGNAL = "MACD Signal";
+    public static final String KEY_MACD_HISTOGRAM = "MACD Histogram";
+    public static final String KEY_RSI_14 = "RSI 14";
+    public static final String KEY_BOLLINGER_MIDDLE = "Bollinger Middle";
+    public static final String KEY_BOLLINGER_UPPER = "Bollinger Upper";
+    public static final String KEY_BOLLINGER_LOWER = "Bollinger Lower";
+    public static final String KEY_CANDLE_CLOSE = "Hourly Close";
+    public static final String CANDLE_CHART_RESOLUTION = "1h";
 
     public static final String PANEL_TITLE = "Analysis " + LocalDate.now();
     public static final String CHART_TITLE = "Bitcoin v US Dollar";
     public static final String CHART_X_AXIS = "Date";
     public static final String CHART_Y_AXIS = "US$";
     public static final String[] CHART_LINES = { 
-                    KEY_CURRENT, KEY_50_POINT, KEY_200_POINT
+                    KEY_CURRENT, KEY_50_POINT, KEY_200_POINT, KEY_CANDLE_CLOSE
                     };
 
 	/* -------------------- */
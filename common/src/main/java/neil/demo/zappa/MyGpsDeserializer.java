@@ -1,47 +1,30 @@
 package neil.demo.zappa;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.util.Map;
 
-import org.apache.avro.Schema;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
-import lombok.extern.slf4j.Slf4j;
-
 /**
- * <p>A deserializer that can handle {@link Gps} from JSON.
+ * <p>A deserializer that can handle {@link Gps}, written by
+ * {@link MyAvroSerializer}.
+ * </p>
+ * <p>Decoding is done by {@link MyAvroDeserializer}, this just
+ * checks that the result is the expected class.
  * </p>
  */
-@Slf4j
 public class MyGpsDeserializer implements Deserializer<Gps> {
 
-	private Schema gpsSchema
-		= new Gps().getSchema();
+	private final MyAvroDeserializer myAvroDeserializer = new MyAvroDeserializer();
 	
 	@Override
 	public Gps deserialize(String topic, byte[] data) {
+		Object result = this.myAvroDeserializer.deserialize(topic, data);
 		
-		try (ByteArrayInputStream byteArrayInputStream1 = new ByteArrayInputStream(data);
-			 DataInputStream dataInputStream1 = new DataInputStream(byteArrayInputStream1);
-				) {
-			DatumReader<Gps> gpsReader = 
-					new SpecificDatumReader<>(this.gpsSchema);
-			
-			Decoder gpsDecoder
-				= DecoderFactory.get().jsonDecoder(this.gpsSchema, dataInputStream1);
-
-			return gpsReader.read(null, gpsDecoder);
-			
-		} catch (Exception e) {
-			log.error(new String(data), e);
+		if (result == null || result instanceof Gps) {
+			return (Gps) result;
 		}
-		
-		return null;
+		throw new SerializationException("Topic '" + topic + "', not Gps: " + result.getClass().getName());
 	}
 
 
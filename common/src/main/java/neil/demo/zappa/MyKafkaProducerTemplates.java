@@ -3,6 +3,7 @@ package neil.demo.zappa;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,9 +15,10 @@ import org.springframework.kafka.core.ProducerFactory;
 
 /**
  * <p>Create some Kafka templates to simplify writing to Kafka
- * topics. We write all as "{@code <String, String>}" pairs so
- * it is clear on the topic logger what is happening. For live
- * use custom serializer classes would be better.
+ * topics. Keys are strings. Avro classes are written with
+ * {@link MyAvroSerializer}, compact binary with a schema number.
+ * FX prices are CSV strings, read by
+ * {@link CurrencyPairValue.CurrencyPairValueDeserializer}.
  * </p>
  */
 @Configuration
@@ -50,6 +52,31 @@ public class MyKafkaProducerTemplates {
         return kafkaTemplate;
 	}
 	
+	/**
+	 * <p>Helper for writing "{@code <String, SpecificRecord>}".
+	 * </p>
+	 * 
+	 * @param topicName To write to
+	 */
+	private KafkaTemplate<String, SpecificRecord> myStringAvroTemplate(
+			String topicName
+			) {
+        Map<String, Object> producerConfigs = new HashMap<>();
+
+        producerConfigs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, this.bootstrapServers);
+        producerConfigs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerConfigs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, MyAvroSerializer.class);
+
+        ProducerFactory<String, SpecificRecord> producerFactory = new DefaultKafkaProducerFactory<>(
+                        producerConfigs);
+
+        KafkaTemplate<String, SpecificRecord> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+
+        kafkaTemplate.setDefaultTopic(topicName);
+
+        return kafkaTemplate;
+	}
+	
 	/**
 	 * <p>Kafka template for the "{@code account}" topic.
 	 * </p>
@@ -57,8 +84,8 @@ public class MyKafkaProducerTemplates {
 	 * @return A template to use in {@link WriterAccount}
 	 */
     @Bean(name = MyConstants.BEAN_PRODUCER_PREFIX + MyConstants.KAFKA_TOPIC_NAME_ACCOUNT)
-    public KafkaTemplate<String, String> kafkaAccountProducerTemplate() {
-            return this.myStringStringTemplate(MyConstants.KAFKA_TOPIC_NAME_ACCOUNT);
+    public KafkaTemplate<String, SpecificRecord> kafkaAccountProducerTemplate() {
+            return this.myStringAvroTemplate(MyConstants.KAFKA_TOPIC_NAME_ACCOUNT);
     }
 
 	/**
@@ -79,7 +106,7 @@ public class MyKafkaProducerTemplates {
 	 * @return A template to use in {@link WriterGps}
 	 */
     @Bean(name = MyConstants.BEAN_PRODUCER_PREFIX + MyConstants.KAFKA_TOPIC_NAME_GPS)
-    public KafkaTemplate<String, String> kafkaGpsProducerTemplate() {
-        return this.myStringStringTemplate(MyConstants.KAFKA_TOPIC_NAME_GPS);
+    public KafkaTemplate<String, SpecificRecord> kafkaGpsProducerTemplate() {
+        return this.myStringAvroTemplate(MyConstants.KAFKA_TOPIC_NAME_GPS);
     }
 }
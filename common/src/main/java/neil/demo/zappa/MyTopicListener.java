@@ -1,9 +1,16 @@
 package neil.demo.zappa;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.hazelcast.core.Message;
-import com.hazelcast.core.MessageListener;
+import com.hazelcast.topic.ReliableMessageListener;
+
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * <p>Topic logging listener.
@@ -12,29 +19,164 @@ import com.hazelcast.core.MessageListener;
  * registered as a listener, it'll do a {@code toString()}
  * to print the message payload.
  * </p>
+ * <p>The topic is a reliable topic, held in a ringbuffer, so
+ * messages are read in sequence and can be read again. The
+ * listener keeps the sequence it has got to. If the same listener
+ * is registered again it carries on from there, and a new listener
+ * can be started from an earlier sequence to replay what's still
+ * held. If the listener falls so far behind that messages are
+ * overwritten before being read, it skips to the oldest still
+ * held rather than stopping. Starting from {@link #OLDEST_MESSAGE}
+ * relies on this too, so the ringbuffer isn't looked up by name.
+ * </p>
+ * <p>Messages are printed on a thread of this listener's own, so
+ * a slow listener doesn't hold up others. Up to
+ * {@value #BACKLOG_CAPACITY} messages can wait to be printed,
+ * beyond that they are dropped.
+ * </p>
+ * <p>Counts are kept of messages delivered, lost because they
+ * were overwritten or dropped, and waiting to be printed.
+ * </p>
  */
-@SuppressWarnings("rawtypes")
-public class MyTopicListener implements MessageListener {
+@Slf4j
+public class MyTopicListener implements ReliableMessageListener<Object> {
+
+	public static final int BACKLOG_CAPACITY = 1_000;
+	/**
+	 * <p>Start from the next message published.
+	 * </p>
+	 */
+	public static final long NEXT_MESSAGE = -1L;
+	/**
+	 * <p>Start from the oldest message still held, by asking for
+	 * the first ever and skipping forward.
+	 * </p>
+	 */
+	public static final long OLDEST_MESSAGE = 0L;
+
+	private final String name;
+	private final ThreadPoolExecutor threadPoolExecutor;
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private volatile long nextSequence;
+	private volatile boolean baseline;
+
+	/**
+	 * @param arg0 Topic name, for the thread name
+	 * @param arg1 Sequence to start from, {@link #NEXT_MESSAGE} or {@link #OLDEST_MESSAGE}
+	 */
+	public MyTopicListener(String arg0, long arg1) {
+		this.name = arg0;
+		this.nextSequence = arg1;
+		this.baseline = (arg1 == NEXT_MESSAGE || arg1 == OLDEST_MESSAGE);
+		this.threadPoolExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(BACKLOG_CAPACITY),
+				runnable -> {
+					Thread thread = new Thread(runnable, MyTopicListener.class.getSimpleName() + "-" + arg0);
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
 
 	/**
-	 * <p>Dump a received message to the logger.
+	 * <p>Hand a received message to this listener's thread to
+	 * dump to the logger.
 	 * </p>
 	 *
 	 * @param message From the topic
 	 */
 	@Override
-	public void onMessage(Message message) {
+	public void onMessage(Message<Object> message) {
 		String payload = message.getMessageObject().toString();
-		System.out.println("");
-		System.out.println("**************************************************"
-				+ " ALERT "
-				+ "**************************************************");
-		System.out.format("%s: Topic '%s': %s%n",
-				LocalDateTime.now(), message.getSource(), payload);
-		System.out.println("**************************************************"
+		Object source = message.getSource();
+		try {
+			this.threadPoolExecutor.execute(() -> {
+				this.print(source, payload);
+				this.delivered.incrementAndGet();
+			});
+		} catch (RejectedExecutionException e) {
+			this.lost.incrementAndGet();
+		}
+	}
+
+	/**
+	 * <p>Print as one write, so output from several listeners
+	 * doesn't interleave.
+	 * </p>
+	 */
+	private void print(Object source, String payload) {
+		String banner = "**************************************************"
 				+ " ALERT "
-				+ "**************************************************");
-		System.out.println("");
+				+ "**************************************************";
+		System.out.print(String.format("%n%s%n%s: Topic '%s': %s%n%s%n%n",
+				banner, LocalDateTime.now(), source, payload, banner));
+	}
+
+	/**
+	 * <p>Where to start, or carry on from if registered again.
+	 * </p>
+	 */
+	@Override
+	public long retrieveInitialSequence() {
+		return this.nextSequence;
+	}
+
+	/**
+	 * <p>Note the sequence of the message about to be passed to
+	 * {@link #onMessage(Message)}. If this isn't the one after the
+	 * previous, the ones between were overwritten before they
+	 * could be read.
+	 * </p>
+	 * <p>Started from the next or oldest message, where the first
+	 * is depends on what is held when registered, so the first is
+	 * the baseline rather than a gap. Started from a sequence
+	 * given, any gap before the first is counted.
+	 * </p>
+	 */
+	@Override
+	public void storeSequence(long sequence) {
+		long expected = this.nextSequence;
+		if (!this.baseline && sequence > expected) {
+			this.lost.addAndGet(sequence - expected);
+		}
+		this.baseline = false;
+		this.nextSequence = sequence + 1;
+	}
+
+	/**
+	 * <p>Skip to the oldest message held if this listener has
+	 * fallen behind, rather than stop.
+	 * </p>
+	 */
+	@Override
+	public boolean isLossTolerant() {
+		return true;
+	}
+
+	/**
+	 * <p>Carry on after an error.
+	 * </p>
+	 */
+	@Override
+	public boolean isTerminal(Throwable failure) {
+		log.warn("Topic '{}'", this.name, failure);
+		return false;
+	}
+
+	public long getDelivered() {
+		return this.delivered.get();
+	}
+
+	public long getLost() {
+		return this.lost.get();
+	}
+
+	public long getLagging() {
+		return this.threadPoolExecutor.getQueue().size();
+	}
+
+	public String getName() {
+		return this.name;
 	}
 
 }
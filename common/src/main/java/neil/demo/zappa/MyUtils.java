@@ -25,7 +25,8 @@ public class MyUtils {
 
 	/**
 	 * <p>Write something to a Kafka topic, counting if
-	 * successful or not.
+	 * successful or not. Values are passed to the template's
+	 * serializer as they are.
 	 * </p>
 	 * 
 	 * @param partition
@@ -50,14 +51,14 @@ public class MyUtils {
 				}
 			}
 			
-			ListenableFuture<SendResult<String, String>> sendResult =
-					kafkaProducerTemplate.sendDefault(partition, key.toString(), value.toString());
+			ListenableFuture<SendResult<String, Object>> sendResult =
+					kafkaProducerTemplate.sendDefault(partition, key.toString(), value);
 
-			sendResult.addCallback(new ListenableFutureCallback<SendResult<String, String>>() {
+			sendResult.addCallback(new ListenableFutureCallback<SendResult<String, Object>>() {
 				@Override
-				public void onSuccess(SendResult<String, String> sendResult) {
+				public void onSuccess(SendResult<String, Object> sendResult) {
 					onSuccessCount.incrementAndGet();
-					ProducerRecord<String, String> producerRecord = sendResult.getProducerRecord();
+					ProducerRecord<String, Object> producerRecord = sendResult.getProducerRecord();
 					countDownLatch.countDown();
 					log.trace("wrote '{}'=='{}'", producerRecord.key(), producerRecord.value());
 				}
@@ -2,74 +2,110 @@ package neil.demo.zappa;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.time.ZoneId;
-import java.util.Date;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  * <p>Represents a price at a particular point in time.
  * </p>
+ * <p>For compactness, and to avoid creating objects as each price
+ * passes through, both parts are held as {@code long}. The time is
+ * milliseconds since the epoch, a day being midnight UTC. The
+ * price is fixed-point, in units of 1/10,000th, so {@code 1234.5}
+ * is held as {@code 12345000}.
+ * </p>
+ * <p>Conversion to {@link BigDecimal} and {@link LocalDate}
+ * is only needed for display, and is provided by the static
+ * methods here.
+ * </p>
  */
 @SuppressWarnings("serial")
 @Data
+@AllArgsConstructor
+@NoArgsConstructor
 public class TimePrice implements Serializable {
 
-	private Date date;
-	private BigDecimal rate;
+	/**
+	 * <p>Decimal places held in the fixed-point price.
+	 * </p>
+	 */
+	public static final int SCALE = 4;
+	/**
+	 * <p>Marker for a price that isn't available, such as a
+	 * moving average without enough input yet.
+	 * </p>
+	 */
+	public static final long NO_RATE = Long.MIN_VALUE;
+
+	private static final long ONE_DAY_IN_MS = 24 * 60 * 60 * 1000L;
+	private static final double UNITS_PER_ONE = Math.pow(10, SCALE);
+
+	private long timestamp;
+	private long rate;
 
 	/**
-	 * <p>Convenience constructor if passed a {@link java.time.LocalDate}
+	 * <p>Convenience method to turn a {@link java.time.LocalDate LocalDate}
+	 * into a timestamp, midnight UTC on that day. Unlike the system
+	 * default time zone this is fixed, and needs no lookup.
 	 * </p>
-	 * 
-	 * @param localDate
-	 * @param rate
 	 */
-	public TimePrice(LocalDate localDate, BigDecimal rate) {
-		this.date = TimePrice.convert(localDate);
-		this.rate = rate;
+	public static long toTimestamp(LocalDate localDate) {
+		return toTimestamp(localDate.toEpochDay());
+	}
+	/**
+	 * <p>As {@link #toTimestamp(LocalDate)}, when the day has
+	 * already been counted from the epoch.
+	 * </p>
+	 */
+	public static long toTimestamp(long epochDay) {
+		return epochDay * ONE_DAY_IN_MS;
+	}
+	/**
+	 * <p>Convenience method to turn a timestamp into
+	 * a {@link java.time.LocalDate LocalDate}, the reverse
+	 * of {@link #toTimestamp(LocalDate)}.
+	 * </p>
+	 */
+	public static LocalDate toLocalDate(long timestamp) {
+		return LocalDate.ofEpochDay(Math.floorDiv(timestamp, ONE_DAY_IN_MS));
 	}
 
 	/**
-	 * <p>TODO: In-convenience constructor! Lombok's {@code @AllArgsConstructor}
-	 * should handle this, but something fails somewhere.
+	 * <p>Convenience method to turn a {@link java.math.BigDecimal BigDecimal}
+	 * into a fixed-point price.
 	 * </p>
-	 * 
-	 * @param date
-	 * @param rate
 	 */
-	public TimePrice(Date date, BigDecimal rate) {
-		this.date = date;
-		this.rate = rate;
+	public static long toRate(BigDecimal bigDecimal) {
+		return bigDecimal.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
 	}
-	
 	/**
-	 * <p>For windowing, more convenient to have the date as a
-	 * number.
+	 * <p>Convenience method to turn a {@code double}, such
+	 * as a calculated indicator, into a fixed-point price,
+	 * rounding to the nearest unit.
 	 * </p>
-	 * 
-	 * @return
 	 */
-	public long getTimestamp() {
-		return this.getDate().getTime();
+	public static long toRate(double value) {
+		return Math.round(value * UNITS_PER_ONE);
 	}
-	
 	/**
-	 * <p>Convenience method to turn a {@link java.time.LocalDate LocalDate}
-	 * into {@link java.util.Date Date}.
+	 * <p>Convenience method to turn a fixed-point price into
+	 * a {@link java.math.BigDecimal BigDecimal}, for display.
 	 * </p>
 	 */
-	public static Date convert(LocalDate localDate) {
-		return Date.from(localDate.atStartOfDay(ZoneId.systemDefault()).toInstant());
+	public static BigDecimal toBigDecimal(long rate) {
+		return BigDecimal.valueOf(rate, SCALE);
 	}
 	/**
-	 * <p>Convenience method to turn a {@link java.time.LocalDate LocalDate}
-	 * into {@link java.util.Date Date}.
+	 * <p>Convenience method to turn a fixed-point price into
+	 * a {@code double}, for charting.
 	 * </p>
 	 */
-	public static LocalDate convert(Date date) {
-		return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+	public static double toDouble(long rate) {
+		return rate / UNITS_PER_ONE;
 	}
 
 }
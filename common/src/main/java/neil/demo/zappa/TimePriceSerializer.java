@@ -0,0 +1,42 @@
+package neil.demo.zappa;
+
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * <p>Hazelcast serializer for {@link TimePrice}, registered in the
+ * server and client XML config.
+ * </p>
+ * <p>Java serialization would write the class description along
+ * with the data. As the data is only two {@code long} fields this
+ * is mostly overhead, so write just the two fields, 16 bytes.
+ * </p>
+ */
+public class TimePriceSerializer implements StreamSerializer<TimePrice> {
+
+	@Override
+	public int getTypeId() {
+		return MyConstants.SERIALIZER_TYPE_ID_TIME_PRICE;
+	}
+
+	@Override
+	public void write(ObjectDataOutput out, TimePrice timePrice) throws IOException {
+		out.writeLong(timePrice.getTimestamp());
+		out.writeLong(timePrice.getRate());
+	}
+
+	@Override
+	public TimePrice read(ObjectDataInput in) throws IOException {
+		long timestamp = in.readLong();
+		long rate = in.readLong();
+		return new TimePrice(timestamp, rate);
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
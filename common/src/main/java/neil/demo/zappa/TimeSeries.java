@@ -0,0 +1,80 @@
+package neil.demo.zappa;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.hazelcast.core.IMap;
+
+/**
+ * <p>Utility methods for the "{@code timeseries}"
+ * {@link com.hazelcast.core.IMap IMap}, history of prices and
+ * indicators held in blocks of a calendar month.
+ * </p>
+ * <p>A range query works out which months it covers, and fetches
+ * just those blocks by key. There is no scan of the map, and the
+ * blocks are fetched in parallel from the partitions holding them.
+ * </p>
+ */
+public class TimeSeries {
+
+	private static final int MONTHS_PER_YEAR = 12;
+
+	/**
+	 * <p>The bucket for a time, the month since year zero.
+	 * </p>
+	 */
+	public static long bucketOf(long timestamp) {
+		LocalDate localDate = TimePrice.toLocalDate(timestamp);
+		return localDate.getYear() * (long) MONTHS_PER_YEAR + localDate.getMonthValue() - 1;
+	}
+
+	/**
+	 * <p>Keys for all the blocks of a series from one time to another,
+	 * earliest first.
+	 * </p>
+	 */
+	public static Set<TimeSeriesKey> keys(String pair, String series, long from, long to) {
+		Set<TimeSeriesKey> keys = new LinkedHashSet<>();
+		for (long bucket = bucketOf(from) ; bucket <= bucketOf(to) ; bucket++) {
+			keys.add(new TimeSeriesKey(pair, series, bucket));
+		}
+		return keys;
+	}
+
+	/**
+	 * <p>Prices for a series from one time to another, inclusive,
+	 * in time order.
+	 * </p>
+	 *
+	 * @param timeSeriesMap The "{@code timeseries}" map
+	 * @param pair Currency pair, eg. "{@code BTC/USD}"
+	 * @param series Price or indicator, eg. "{@code 50 Point}"
+	 * @param from Earliest time wanted
+	 * @param to Latest time wanted
+	 * @return Possibly empty
+	 */
+	public static List<TimePrice> range(IMap<TimeSeriesKey, TimeSeriesBlock> timeSeriesMap,
+			String pair, String series, long from, long to) {
+		List<TimePrice> result = new ArrayList<>();
+		if (from > to) {
+			return result;
+		}
+
+		Set<TimeSeriesKey> keys = keys(pair, series, from, to);
+		Map<TimeSeriesKey, TimeSeriesBlock> blocks = timeSeriesMap.getAll(keys);
+
+		for (TimeSeriesKey key : keys) {
+			TimeSeriesBlock block = blocks.get(key);
+			if (block != null) {
+				result.addAll(block.range(from, to));
+			}
+		}
+
+		return result;
+	}
+
+}
@@ -0,0 +1,90 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>The prices of one bucket of a time series, in time order,
+ * as two parallel arrays of {@code long} rather than a list of
+ * {@link TimePrice} objects.
+ * </p>
+ * <p>Appending a price for a time already present replaces it,
+ * so replaying input after a job restart doesn't duplicate
+ * points. Prices for earlier times than the last are inserted
+ * in order, so the arrays stay sorted for {@link #range(long, long)}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@NoArgsConstructor
+public class TimeSeriesBlock implements Serializable {
+
+	// A month of daily prices fits without growing
+	private static final int INITIAL_CAPACITY = 32;
+
+	private int size;
+	private long[] timestamps = new long[0];
+	private long[] rates = new long[0];
+
+	/**
+	 * <p>Add a price, or replace the price for that time.
+	 * </p>
+	 */
+	public void append(long timestamp, long rate) {
+		// Usual case, the newest price
+		if (this.size == 0 || timestamp > this.timestamps[this.size - 1]) {
+			this.insert(this.size, timestamp, rate);
+			return;
+		}
+
+		int position = Arrays.binarySearch(this.timestamps, 0, this.size, timestamp);
+		if (position >= 0) {
+			this.rates[position] = rate;
+		} else {
+			this.insert(-position - 1, timestamp, rate);
+		}
+	}
+
+	/**
+	 * <p>Prices from one time to another, inclusive.
+	 * </p>
+	 */
+	public List<TimePrice> range(long from, long to) {
+		List<TimePrice> result = new ArrayList<>();
+
+		int position = Arrays.binarySearch(this.timestamps, 0, this.size, from);
+		if (position < 0) {
+			position = -position - 1;
+		}
+		while (position < this.size && this.timestamps[position] <= to) {
+			result.add(new TimePrice(this.timestamps[position], this.rates[position]));
+			position++;
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>Open a gap at a position, growing the arrays if full.
+	 * </p>
+	 */
+	private void insert(int position, long timestamp, long rate) {
+		if (this.size == this.timestamps.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, this.size * 2);
+			this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+			this.rates = Arrays.copyOf(this.rates, capacity);
+		}
+
+		System.arraycopy(this.timestamps, position, this.timestamps, position + 1, this.size - position);
+		System.arraycopy(this.rates, position, this.rates, position + 1, this.size - position);
+		this.timestamps[position] = timestamp;
+		this.rates[position] = rate;
+		this.size++;
+	}
+
+}
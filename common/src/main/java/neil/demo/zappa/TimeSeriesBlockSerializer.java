@@ -0,0 +1,49 @@
+package neil.demo.zappa;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * <p>Hazelcast serializer for {@link TimeSeriesBlock}, registered in
+ * the server and client XML config.
+ * </p>
+ * <p>Only the prices in use are written, not the spare capacity
+ * at the end of the arrays, so a block read back has no room
+ * to grow until the next append.
+ * </p>
+ */
+public class TimeSeriesBlockSerializer implements StreamSerializer<TimeSeriesBlock> {
+
+	@Override
+	public int getTypeId() {
+		return MyConstants.SERIALIZER_TYPE_ID_TIME_SERIES_BLOCK;
+	}
+
+	@Override
+	public void write(ObjectDataOutput out, TimeSeriesBlock timeSeriesBlock) throws IOException {
+		int size = timeSeriesBlock.getSize();
+		out.writeLongArray(Arrays.copyOf(timeSeriesBlock.getTimestamps(), size));
+		out.writeLongArray(Arrays.copyOf(timeSeriesBlock.getRates(), size));
+	}
+
+	@Override
+	public TimeSeriesBlock read(ObjectDataInput in) throws IOException {
+		long[] timestamps = in.readLongArray();
+		long[] rates = in.readLongArray();
+
+		TimeSeriesBlock timeSeriesBlock = new TimeSeriesBlock();
+		timeSeriesBlock.setSize(timestamps.length);
+		timeSeriesBlock.setTimestamps(timestamps);
+		timeSeriesBlock.setRates(rates);
+		return timeSeriesBlock;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
@@ -0,0 +1,29 @@
+package neil.demo.zappa;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>Key for a block of a time series, such as the 50 point
+ * average for BTC/USD in March 2018.
+ * </p>
+ * <p>The bucket is part of the key, so each month of a series
+ * is held in a different partition. Writes for the latest month
+ * go to one place, and the history is spread across the cluster.
+ * See {@link TimeSeries#bucketOf(long)}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TimeSeriesKey implements Serializable {
+
+	private String pair;
+	private String series;
+	private long bucket;
+
+}
@@ -0,0 +1,98 @@
+package neil.demo.zappa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Parsing CSV prices from bytes, checked against {@link LocalDate}
+ * and {@link TimePrice#toRate(BigDecimal)}.
+ * </p>
+ */
+public class CurrencyPairValueTest {
+
+	private CurrencyPairValue.CurrencyPairValueDeserializer deserializer;
+
+	@Before
+	public void setUp() {
+		this.deserializer = new CurrencyPairValue.CurrencyPairValueDeserializer();
+	}
+
+	private CurrencyPairValue parse(String s) {
+		return this.deserializer.deserialize(MyConstants.KAFKA_TOPIC_NAME_FX, s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void parsesDateAndRate() {
+		CurrencyPairValue value = this.parse("2018-11-07,1234");
+
+		assertEquals(TimePrice.toTimestamp(LocalDate.of(2018, 11, 7)), value.getTimestamp());
+		assertEquals(12_340_000L, value.getRate());
+	}
+
+	@Test
+	public void ratesMatchBigDecimal() {
+		String[] rates = { "0", "1", "1234.5", "1234.5678", "1234.56785", "1234.56784999",
+				"0.00005", "0.00004", "-0.00005", "-1234.56785", "+7.1", "6395.", "9999999.9999" };
+
+		for (String rate : rates) {
+			assertEquals(rate, TimePrice.toRate(new BigDecimal(rate)), this.parse("2018-01-01," + rate).getRate());
+		}
+	}
+
+	@Test
+	public void ignoresTrailingWhitespace() {
+		assertEquals(12_345_000L, this.parse("2018-01-01,1234.5\r\n").getRate());
+	}
+
+	@Test
+	public void datesMatchLocalDate() {
+		// Long enough to wrap the month cache more than once
+		for (LocalDate day = LocalDate.of(2010, 1, 1) ; day.getYear() < 2020 ; day = day.plusDays(1)) {
+			assertEquals(day.toString(), TimePrice.toTimestamp(day), this.parse(day + ",1").getTimestamp());
+		}
+	}
+
+	@Test
+	public void nullIsNull() {
+		assertNull(this.deserializer.deserialize(MyConstants.KAFKA_TOPIC_NAME_FX, null));
+	}
+
+	@Test(expected = SerializationException.class)
+	public void noComma() {
+		this.parse("2018-11-07");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void badMonth() {
+		this.parse("2018-13-01,1");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void badDay() {
+		this.parse("2019-02-29,1");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void badDateFormat() {
+		this.parse("18-11-07,1");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void noDigits() {
+		this.parse("2018-11-07,-");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void notANumber() {
+		this.parse("2018-11-07,12a4");
+	}
+
+}
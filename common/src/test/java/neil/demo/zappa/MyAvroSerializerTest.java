@@ -0,0 +1,142 @@
+package neil.demo.zappa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.apache.avro.specific.SpecificRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Records written by {@link MyAvroSerializer} are read back by
+ * {@link MyAvroDeserializer} as the same class with the same fields,
+ * using the schema number in the first byte, with one of each kept
+ * and reused for every record.
+ * </p>
+ * <p>A record that can't be read is logged and returned as null,
+ * and the next record is read as normal.
+ * </p>
+ */
+public class MyAvroSerializerTest {
+
+	private static final String TOPIC = MyConstants.KAFKA_TOPIC_NAME_ACCOUNT;
+
+	private MyAvroSerializer serializer;
+	private MyAvroDeserializer deserializer;
+
+	@Before
+	public void setUp() {
+		this.serializer = new MyAvroSerializer();
+		this.deserializer = new MyAvroDeserializer();
+	}
+
+	@Test
+	public void accountBaselineRoundTrip() {
+		this.roundTrip(baseline(), MyConstants.AVRO_SCHEMA_ID_ACCOUNT_BASELINE);
+	}
+
+	@Test
+	public void accountTransactionRoundTrip() {
+		this.roundTrip(transaction("2018-02-01", 10d), MyConstants.AVRO_SCHEMA_ID_ACCOUNT_TRANSACTION);
+	}
+
+	@Test
+	public void gpsRoundTrip() {
+		this.roundTrip(gps(), MyConstants.AVRO_SCHEMA_ID_GPS);
+	}
+
+	/**
+	 * <p>Different classes in turn through the same serializer and
+	 * deserializer, the buffer and decoder carrying nothing over.
+	 * </p>
+	 */
+	@Test
+	public void reused() {
+		SpecificRecord[] records = {
+				baseline(), transaction("2018-02-01", 10d), gps(),
+				transaction("2018-02-02 with a longer description", 3d), baseline()
+		};
+
+		for (SpecificRecord record : records) {
+			byte[] bytes = this.serializer.serialize(TOPIC, record);
+			assertEquals(record, this.deserializer.deserialize(TOPIC, bytes));
+		}
+	}
+
+	/**
+	 * <p>Schema number 0 is not used, and others are past the end
+	 * or negative as a byte.
+	 * </p>
+	 */
+	@Test
+	public void unknownSchemaNumber() {
+		byte[] bytes = this.serializer.serialize(TOPIC, gps());
+
+		for (int id : new int[] { 0, MyAvroSchemas.size(), 127, -1, -128 }) {
+			bytes[0] = (byte) id;
+			assertNull("Schema number " + id, this.deserializer.deserialize(TOPIC, bytes));
+		}
+	}
+
+	/**
+	 * <p>A record cut short, and a header naming the wrong schema so
+	 * the timestamp is read as a string length, can't be read. The
+	 * decoder is fine for the next record.
+	 * </p>
+	 */
+	@Test
+	public void corrupted() {
+		byte[] gps = this.serializer.serialize(TOPIC, gps());
+		byte[] wrongHeader = gps.clone();
+		wrongHeader[0] = (byte) MyConstants.AVRO_SCHEMA_ID_ACCOUNT_TRANSACTION;
+		byte[] transaction = this.serializer.serialize(TOPIC, transaction("2018-02-01", 10d));
+		byte[] truncated = Arrays.copyOf(transaction, transaction.length / 2);
+
+		assertNull(this.deserializer.deserialize(TOPIC, truncated));
+		assertNull(this.deserializer.deserialize(TOPIC, new byte[] { (byte) MyConstants.AVRO_SCHEMA_ID_GPS }));
+		assertNull(this.deserializer.deserialize(TOPIC, wrongHeader));
+
+		assertEquals(transaction("2018-02-01", 10d), this.deserializer.deserialize(TOPIC, transaction));
+	}
+
+	@Test
+	public void nulls() {
+		assertNull(this.serializer.serialize(TOPIC, null));
+		assertNull(this.deserializer.deserialize(TOPIC, null));
+		assertNull(this.deserializer.deserialize(TOPIC, new byte[0]));
+	}
+
+	private void roundTrip(SpecificRecord record, int id) {
+		byte[] bytes = this.serializer.serialize(TOPIC, record);
+
+		assertEquals(id, bytes[0]);
+		assertEquals(record, this.deserializer.deserialize(TOPIC, bytes));
+	}
+
+	private static AccountBaseline baseline() {
+		AccountBaseline accountBaseline = new AccountBaseline();
+		accountBaseline.setWhen("2018-01-01");
+		accountBaseline.setOwner("Frank");
+		accountBaseline.setBalance(100d);
+		return accountBaseline;
+	}
+
+	private static AccountTransaction transaction(String when, double amount) {
+		AccountTransaction accountTransaction = new AccountTransaction();
+		accountTransaction.setWhen(when);
+		accountTransaction.setDescription("Test");
+		accountTransaction.setAmount(amount);
+		accountTransaction.setDebit(false);
+		return accountTransaction;
+	}
+
+	private static Gps gps() {
+		Gps gps = new Gps();
+		gps.setTimestamp(1_541_548_800_000L);
+		gps.setLatitude(51.5074d);
+		gps.setLongitude(-0.1278d);
+		return gps;
+	}
+}
@@ -1,5 +1,9 @@
 package neil.demo.zappa;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Configuration;
@@ -7,6 +11,7 @@ import org.springframework.context.annotation.Configuration;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.ITopic;
 
+import neil.demo.zappa.panel.CandlePanelListener;
 import neil.demo.zappa.panel.PricePanelListener;
 
 /**
@@ -20,19 +25,37 @@ public class ApplicationInitialiser implements CommandLineRunner {
 	@Autowired
 	private HazelcastInstance hazelcastInstance;
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final List<MyTopicListener> topicListeners = new ArrayList<>();
+
 	@Override
 	public void run(String... args) throws Exception {
-		// Listed on all topics
+		// Listen on all topics, replaying what's still held
 		for (String iTopicName : MyConstants.ITOPIC_NAMES) {
-            ITopic iTopic = this.hazelcastInstance.getTopic(iTopicName);
-            iTopic.addMessageListener(new MyTopicListener());
+            MyTopicListener myTopicListener = new MyTopicListener(iTopicName, MyTopicListener.OLDEST_MESSAGE);
+            ITopic<Object> iTopic = this.hazelcastInstance.getReliableTopic(iTopicName);
+            iTopic.addMessageListener(myTopicListener);
+            this.topicListeners.add(myTopicListener);
 		}
 		
-		// Listen on the Bitcoin map
+		// Listen on the Bitcoin map, after drawing what's happened so far
+        PricePanelListener pricePanelListener = new PricePanelListener();
+        pricePanelListener.backfill(this.hazelcastInstance);
         this.hazelcastInstance
         .getMap(MyConstants.IMAP_NAME_BTC_USD)
-        .addEntryListener(new PricePanelListener(), true);
+        .addEntryListener(pricePanelListener, true);
+
+		// And on candles, for the hourly Bitcoin close
+        this.hazelcastInstance
+        .getMap(MyConstants.IMAP_NAME_CANDLE)
+        .addEntryListener(new CandlePanelListener(), true);
+	}
+
+	/**
+	 * <p>The topic listeners, for their counts.
+	 * </p>
+	 */
+	public List<MyTopicListener> getTopicListeners() {
+		return Collections.unmodifiableList(this.topicListeners);
 	}
 
 }
\ No newline at end of file
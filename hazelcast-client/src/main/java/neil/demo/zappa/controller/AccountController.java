@@ -1,6 +1,7 @@
 package neil.demo.zappa.controller;
 
 import java.text.DecimalFormat;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -18,10 +19,11 @@ import org.springframework.web.servlet.ModelAndView;
 
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
-import com.hazelcast.jet.datamodel.Tuple2;
 
 import lombok.extern.slf4j.Slf4j;
-import neil.demo.zappa.AccountBaseline;
+import neil.demo.zappa.AccountHistoryKey;
+import neil.demo.zappa.AccountHistoryPage;
+import neil.demo.zappa.AccountSummary;
 import neil.demo.zappa.AccountTransaction;
 import neil.demo.zappa.MyConstants;
 
@@ -52,7 +54,7 @@ public class AccountController {
     public ModelAndView index(HttpSession httpSession) {
         log.info("index(), session={}", httpSession.getId());
         
-        IMap<String, Tuple2<AccountBaseline, List<AccountTransaction>>> accountMap = 
+        IMap<String, AccountSummary> accountMap = 
         		this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_ACCOUNT);
 
         ModelAndView modelAndView = new ModelAndView("account/index");
@@ -62,6 +64,7 @@ public class AccountController {
         columns.add("Account Holder");
         columns.add("Last Update");
         columns.add("Balance");
+        columns.add("Count");
         modelAndView.addObject("columns", columns);
         
         List<List<String>> data = new ArrayList<>();
@@ -72,14 +75,14 @@ public class AccountController {
         		.collect(Collectors.toCollection(TreeSet::new));
         
         keys.stream().forEach(key -> {
-        	Tuple2<AccountBaseline, List<AccountTransaction>> value = accountMap.get(key);
-        	AccountBaseline accountBaseline = value.getKey();
+        	AccountSummary accountSummary = accountMap.get(key);
         	
         	List<String> datum = new ArrayList<>();
         	datum.add(key);
-        	datum.add("" + accountBaseline.getOwner());
-        	datum.add("" + accountBaseline.getWhen());
-        	datum.add("" + this.currencySymbol + TWO_DP.format(accountBaseline.getBalance()));
+        	datum.add("" + accountSummary.getOwner());
+        	datum.add("" + accountSummary.getWhen());
+        	datum.add("" + this.currencySymbol + TWO_DP.format(accountSummary.getBalance()));
+        	datum.add("" + accountSummary.getTransactions());
         	
         	data.add(datum);
         });
@@ -90,6 +93,11 @@ public class AccountController {
 	/**
 	 * <p>Detailed account info for one account, transactions
 	 * </p>
+	 * <p>One month of transactions is shown, the latest unless
+	 * "{@code j_month}" is given, fetched as one page from the
+	 * history by key. The earlier and later months, if within the
+	 * life of the account, are offered to page to.
+	 * </p>
 	 *
 	 * @param httpSession
 	 * @return
@@ -100,24 +108,44 @@ public class AccountController {
     	if (j_account==null) {
     		j_account="";
     	}
-        log.info("index2({}), session={}", j_account, httpSession.getId());
+    	String j_month = httpServletRequest.getParameter("j_month");
+        log.info("index2({}, {}), session={}", j_account, j_month, httpSession.getId());
 
-        IMap<String, Tuple2<AccountBaseline, List<AccountTransaction>>> accountMap = 
+        IMap<String, AccountSummary> accountMap = 
         		this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_ACCOUNT);
+        IMap<AccountHistoryKey, AccountHistoryPage> accountHistoryMap = 
+        		this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_ACCOUNT_HISTORY);
 
         ModelAndView modelAndView = new ModelAndView("account/index2");
 
-    	Tuple2<AccountBaseline, List<AccountTransaction>> value = accountMap.get(j_account);
+        AccountSummary value = accountMap.get(j_account);
     	
     	if (value != null) {
-        	AccountBaseline accountBaseline = value.getKey();
+    		YearMonth first = YearMonth.parse(AccountHistoryKey.monthOf(value.getOpened()));
+    		YearMonth last = YearMonth.parse(AccountHistoryKey.monthOf(value.getWhen()));
+    		YearMonth month = last;
+    		try {
+    			if (j_month != null) {
+    				month = YearMonth.parse(j_month);
+    			}
+    		} catch (Exception e) {
+    			log.warn("index2({}, {}): {}", j_account, j_month, e.getMessage());
+    		}
         	
         	modelAndView.addObject("account", 
         		j_account);
         	modelAndView.addObject("holder", 
-            	accountBaseline.getOwner()+"");
+            	value.getOwner()+"");
         	modelAndView.addObject("balance", 
-        		this.currencySymbol + TWO_DP.format(accountBaseline.getBalance()));
+        		this.currencySymbol + TWO_DP.format(value.getBalance()));
+        	modelAndView.addObject("month", 
+        		month.toString());
+        	if (month.isAfter(first)) {
+        		modelAndView.addObject("previous", month.minusMonths(1).toString());
+        	}
+        	if (month.isBefore(last)) {
+        		modelAndView.addObject("next", month.plusMonths(1).toString());
+        	}
 
             List<String> columns = new ArrayList<>();
             columns.add("Date");
@@ -129,7 +157,10 @@ public class AccountController {
             List<List<String>> data = new ArrayList<>();
             modelAndView.addObject("data", data);
             
-            for (AccountTransaction accountTransaction : value.getValue()) {
+            AccountHistoryPage page = 
+            		accountHistoryMap.get(new AccountHistoryKey(j_account, month.toString()));
+            
+            for (AccountTransaction accountTransaction : (page == null ? new ArrayList<AccountTransaction>() : page.getTransactions())) {
             	List<String> datum = new ArrayList<>();
 
             	datum.add("" + accountTransaction.getWhen());
@@ -17,7 +17,9 @@ import org.springframework.web.servlet.ModelAndView;
 import com.hazelcast.core.HazelcastInstance;
 
 import lombok.extern.slf4j.Slf4j;
+import neil.demo.zappa.ApplicationInitialiser;
 import neil.demo.zappa.MyConstants;
+import neil.demo.zappa.MyTopicListener;
 
 /**
  * <p>Diagnostic info
@@ -32,6 +34,8 @@ public class DebugController {
 	private Environment environment;
 	@Autowired
 	private HazelcastInstance hazelcastInstance;
+	@Autowired
+	private ApplicationInitialiser applicationInitialiser;
 
 	/**
 	 * <p>Count the un-expired HTTP sessions
@@ -72,6 +76,26 @@ public class DebugController {
     	});
         modelAndView.addObject("data", data);
 
+        // Topic listener counts
+        List<String> topicColumns = new ArrayList<>();
+        topicColumns.add("Topic");
+        topicColumns.add("Delivered");
+        topicColumns.add("Lost");
+        topicColumns.add("Lagging");
+        modelAndView.addObject("topicColumns", topicColumns);
+
+        List<List<String>> topicData = new ArrayList<>();
+        for (MyTopicListener myTopicListener : this.applicationInitialiser.getTopicListeners()) {
+    		List<String> value = new ArrayList<>();
+    		value.add(myTopicListener.getName());
+    		value.add(String.valueOf(myTopicListener.getDelivered()));
+    		value.add(String.valueOf(myTopicListener.getLost()));
+    		value.add(String.valueOf(myTopicListener.getLagging()));
+
+    		topicData.add(value);
+        }
+        modelAndView.addObject("topicData", topicData);
+
         // Find host IP from Hazelcast, web server port from Spring
         String port = this.environment.getProperty("local.server.port");
         String socketAddress
@@ -2,7 +2,9 @@ package neil.demo.zappa.controller;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -12,15 +14,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
-import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.datamodel.Tuple3;
 
 import lombok.extern.slf4j.Slf4j;
+import neil.demo.zappa.BacktestResult;
+import neil.demo.zappa.Correlation;
 import neil.demo.zappa.MyConstants;
 import neil.demo.zappa.TimePrice;
+import neil.demo.zappa.TimeSeries;
+import neil.demo.zappa.TimeSeriesBlock;
+import neil.demo.zappa.TimeSeriesKey;
 
 /**
  * <p>Foreign Exchange
@@ -32,6 +40,10 @@ import neil.demo.zappa.TimePrice;
 @Slf4j
 public class FxController {
 
+	private static final int BACKTEST_RESULTS_SHOWN = 50;
+	private static final int CORRELATION_PAIRS_SHOWN = 20;
+	private static final int HISTORY_MONTHS_SHOWN = 24;
+
 	@Autowired
 	private HazelcastInstance hazelcastInstance;
 
@@ -50,24 +62,29 @@ public class FxController {
 
         List<String> columns = new ArrayList<>();
         columns.add("Date");
+        columns.add("Pair");
+        columns.add("Rule");
         columns.add("Cross");
-        columns.add("50-Point");
-        columns.add("200-Point");
+        columns.add("Fast");
+        columns.add("Slow");
         modelAndView.addObject("columns", columns);
         
         List<List<String>> data = new ArrayList<>();
         modelAndView.addObject("data", data);
 
-        IMap<Tuple2<LocalDate, String>, Tuple2<BigDecimal, BigDecimal>> 
+        IMap<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>> 
     		alertsMap = this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_ALERT);
 
-        for (Map.Entry<Tuple2<LocalDate, String>, Tuple2<BigDecimal, BigDecimal>> entry : alertsMap.entrySet()) {
+        for (Map.Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>> entry
+        		: alertsMap.entrySet()) {
         	List<String> datum = new ArrayList<>();
         	
         	datum.add(entry.getKey().f0().toString());
         	datum.add(entry.getKey().f1());
-        	datum.add(entry.getValue().f0().toString());
+        	datum.add(entry.getKey().f2());
+        	datum.add(entry.getValue().f0());
         	datum.add(entry.getValue().f1().toString());
+        	datum.add(entry.getValue().f2().toString());
         	
         	data.add(datum);
         }
@@ -76,15 +93,30 @@ public class FxController {
 	}
 	
 	/**
-	 * <p>Is there anything in the Bitcoin prices map?
+	 * <p>Is there anything in the Bitcoin prices map? And what
+	 * is the history of one of them over a range of dates?
+	 * </p>
+	 * <p>The history defaults to the 50 point average for the month
+	 * so far, the month being that of the latest price. A date
+	 * that doesn't parse is logged and the default used instead.
+	 * </p>
+	 * <p>Each month is a block fetched from the "{@code timeseries}"
+	 * map, so the range is cut to the last {@link #HISTORY_MONTHS_SHOWN}
+	 * months up to the "{@code to}" date.
 	 * </p>
 	 * 
 	 * @param httpSession
+	 * @param series Price to show the history of, eg. "{@code 50 Point}"
+	 * @param from First day of history, "{@code yyyy-mm-dd}"
+	 * @param to Last day of history, "{@code yyyy-mm-dd}"
 	 * @return
 	 */
 	@GetMapping("/index2")
-    public ModelAndView index2(HttpSession httpSession) {
-        log.info("index2(), session={}", httpSession.getId());
+    public ModelAndView index2(HttpSession httpSession,
+    		@RequestParam(name = "series", required = false) String series,
+    		@RequestParam(name = "from", required = false) String from,
+    		@RequestParam(name = "to", required = false) String to) {
+        log.info("index2({}, {}, {}), session={}", series, from, to, httpSession.getId());
 
         ModelAndView modelAndView = new ModelAndView("fx/index2");
         
@@ -102,11 +134,155 @@ public class FxController {
         	List<String> datum = new ArrayList<>();
         	
         	datum.add(entry.getKey());
-        	datum.add(entry.getValue().getRate().toString());
+        	datum.add(TimePrice.toBigDecimal(entry.getValue().getRate()).toString());
         	
         	data.add(datum);
         }
         
+        // History, by default for the month of the latest price
+        if (series == null || series.isEmpty()) {
+        	series = MyConstants.KEY_50_POINT;
+        }
+        TimePrice current = btcUsdMap.get(MyConstants.KEY_CURRENT);
+        LocalDate toDate = (current == null ? LocalDate.now() : TimePrice.toLocalDate(current.getTimestamp()));
+        try {
+        	if (to != null && !to.isEmpty()) {
+        		toDate = LocalDate.parse(to);
+        	}
+        } catch (DateTimeParseException e) {
+        	log.warn("index2({}, {}, {}): {}", series, from, to, e.getMessage());
+        }
+        LocalDate fromDate = toDate.withDayOfMonth(1);
+        try {
+        	if (from != null && !from.isEmpty()) {
+        		fromDate = LocalDate.parse(from);
+        	}
+        } catch (DateTimeParseException e) {
+        	log.warn("index2({}, {}, {}): {}", series, from, to, e.getMessage());
+        }
+        LocalDate earliest = toDate.minusMonths(HISTORY_MONTHS_SHOWN - 1).withDayOfMonth(1);
+        if (fromDate.isBefore(earliest)) {
+        	log.warn("index2({}, {}, {}): more than {} months, from {} instead",
+        			series, from, to, HISTORY_MONTHS_SHOWN, earliest);
+        	fromDate = earliest;
+        }
+        modelAndView.addObject("series", series);
+        modelAndView.addObject("from", fromDate.toString());
+        modelAndView.addObject("to", toDate.toString());
+
+        List<String> historyColumns = new ArrayList<>();
+        modelAndView.addObject("historyColumns", historyColumns);
+        historyColumns.add("Date");
+        historyColumns.add(series);
+
+        List<List<String>> historyData = new ArrayList<>();
+        modelAndView.addObject("historyData", historyData);
+
+        IMap<TimeSeriesKey, TimeSeriesBlock> timeSeriesMap =
+        		this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_TIME_SERIES);
+
+        for (TimePrice timePrice : TimeSeries.range(timeSeriesMap, MyConstants.IMAP_NAME_BTC_USD, series,
+        		TimePrice.toTimestamp(fromDate), TimePrice.toTimestamp(toDate))) {
+        	List<String> datum = new ArrayList<>();
+
+        	datum.add(TimePrice.toLocalDate(timePrice.getTimestamp()).toString());
+        	datum.add(TimePrice.toBigDecimal(timePrice.getRate()).toString());
+
+        	historyData.add(datum);
+        }
+        
+        return modelAndView;
+	}
+
+	/**
+	 * <p>Which crossover periods would have done best? Most
+	 * profitable first, only the top few.
+	 * </p>
+	 * 
+	 * @param httpSession
+	 * @return
+	 */
+	@GetMapping("/index3")
+    public ModelAndView index3(HttpSession httpSession) {
+        log.info("index3(), session={}", httpSession.getId());
+
+        ModelAndView modelAndView = new ModelAndView("fx/index3");
+
+        List<String> columns = new ArrayList<>();
+        columns.add("Short");
+        columns.add("Long");
+        columns.add("Crosses");
+        columns.add("Trades");
+        columns.add("Wins");
+        columns.add("Profit");
+        modelAndView.addObject("columns", columns);
+        
+        List<List<String>> data = new ArrayList<>();
+        modelAndView.addObject("data", data);
+
+        IMap<String, BacktestResult> backtestMap = this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_BACKTEST);
+
+        backtestMap.values().stream()
+        .sorted(Comparator.comparingLong(BacktestResult::getProfit).reversed())
+        .limit(BACKTEST_RESULTS_SHOWN)
+        .forEach(backtestResult -> {
+        	List<String> datum = new ArrayList<>();
+
+        	datum.add(String.valueOf(backtestResult.getShortPeriod()));
+        	datum.add(String.valueOf(backtestResult.getLongPeriod()));
+        	datum.add(String.valueOf(backtestResult.getCrosses()));
+        	datum.add(String.valueOf(backtestResult.getTrades()));
+        	datum.add(String.valueOf(backtestResult.getWins()));
+        	datum.add(TimePrice.toBigDecimal(backtestResult.getProfit()).toString());
+
+        	data.add(datum);
+        });
+
+        return modelAndView;
+	}
+
+	/**
+	 * <p>The correlation matrix, for the first few currency pairs.
+	 * </p>
+	 */
+	@GetMapping("/index4")
+    public ModelAndView index4(HttpSession httpSession) {
+        log.info("index4(), session={}", httpSession.getId());
+
+        ModelAndView modelAndView = new ModelAndView("fx/index4");
+
+        List<String> columns = new ArrayList<>();
+        modelAndView.addObject("columns", columns);
+        
+        List<List<String>> data = new ArrayList<>();
+        modelAndView.addObject("data", data);
+
+        IMap<String, Correlation> correlationMap = this.hazelcastInstance.getMap(MyConstants.IMAP_NAME_CORRELATION);
+        Correlation correlation = correlationMap.get(MyConstants.KAFKA_TOPIC_NAME_FX);
+        if (correlation == null) {
+        	return modelAndView;
+        }
+        modelAndView.addObject("date", TimePrice.toLocalDate(correlation.getTimestamp()));
+
+        String[] currencyPairs = correlation.getCurrencyPairs();
+        int shown = Math.min(currencyPairs.length, CORRELATION_PAIRS_SHOWN);
+
+        columns.add("");
+        for (int j = 0 ; j < shown ; j++) {
+        	columns.add(currencyPairs[j]);
+        }
+        for (int i = 0 ; i < shown ; i++) {
+        	List<String> datum = new ArrayList<>();
+
+        	datum.add(currencyPairs[i]);
+        	for (int j = 0 ; j < shown ; j++) {
+        		double value = correlation.get(i, j);
+        		datum.add(Double.isNaN(value) ? "" : String.format("%.2f", value));
+        	}
+
+        	data.add(datum);
+        }
+
         return modelAndView;
 	}
 }
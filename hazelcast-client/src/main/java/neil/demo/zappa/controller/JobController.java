@@ -69,6 +69,9 @@ public class JobController {
     		if (jobName.equals(MyConstants.JOB_NAME_WORD_COUNT)
     				|| jobName.equals(MyConstants.JOB_NAME_HEATHROW_EXPRESS_2)) {
            		datum.put("Start Params", "");
+    		} else if (jobName.equals(MyConstants.JOB_NAME_MOVING_AVERAGE_BACKFILL)
+    				|| jobName.equals(MyConstants.JOB_NAME_MOVING_AVERAGE_BACKTEST)) {
+           		datum.put("Start Params", MyConstants.BACKFILL_SOURCE_CSV);
     		} else {
            		datum.put("Start Params", this.bootstrapServers);
     		}
@@ -146,10 +149,15 @@ public class JobController {
         // Augment params
         if (MyConstants.COMMAND_START.equals(j_verb)) {
         	if (MyConstants.JOB_NAME_ACCOUNT.equals(j_noun)
+        			|| MyConstants.JOB_NAME_CORRELATION.equals(j_noun)
         			|| MyConstants.JOB_NAME_HEATHROW_EXPRESS_1.equals(j_noun)
         			|| MyConstants.JOB_NAME_MOVING_AVERAGE.equals(j_noun) ) {
             	j_params.add(this.bootstrapServers);
         	}
+        	if (MyConstants.JOB_NAME_MOVING_AVERAGE_BACKFILL.equals(j_noun)
+        			|| MyConstants.JOB_NAME_MOVING_AVERAGE_BACKTEST.equals(j_noun)) {
+            	j_params.add(MyConstants.BACKFILL_SOURCE_CSV);
+        	}
         }
 
         // Request
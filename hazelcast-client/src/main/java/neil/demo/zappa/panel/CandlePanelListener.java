@@ -0,0 +1,56 @@
+package neil.demo.zappa.panel;
+
+import org.jfree.data.time.FixedMillisecond;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+
+import neil.demo.zappa.Candle;
+import neil.demo.zappa.MyConstants;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>This class listens for changes to the
+ * "{@code candle}" {@link com.hazelcast.core.IMap IMap} and passes
+ * the closing price of hourly BTC/USD candles to the same
+ * {@link PricePanel} as {@link PricePanelListener}.
+ * </p>
+ * <p>Candles at other resolutions, and for other currency
+ * pairs, are ignored.
+ * </p>
+ */
+public class CandlePanelListener implements EntryAddedListener<String, Candle>, EntryUpdatedListener<String, Candle> {
+
+	private static final String KEY = MyConstants.IMAP_NAME_BTC_USD + " " + MyConstants.CANDLE_CHART_RESOLUTION;
+
+	@Override
+	public void entryAdded(EntryEvent<String, Candle> entryEvent) {
+		this.chart(entryEvent);
+	}
+
+	@Override
+	public void entryUpdated(EntryEvent<String, Candle> entryEvent) {
+		this.chart(entryEvent);
+	}
+
+	/**
+	 * <p>Pass the candle's close to the chart, as at the start of
+	 * the candle's period.
+	 * </p>
+	 *
+	 * @param entryEvent An add or update to "{@code candle}" {@link com.hazelcast.core.IMap IMap}
+	 */
+	private void chart(EntryEvent<String, Candle> entryEvent) {
+		if (!KEY.equals(entryEvent.getKey())) {
+			return;
+		}
+
+		Candle candle = entryEvent.getValue();
+		double rate = TimePrice.toDouble(candle.getClose());
+
+		PricePanelListener.getPricePanel().update(MyConstants.KEY_CANDLE_CLOSE, rate,
+				new FixedMillisecond(candle.getStart()));
+	}
+
+}
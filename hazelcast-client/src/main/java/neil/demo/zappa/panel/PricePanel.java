@@ -14,6 +14,7 @@ import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.data.Range;
 import org.jfree.data.time.Day;
+import org.jfree.data.time.RegularTimePeriod;
 import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.time.TimeSeriesDataItem;
@@ -62,12 +63,13 @@ public class PricePanel extends JPanel {
 	    jFreeChart.getXYPlot().setDomainPannable(true);
 	    jFreeChart.getXYPlot().setRangePannable(true);
 
-	    // Colours for average, 50-point, 200-point respectively
+	    // Colours for average, 50-point, 200-point, hourly candle close respectively
 	    XYPlot xyPlot = jFreeChart.getXYPlot();
 	    XYItemRenderer xYItemRenderer = xyPlot.getRenderer();
 	    xYItemRenderer.setSeriesPaint(0, Color.BLUE);
 	    xYItemRenderer.setSeriesPaint(1, Color.RED);
 	    xYItemRenderer.setSeriesPaint(2, Color.MAGENTA);
+	    xYItemRenderer.setSeriesPaint(3, Color.GREEN);
 
 	    // Add the chart to the panel
 	    this.setLayout(new BorderLayout());
@@ -86,10 +88,27 @@ public class PricePanel extends JPanel {
     public void update(String name, double rate, LocalDate localDate) {
 		Day day = new Day(localDate.getDayOfMonth(), localDate.getMonthValue(), localDate.getYear());
 
+		this.update(name, rate, day);
+    }
+
+	/**
+	 * <p>Update the panel with a new price for a period of time,
+	 * such as the closing price of a candle.
+	 * </p>
+	 * <p>Each line must always be given the same kind of period,
+	 * days or milliseconds for example, but different lines
+	 * can use different kinds.
+	 * </p>
+	 * 
+	 * @param name Which line on the chart
+	 * @param rate In US Dollars, the price of Bitcoin
+	 * @param period The time that price is for
+	 */
+    public void update(String name, double rate, RegularTimePeriod period) {
     	// Add the relevant price into the time series array
     	for (int i=0 ; i < MyConstants.CHART_LINES.length; i++) {
     		if (MyConstants.CHART_LINES[i].equals(name)) {
-				this.timeSeries[i].addOrUpdate(new TimeSeriesDataItem(day, rate));
+				this.timeSeries[i].addOrUpdate(new TimeSeriesDataItem(period, rate));
      		}
     	}
     }
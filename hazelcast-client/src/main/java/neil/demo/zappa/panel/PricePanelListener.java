@@ -5,10 +5,15 @@ import java.time.LocalDate;
 import javax.swing.JFrame;
 
 import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
 import com.hazelcast.map.listener.EntryUpdatedListener;
 
 import neil.demo.zappa.MyConstants;
 import neil.demo.zappa.TimePrice;
+import neil.demo.zappa.TimeSeries;
+import neil.demo.zappa.TimeSeriesBlock;
+import neil.demo.zappa.TimeSeriesKey;
 
 /**
  * <p>This class listens for changes to the
@@ -21,6 +26,18 @@ public class PricePanelListener implements EntryUpdatedListener<String, TimePric
 
 	private static PricePanel pricePanel = null;
 
+	/**
+	 * <p>The panel, displayed on first use. Shared with
+	 * {@link CandlePanelListener} so both draw on the one chart.
+	 * </p>
+	 */
+	static synchronized PricePanel getPricePanel() {
+		if (pricePanel == null) {
+			new PricePanelListener().activateDisplay();
+		}
+		return pricePanel;
+	}
+
 	/**
 	 * <p>Create and display a panel as the only visible
 	 * component in a frame.
@@ -37,6 +54,39 @@ public class PricePanelListener implements EntryUpdatedListener<String, TimePric
 		frame.setVisible(true);
 	}
 
+	/**
+	 * <p>Draw the history of each line on the chart, for the
+	 * year up to the latest price, so the chart doesn't start
+	 * empty if prices have been flowing for a while.
+	 * </p>
+	 * <p>Nothing is drawn if there are no prices yet.
+	 * </p>
+	 *
+	 * @param hazelcastInstance To find the latest price and history
+	 */
+	public void backfill(HazelcastInstance hazelcastInstance) {
+		IMap<String, TimePrice> btcUsdMap = hazelcastInstance.getMap(MyConstants.IMAP_NAME_BTC_USD);
+		TimePrice current = btcUsdMap.get(MyConstants.KEY_CURRENT);
+		if (current == null) {
+			return;
+		}
+
+		IMap<TimeSeriesKey, TimeSeriesBlock> timeSeriesMap =
+				hazelcastInstance.getMap(MyConstants.IMAP_NAME_TIME_SERIES);
+		LocalDate to = TimePrice.toLocalDate(current.getTimestamp());
+		LocalDate from = to.minusYears(1);
+
+		PricePanel pricePanel = PricePanelListener.getPricePanel();
+
+		for (String name : MyConstants.CHART_LINES) {
+			for (TimePrice timePrice : TimeSeries.range(timeSeriesMap, MyConstants.IMAP_NAME_BTC_USD, name,
+					TimePrice.toTimestamp(from), TimePrice.toTimestamp(to))) {
+				pricePanel.update(name, TimePrice.toDouble(timePrice.getRate()),
+						TimePrice.toLocalDate(timePrice.getTimestamp()));
+			}
+		}
+	}
+
 	/**
 	 * <p>On an update event, the save to the Hazelcast map,
 	 * pass the new value to the chart to display.
@@ -48,16 +98,12 @@ public class PricePanelListener implements EntryUpdatedListener<String, TimePric
 	public void entryUpdated(EntryEvent<String, TimePrice> entryEvent) {
 
 		// Initialise the panel if needed
-		synchronized (this) {
-			if (pricePanel == null) {
-				this.activateDisplay();
-			}
-		}
+		PricePanel pricePanel = PricePanelListener.getPricePanel();
 		
 		TimePrice timePrice = entryEvent.getValue();
 
-		LocalDate day = TimePrice.convert(timePrice.getDate());
-		double rate = timePrice.getRate().doubleValue();
+		LocalDate day = TimePrice.toLocalDate(timePrice.getTimestamp());
+		double rate = TimePrice.toDouble(timePrice.getRate());
 		
 		pricePanel.update(entryEvent.getKey(), rate, day);
 	}
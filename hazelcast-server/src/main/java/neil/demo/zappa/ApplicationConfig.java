@@ -17,6 +17,7 @@ import com.hazelcast.kubernetes.KubernetesProperties;
 import com.hazelcast.spi.properties.GroupProperty;
 
 import lombok.extern.slf4j.Slf4j;
+import neil.demo.zappa.jet.account.AccountDataSerializableFactory;
 
 /**
  * <p>"<i>temporary code</i>"
@@ -36,6 +37,10 @@ public class ApplicationConfig {
 	@Bean
 	public Config config() {
 		Config config = new ClasspathXmlConfig("hazelcast.xml");
+
+		// In code rather than XML, so the id is the same constant the factory's objects use
+		config.getSerializationConfig().addDataSerializableFactory(AccountDataSerializableFactory.FACTORY_ID,
+				new AccountDataSerializableFactory());
 		
 		boolean k8s = System.getProperty("k8s", "false").equalsIgnoreCase("true");
 		log.info("Kubernetes=={}", k8s);
@@ -32,7 +32,7 @@ public class ApplicationInitialiser implements CommandLineRunner {
             this.hazelcastInstance.getSet(setName);
         }
         for (String topicName : MyConstants.ITOPIC_NAMES) {
-            this.hazelcastInstance.getTopic(topicName);
+            this.hazelcastInstance.getReliableTopic(topicName);
         }
         
         // Test data load, if not already loaded
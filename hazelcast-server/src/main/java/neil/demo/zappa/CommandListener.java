@@ -9,6 +9,7 @@ import com.hazelcast.core.EntryEvent;
 import com.hazelcast.jet.JetInstance;
 import com.hazelcast.jet.Job;
 import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.config.ProcessingGuarantee;
 import com.hazelcast.jet.core.DAG;
 import com.hazelcast.jet.core.JobStatus;
 import com.hazelcast.jet.pipeline.Pipeline;
@@ -19,6 +20,9 @@ import lombok.extern.slf4j.Slf4j;
 import neil.demo.zappa.jet.account.Account;
 import neil.demo.zappa.jet.heathrowexpress.HExEgest;
 import neil.demo.zappa.jet.heathrowexpress.HExIngest;
+import neil.demo.zappa.jet.movingaverage.BacktestDAG;
+import neil.demo.zappa.jet.movingaverage.CorrelationDAG;
+import neil.demo.zappa.jet.movingaverage.MovingAverageBackfillDAG;
 import neil.demo.zappa.jet.movingaverage.MovingAverageDAG;
 import neil.demo.zappa.jet.wordcount.WordCount;
 
@@ -61,6 +65,9 @@ import neil.demo.zappa.jet.wordcount.WordCount;
 @Slf4j
 public class CommandListener implements EntryAddedListener<String, List<String>>, EntryUpdatedListener<String, List<String>> {
 
+	// How often stateful streaming jobs save a snapshot to restart from
+	private static final long SNAPSHOT_INTERVAL_MS = 10_000L;
+
 	@Autowired
     private JetInstance jetInstance;
 
@@ -126,8 +133,9 @@ public class CommandListener implements EntryAddedListener<String, List<String>>
      *
      * @param noun Name of the job to create
      * @param params Any params for the constructor
+     * @throws Exception If the job can't be built
      */
-    private void handleStart(String noun, String params) {
+    private void handleStart(String noun, String params) throws Exception {
     	Job job = this.jetInstance.getJob(noun);
     	if (job!=null) {
             log.info("Ignoring start request, '{}' job id {} has status '{}'",
@@ -142,14 +150,42 @@ public class CommandListener implements EntryAddedListener<String, List<String>>
     	if (noun.equals(MyConstants.JOB_NAME_MOVING_AVERAGE)) {
     		if (params!=null) {
         		dag = MovingAverageDAG.build(params);
+        		// Restart from Kafka offsets and averages in the last snapshot
+        		jobConfig.setProcessingGuarantee(ProcessingGuarantee.EXACTLY_ONCE);
+        		jobConfig.setSnapshotIntervalMillis(SNAPSHOT_INTERVAL_MS);
+    		} else {
+    			log.error("Params null for {}", noun); 
+    		}
+    	}
+    	if (noun.equals(MyConstants.JOB_NAME_MOVING_AVERAGE_BACKFILL)) {
+    		if (params!=null) {
+    			// Batch, CSV file or Kafka connection info
+        		dag = MovingAverageBackfillDAG.build(params);
+    		} else {
+    			log.error("Params null for {}", noun); 
+    		}
+    	}
+    	if (noun.equals(MyConstants.JOB_NAME_MOVING_AVERAGE_BACKTEST)) {
+    		if (params!=null) {
+    			// Batch, CSV file or Kafka connection info
+        		dag = BacktestDAG.build(params);
+    		} else {
+    			log.error("Params null for {}", noun); 
+    		}
+    	}
+    	if (noun.equals(MyConstants.JOB_NAME_CORRELATION)) {
+    		if (params!=null) {
+        		dag = CorrelationDAG.build(params);
+        		// Restart from Kafka offsets and the matrix in the last snapshot
+        		jobConfig.setProcessingGuarantee(ProcessingGuarantee.EXACTLY_ONCE);
+        		jobConfig.setSnapshotIntervalMillis(SNAPSHOT_INTERVAL_MS);
     		} else {
     			log.error("Params null for {}", noun); 
     		}
     	}
     	if (noun.equals(MyConstants.JOB_NAME_ACCOUNT)) {
     		if (params!=null) {
-    			Pipeline pipeline = Account.build(params);
-        		dag = pipeline.toDag();
+        		dag = Account.build(params);
     		} else {
     			log.error("Params null for {}", noun); 
     		}
@@ -1,9 +1,6 @@
 package neil.demo.zappa.jet.account;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.UUID;
@@ -11,16 +8,19 @@ import java.util.UUID;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 
-import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Vertex;
+import com.hazelcast.jet.core.WatermarkGenerationParams;
+import com.hazelcast.jet.core.processor.DiagnosticProcessors;
+import com.hazelcast.jet.core.processor.Processors;
+import com.hazelcast.jet.function.DistributedFunction;
 import com.hazelcast.jet.function.DistributedFunctions;
-import com.hazelcast.jet.kafka.KafkaSources;
-import com.hazelcast.jet.pipeline.Pipeline;
-import com.hazelcast.jet.pipeline.Sink;
-import com.hazelcast.jet.pipeline.Sinks;
-import com.hazelcast.jet.pipeline.StreamStage;
-import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.jet.kafka.KafkaProcessors;
 
 import neil.demo.zappa.AccountBaseline;
+import neil.demo.zappa.AccountHistoryKey;
+import neil.demo.zappa.AccountSummary;
 import neil.demo.zappa.AccountTransaction;
 import neil.demo.zappa.MyAvroDeserializer;
 import neil.demo.zappa.MyConstants;
@@ -30,15 +30,67 @@ import neil.demo.zappa.MyConstants;
  * <p>Read {@link AccountBaseline} and {@link AccountTransaction}
  * records into memory.
  * </p>
- * <p>For <u>simplicity</u> assume that these records are not
- * processed out of order. This is not going to be the case for
- * live so this would need handled.
+ * <p>Each account is held as an {@link AccountSummary} in the
+ * "{@code account}" map, and its transactions are appended to
+ * a page per month in the "{@code account_history}" map. So a
+ * transaction costs the same however many came before.
+ * </p>
+ * <p>Records are applied in batches, see
+ * {@link AccountBatchSinkProcessor}, so a busy account is
+ * updated once for all its records waiting.
+ * </p>
+ * <p>Each record carries its Kafka offset, see {@link AccountRecord},
+ * and the summary and each page keep the offset of the last record
+ * applied. The consumer group is new each time so the job reads
+ * the topic from the start, which rebuilds the maps after a
+ * cluster restart. If the job alone is restarted the maps are
+ * still there, and records already applied are skipped rather
+ * than counted twice.
+ * </p>
+ * <p>All records for an account are on one Kafka partition, in
+ * offset order. Records are partitioned by account on every edge
+ * from the source, so each account goes through one instance of
+ * each vertex, and Jet keeps the order of items between any two
+ * instances. Baselines and transactions go to the summary down the
+ * same edges, to one {@link AccountMergeEntryProcessor} that applies
+ * both. So each account's baseline and transactions reach the
+ * summary in offset order, and only one sink instance applies them.
+ * Its transactions alone go to the history the same way.
  * </p>
  */
 public class Account {
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public static Pipeline build(String bootstrapServers) {
+	/**
+	 * <p>From top to bottom, the DAG graph can be visualised
+	 * as below:
+	 * <pre>
+	 *                      +------------+
+	 *                      |1  Kafka    |
+	 *                      |   Source   |
+	 *                      +------------+
+	 *                     /       |      \
+	 *      +------------+  +------------+  +------------+
+	 *      |2 Account   |  |3 Transac-  |  |4  Sink To  |
+	 *      |   Filter   |  |tions Filter|  |    Log     |
+	 *      +------------+  +------------+  +------------+
+	 *            |               |
+	 *      +------------+  +------------+
+	 *      |5 Merge To  |  |6 Append To |
+	 *      | "account"  |  |  "account_ |
+	 *      |    map     |  |  history"  |
+	 *      +------------+  +------------+
+	 * </pre>
+	 * <p>The edges from 1 to 2 and 3 are distributed and partitioned
+	 * by account, and those from 2 to 5 and 3 to 6 partitioned by
+	 * account, so each account's records are batched by one instance
+	 * of {@link AccountBatchSinkProcessor} for each map. Vertex 2
+	 * passes baselines and transactions, vertex 3 transactions only.
+	 * </p>
+	 *
+	 * @param bootstrapServers Kafka connection info
+	 * @return A DAG to run as a Jet job
+	 */
+	public static DAG build(String bootstrapServers) {
 		Properties properties = new Properties();
 		properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
 		properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
@@ -46,38 +98,65 @@ public class Account {
 		properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getCanonicalName());
 		properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, MyAvroDeserializer.class.getCanonicalName());
 
-		Pipeline pipeline = Pipeline.create();
-
-		StreamStage<Map.Entry<String, ?>> input = 
-				pipeline
-				.drawFrom(KafkaSources.kafka(properties, MyConstants.KAFKA_TOPIC_NAME_ACCOUNT));
-
-		// Baseline records write in directly with empty transaction list
-		input
-		.filter(entry -> AccountBaseline.class.isInstance(entry.getValue()))
-		.map(oldEntry -> {
-			AccountBaseline accountBaseline = (AccountBaseline) oldEntry.getValue();
-			Tuple2<AccountBaseline, List<AccountTransaction>> newValue = 
-					Tuple2.tuple2(accountBaseline, new ArrayList<>());
-			return (Map.Entry<String, ?>) new SimpleImmutableEntry(oldEntry.getKey(), newValue);
-		})
-		.drainTo(
-				Sinks.map(MyConstants.IMAP_NAME_ACCOUNT));
-
-		// Delta records merge in using the provided merge function
-		input
-		.filter(entry -> AccountTransaction.class.isInstance(entry.getValue()))
-		.drainTo((Sink<? super Entry<String, ?>>) 
-				Sinks.mapWithEntryProcessor(
-					MyConstants.IMAP_NAME_ACCOUNT,
-					DistributedFunctions.entryKey(),
-					entry -> ((EntryProcessor) new AccountMergeEntryProcessor(entry.getValue()))));
+		DAG dag = new DAG();
+
+		Vertex kafka = dag.newVertex("Kafka Source",
+				KafkaProcessors.<String, Object, Entry<String, AccountRecord>>streamKafkaP(properties,
+						record -> new SimpleImmutableEntry<>(record.key(), new AccountRecord(record.offset(), record.value())),
+						WatermarkGenerationParams.noWatermarks(),
+						MyConstants.KAFKA_TOPIC_NAME_ACCOUNT));
+
+		// Baseline and delta records, each account to one place, in the order read
+		Vertex records = dag.newVertex("Account Filter", Processors.filterP(Account::isBaselineOrTransaction));
+		dag.edge(Edge.from(kafka,0).to(records)
+				.distributed().partitioned(Account.accountKey()));
+
+		// Merge in using the provided merge function, a batch per account at a time
+		Vertex mergeSink = dag.newVertex("Account Merge Sink",
+				() -> new AccountBatchSinkProcessor<String>(
+						MyConstants.IMAP_NAME_ACCOUNT,
+						DistributedFunctions.entryKey(),
+						list -> new AccountMergeEntryProcessor(list)));
+		dag.edge(Edge.between(records,mergeSink)
+				.partitioned(Account.accountKey()));
+
+		// Delta records only for the history, the same way
+		Vertex transactions = dag.newVertex("Transactions Filter", Processors.filterP(Account::isTransaction));
+		dag.edge(Edge.from(kafka,1).to(transactions)
+				.distributed().partitioned(Account.accountKey()));
+
+		// And append to the history, in monthly pages
+		Vertex historySink = dag.newVertex("Account History Sink",
+				() -> new AccountBatchSinkProcessor<AccountHistoryKey>(
+						MyConstants.IMAP_NAME_ACCOUNT_HISTORY,
+						entry -> new AccountHistoryKey(entry.getKey(),
+								AccountHistoryKey.monthOf(((AccountTransaction) entry.getValue().getValue()).getWhen().toString())),
+						list -> new AccountHistoryAppendEntryProcessor(list)));
+		dag.edge(Edge.between(transactions,historySink)
+				.partitioned(Account.accountKey()));
 
 		// Log for show, compute for dough
-		input
-		.drainTo(Sinks.logger());
+		Vertex logSink = dag.newVertex("Log Sink", DiagnosticProcessors.writeLoggerP());
+		dag.edge(Edge.from(kafka,2).to(logSink));
+
+		return dag;
+	}
+
+	/**
+	 * <p>For routing on account, the Kafka record key.
+	 * </p>
+	 */
+	private static DistributedFunction<Entry<String, AccountRecord>, String> accountKey() {
+		return Entry::getKey;
+	}
+
+	private static boolean isBaselineOrTransaction(Entry<String, AccountRecord> entry) {
+		return AccountBaseline.class.isInstance(entry.getValue().getValue())
+				|| AccountTransaction.class.isInstance(entry.getValue().getValue());
+	}
 
-		return pipeline;
+	private static boolean isTransaction(Entry<String, AccountRecord> entry) {
+		return AccountTransaction.class.isInstance(entry.getValue().getValue());
 	}
 
 }
@@ -0,0 +1,140 @@
+package neil.demo.zappa.jet.account;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Inbox;
+import com.hazelcast.jet.function.DistributedFunction;
+import com.hazelcast.map.EntryProcessor;
+
+import neil.demo.zappa.AccountBaseline;
+import neil.demo.zappa.AccountTransaction;
+
+/**
+ * <p>Apply {@link AccountBaseline} and {@link AccountTransaction} records, with their Kafka
+ * offsets as {@link AccountRecord}, to a map, as many as are
+ * waiting at once, with one entry processor call per key rather
+ * than one per record.
+ * </p>
+ * <p>Each time the processor is given its inbox, up to
+ * {@link #MAX_BATCH} records are taken and grouped by key, each
+ * key's records kept in the order they arrived, which is
+ * offset order. The group
+ * is made into one entry processor for that key, so a busy
+ * account is fetched, changed and backed up once for all its
+ * records in the batch.
+ * </p>
+ * <p>The calls for all keys are submitted together, going to
+ * each key's partition at once, and all must finish before the
+ * next batch. So the next batch's changes to a key can't
+ * overtake this one's. The wait blocks, hence this processor
+ * is not cooperative.
+ * </p>
+ * <p>The entry processors take an offset at or below the one
+ * stored as already applied, so skip it. That is only right if
+ * each account's offsets arrive in order, which the partitioned
+ * edges in {@link Account} ensure. In case they don't, the last
+ * offset for each account is kept, and a record for an earlier
+ * offset fails the job rather than being silently skipped.
+ * </p>
+ * <p>This last offset is the only thing held between batches.
+ * It is not saved to a Jet snapshot, as after a restart the
+ * records arrive from a later offset.
+ * </p>
+ *
+ * @param <K> Key type of the map
+ */
+public class AccountBatchSinkProcessor<K> extends AbstractProcessor {
+
+	// Size budget, the time budget is however long the batch took to arrive
+	public static final int MAX_BATCH = 1024;
+
+	private final String mapName;
+	private final DistributedFunction<Entry<String, AccountRecord>, K> keyFn;
+	private final DistributedFunction<List<AccountRecord>, EntryProcessor<K, ?>> entryProcessorFn;
+	private final Map<String, Long> lastOffsets = new HashMap<>();
+	private IMap<K, ?> iMap;
+
+	/**
+	 * @param arg0 Map to apply records to
+	 * @param arg1 Map key from the Kafka record
+	 * @param arg2 Entry processor for one key's records
+	 */
+	public AccountBatchSinkProcessor(String arg0, DistributedFunction<Entry<String, AccountRecord>, K> arg1,
+			DistributedFunction<List<AccountRecord>, EntryProcessor<K, ?>> arg2) {
+		this.mapName = arg0;
+		this.keyFn = arg1;
+		this.entryProcessorFn = arg2;
+	}
+
+	@Override
+	protected void init(Context context) {
+		this.iMap = context.jetInstance().getHazelcastInstance().getMap(this.mapName);
+	}
+
+	@Override
+	public boolean isCooperative() {
+		return false;
+	}
+
+	/**
+	 * <p>Take a batch from the inbox, and apply it. Anything left
+	 * in the inbox is given back in the next call.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void process(int ordinal, Inbox inbox) {
+		Map<K, List<AccountRecord>> batch = new LinkedHashMap<>();
+
+		for (int i = 0 ; i < MAX_BATCH && !inbox.isEmpty() ; i++) {
+			Entry<String, AccountRecord> entry = (Entry<String, AccountRecord>) inbox.poll();
+			this.checkOrder(entry);
+			batch.computeIfAbsent(this.keyFn.apply(entry), k -> new ArrayList<>())
+				.add(entry.getValue());
+		}
+
+		List<Future<Object>> futures = new ArrayList<>(batch.size());
+		for (Entry<K, List<AccountRecord>> group : batch.entrySet()) {
+			futures.add(this.iMap.submitToKey(group.getKey(), this.entryProcessorFn.apply(group.getValue())));
+		}
+
+		try {
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * <p>Fail if a record is for an earlier offset than the last
+	 * for its account. It hasn't been applied, but would be
+	 * skipped as if it had.
+	 * </p>
+	 *
+	 * @param entry Kafka key and record
+	 */
+	void checkOrder(Entry<String, AccountRecord> entry) {
+		long offset = entry.getValue().getOffset();
+		Long lastOffset = this.lastOffsets.put(entry.getKey(), offset);
+
+		if (lastOffset != null && offset <= lastOffset) {
+			throw new IllegalStateException(String.format("Account '%s' offset %d after %d, out of order",
+					entry.getKey(), offset, lastOffset));
+		}
+	}
+
+}
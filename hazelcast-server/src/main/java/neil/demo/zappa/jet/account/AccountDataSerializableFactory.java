@@ -0,0 +1,36 @@
+package neil.demo.zappa.jet.account;
+
+import com.hazelcast.nio.serialization.DataSerializableFactory;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+import neil.demo.zappa.MyConstants;
+
+/**
+ * <p>Creates the account entry processors when they arrive at
+ * the primary or backup. Registered in {@link neil.demo.zappa.ApplicationConfig}.
+ * </p>
+ * <p>An {@link IdentifiedDataSerializable} object is written as
+ * this factory's id and the class id, then its own fields, so
+ * the receiver needs no class name and no reflection.
+ * </p>
+ */
+public class AccountDataSerializableFactory implements DataSerializableFactory {
+
+	public static final int FACTORY_ID = MyConstants.DATA_SERIALIZABLE_FACTORY_ID_ACCOUNT;
+
+	public static final int ACCOUNT_MERGE_ENTRY_PROCESSOR = 1;
+	public static final int ACCOUNT_HISTORY_APPEND_ENTRY_PROCESSOR = 2;
+
+	@Override
+	public IdentifiedDataSerializable create(int typeId) {
+		switch (typeId) {
+		case ACCOUNT_MERGE_ENTRY_PROCESSOR:
+			return new AccountMergeEntryProcessor();
+		case ACCOUNT_HISTORY_APPEND_ENTRY_PROCESSOR:
+			return new AccountHistoryAppendEntryProcessor();
+		default:
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package neil.demo.zappa.jet.account;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+import neil.demo.zappa.AccountHistoryKey;
+import neil.demo.zappa.AccountHistoryPage;
+import neil.demo.zappa.AccountTransaction;
+
+/**
+ * <p>Append {@link AccountTransaction} records, in order, to the
+ * page of the account's history for their month, creating the
+ * page if they are the first transactions that month.
+ * </p>
+ * <p>As for the summary, this runs where the page is held, so
+ * only the transaction goes over the network.
+ * </p>
+ * <p>The "{@code account_history}" map is held in {@code OBJECT}
+ * format, see "{@code hazelcast.xml}", so the page is changed in
+ * place, as for {@link neil.demo.zappa.jet.movingaverage.TimeSeriesAppendEntryProcessor TimeSeriesAppendEntryProcessor}.
+ * The cost of a batch is the transactions appended, rather than
+ * deserializing and serializing the month's page each time.
+ * </p>
+ * <p>As for {@link AccountMergeEntryProcessor}, a transaction at
+ * or below the page's Kafka offset is already on the page, so
+ * is skipped when the topic is replayed, relying on the same
+ * order checked by {@link AccountBatchSinkProcessor}.
+ * </p>
+ * <p>Also as for {@link AccountMergeEntryProcessor}, this is its own
+ * backup processor, so the backup is sent the transactions and
+ * appends them, and is {@link IdentifiedDataSerializable}, so
+ * each transaction is written as its four fields.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class AccountHistoryAppendEntryProcessor implements EntryProcessor<AccountHistoryKey, AccountHistoryPage>,
+	EntryBackupProcessor<AccountHistoryKey, AccountHistoryPage>, IdentifiedDataSerializable {
+
+	private long[] offsets;
+	private List<AccountTransaction> accountTransactions;
+
+	// For deserialization
+	AccountHistoryAppendEntryProcessor() {
+	}
+
+	/**
+	 * @param arg0 Transactions for one account and month, in offset order
+	 */
+	AccountHistoryAppendEntryProcessor(List<AccountRecord> arg0) {
+		this.offsets = new long[arg0.size()];
+		this.accountTransactions = new ArrayList<>(arg0.size());
+		for (int i = 0 ; i < arg0.size() ; i++) {
+			this.offsets[i] = arg0.get(i).getOffset();
+			this.accountTransactions.add((AccountTransaction) arg0.get(i).getValue());
+		}
+	}
+
+	/**
+	 * <p>Append to the page
+	 * </p>
+	 */
+	@Override
+	public Void process(Entry<AccountHistoryKey, AccountHistoryPage> entry) {
+		this.apply(entry);
+		return null;
+	}
+
+	/**
+	 * <p>Append to the backup the same way.
+	 * </p>
+	 */
+	@Override
+	public void processBackup(Entry<AccountHistoryKey, AccountHistoryPage> entry) {
+		this.apply(entry);
+	}
+
+	@Override
+	public EntryBackupProcessor<AccountHistoryKey, AccountHistoryPage> getBackupProcessor() {
+		return this;
+	}
+
+	private void apply(Entry<AccountHistoryKey, AccountHistoryPage> entry) {
+		AccountHistoryPage value = entry.getValue();
+
+		if (value == null) {
+			value = new AccountHistoryPage(-1L, new ArrayList<>());
+		} else if (value.getOffset() >= this.offsets[this.offsets.length - 1]) {
+			return;
+		}
+
+		// Skip any already added
+		for (int i = 0 ; i < this.offsets.length ; i++) {
+			if (this.offsets[i] > value.getOffset()) {
+				value.getTransactions().add(this.accountTransactions.get(i));
+			}
+		}
+		value.setOffset(this.offsets[this.offsets.length - 1]);
+
+		entry.setValue(value);
+	}
+
+	@Override
+	public int getFactoryId() {
+		return AccountDataSerializableFactory.FACTORY_ID;
+	}
+
+	@Override
+	public int getId() {
+		return AccountDataSerializableFactory.ACCOUNT_HISTORY_APPEND_ENTRY_PROCESSOR;
+	}
+
+	@Override
+	public void writeData(ObjectDataOutput out) throws IOException {
+		out.writeLongArray(this.offsets);
+		for (AccountTransaction accountTransaction : this.accountTransactions) {
+			out.writeUTF(accountTransaction.getWhen().toString());
+			out.writeUTF(accountTransaction.getDescription().toString());
+			out.writeDouble(accountTransaction.getAmount());
+			out.writeBoolean(accountTransaction.getDebit());
+		}
+	}
+
+	@Override
+	public void readData(ObjectDataInput in) throws IOException {
+		this.offsets = in.readLongArray();
+		this.accountTransactions = new ArrayList<>(this.offsets.length);
+		for (int i = 0 ; i < this.offsets.length ; i++) {
+			AccountTransaction accountTransaction = new AccountTransaction();
+			accountTransaction.setWhen(in.readUTF());
+			accountTransaction.setDescription(in.readUTF());
+			accountTransaction.setAmount(in.readDouble());
+			accountTransaction.setDebit(in.readBoolean());
+			this.accountTransactions.add(accountTransaction);
+		}
+	}
+
+}
@@ -1,58 +1,190 @@
 package neil.demo.zappa.jet.account;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map.Entry;
 
-import com.hazelcast.jet.datamodel.Tuple2;
-import com.hazelcast.map.AbstractEntryProcessor;
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
 
 import neil.demo.zappa.AccountBaseline;
+import neil.demo.zappa.AccountSummary;
 import neil.demo.zappa.AccountTransaction;
 
 /**
- * <p>Merge an {@link AccountTransaction} into a record with an
- * {@link AccountBaseline} by merely appending to the transaction
- * list and adjusting the value.
+ * <p>Merge one or more {@link AccountBaseline} and {@link AccountTransaction}
+ * records for an account into its {@link AccountSummary}, in offset
+ * order. A baseline sets the owner, the opening date and the balance,
+ * a transaction adjusts the balance, the last amendment date and
+ * the count.
+ * </p>
+ * <p>Both kinds of record come down the same edges to this one
+ * entry processor, so an account's baseline is applied before
+ * its later transactions, whichever arrives at the map first.
+ * A baseline is the balance as at its date, so a later baseline
+ * replaces the summary. Transactions before there is any baseline
+ * aren't dropped, they start a summary with no owner from a
+ * balance of zero, until the baseline replaces it.
+ * </p>
+ * <p>The transactions themselves are appended to the history by
+ * {@link AccountHistoryAppendEntryProcessor}, so this doesn't
+ * grow as transactions are added.
+ * </p>
+ * <p>Only what the records change on the summary is kept, each
+ * one's Kafka offset and signed amount, the last time, and the
+ * owner and date of a baseline. A record at or below the
+ * summary's offset has already been applied, read again as the
+ * topic is replayed, so is skipped. The rest move the offset on.
+ * This relies on each account's records arriving in offset order,
+ * which {@link AccountBatchSinkProcessor} checks.
+ * </p>
+ * <p>This same object is the backup processor, so the backup
+ * is sent this delta and re-applies it, rather than being sent
+ * the updated summary. It is {@link IdentifiedDataSerializable},
+ * so the delta is written as a few dozen bytes with no class
+ * names, see {@link AccountDataSerializableFactory}.
  * </p>
  */
 @SuppressWarnings("serial")
-public class AccountMergeEntryProcessor extends AbstractEntryProcessor<String, Tuple2<AccountBaseline, List<AccountTransaction>>> {
+public class AccountMergeEntryProcessor implements EntryProcessor<String, AccountSummary>,
+	EntryBackupProcessor<String, AccountSummary>, IdentifiedDataSerializable {
 	
-	private AccountTransaction accountTransaction;
+	private String opened;
+	private String when;
+	private int baseline;
+	private String owner;
+	private long[] offsets;
+	private double[] amounts;
+
+	// For deserialization
+	AccountMergeEntryProcessor() {
+	}
 	
-	AccountMergeEntryProcessor(Object arg0) {
-		this.accountTransaction = (AccountTransaction) arg0;
+	/**
+	 * <p>Keep the last baseline, if any, by its position. Its
+	 * amount is the balance. Records before it are kept, they
+	 * may be needed if the baseline was already applied.
+	 * </p>
+	 *
+	 * @param arg0 Baselines and transactions for one account, in offset order
+	 */
+	AccountMergeEntryProcessor(List<AccountRecord> arg0) {
+		this.baseline = -1;
+		this.offsets = new long[arg0.size()];
+		this.amounts = new double[arg0.size()];
+		for (int i = 0 ; i < arg0.size() ; i++) {
+			this.offsets[i] = arg0.get(i).getOffset();
+			if (arg0.get(i).getValue() instanceof AccountBaseline) {
+				AccountBaseline accountBaseline = (AccountBaseline) arg0.get(i).getValue();
+				this.baseline = i;
+				this.owner = accountBaseline.getOwner().toString();
+				this.opened = accountBaseline.getWhen().toString();
+				this.when = this.opened;
+				this.amounts[i] = accountBaseline.getBalance();
+			} else {
+				AccountTransaction accountTransaction = (AccountTransaction) arg0.get(i).getValue();
+				if (this.opened == null) {
+					this.opened = accountTransaction.getWhen().toString();
+				}
+				this.when = accountTransaction.getWhen().toString();
+				this.amounts[i] = accountTransaction.getDebit() ?
+						-accountTransaction.getAmount() :
+						accountTransaction.getAmount();
+			}
+		}
 	}
 
 	/**
-	 * <p>Append the transaction to this list
+	 * <p>Adjust the summary
 	 * </p>
 	 */
 	@Override
-	public Void process(Entry<String, Tuple2<AccountBaseline, List<AccountTransaction>>> entry) {
-		Tuple2<AccountBaseline, List<AccountTransaction>> value = entry.getValue();
-			
-		if (value!=null) {
-			AccountBaseline baseline = value.getKey();
-			List<AccountTransaction> transactions = value.getValue();
-			
-			// Append to the list
-			transactions.add(this.accountTransaction);
-			
-			// Change the last amendment date
-			baseline.setWhen(this.accountTransaction.getWhen());
-			
-			// Adjust the balance
-			double balance = baseline.getBalance();
-			balance = this.accountTransaction.getDebit() ?
-					balance - this.accountTransaction.getAmount() :
-					balance + this.accountTransaction.getAmount();
-			baseline.setBalance(balance);
+	public Void process(Entry<String, AccountSummary> entry) {
+		this.apply(entry);
+		return null;
+	}
+
+	/**
+	 * <p>Adjust the backup the same way.
+	 * </p>
+	 */
+	@Override
+	public void processBackup(Entry<String, AccountSummary> entry) {
+		this.apply(entry);
+	}
+
+	@Override
+	public EntryBackupProcessor<String, AccountSummary> getBackupProcessor() {
+		return this;
+	}
+
+	private void apply(Entry<String, AccountSummary> entry) {
+		AccountSummary value = entry.getValue();
 			
-			entry.setValue(value);
+		if (value != null && value.getOffset() >= this.offsets[this.offsets.length - 1]) {
+			return;
+		}
+
+		// Start from the baseline if it's new, or from nothing if there is none yet
+		int from = 0;
+		if (this.baseline >= 0 && (value == null || value.getOffset() < this.offsets[this.baseline])) {
+			value = new AccountSummary(this.owner, this.opened, this.opened,
+					this.amounts[this.baseline], 0L, this.offsets[this.baseline]);
+			from = this.baseline + 1;
+		} else if (value == null) {
+			value = new AccountSummary(null, this.opened, this.opened, 0d, 0L, -1L);
+		}
+
+		// Adjust the balance, skipping any already applied
+		for (int i = from ; i < this.offsets.length ; i++) {
+			if (i != this.baseline && this.offsets[i] > value.getOffset()) {
+				value.setBalance(value.getBalance() + this.amounts[i]);
+				value.setTransactions(value.getTransactions() + 1);
+			}
 		}
+
+		// Change the last amendment date
+		value.setWhen(this.when);
+		value.setOffset(this.offsets[this.offsets.length - 1]);
+			
+		entry.setValue(value);
+	}
 		
-		return null;
+	@Override
+	public int getFactoryId() {
+		return AccountDataSerializableFactory.FACTORY_ID;
+	}
+
+	@Override
+	public int getId() {
+		return AccountDataSerializableFactory.ACCOUNT_MERGE_ENTRY_PROCESSOR;
+	}
+
+	@Override
+	public void writeData(ObjectDataOutput out) throws IOException {
+		out.writeUTF(this.opened);
+		out.writeUTF(this.when);
+		out.writeInt(this.baseline);
+		if (this.baseline >= 0) {
+			out.writeUTF(this.owner);
+		}
+		out.writeLongArray(this.offsets);
+		out.writeDoubleArray(this.amounts);
+	}
+
+	@Override
+	public void readData(ObjectDataInput in) throws IOException {
+		this.opened = in.readUTF();
+		this.when = in.readUTF();
+		this.baseline = in.readInt();
+		if (this.baseline >= 0) {
+			this.owner = in.readUTF();
+		}
+		this.offsets = in.readLongArray();
+		this.amounts = in.readDoubleArray();
 	}
 
 }
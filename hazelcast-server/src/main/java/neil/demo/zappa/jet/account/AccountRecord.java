@@ -0,0 +1,28 @@
+package neil.demo.zappa.jet.account;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>A record from the "{@code account}" topic, an
+ * {@link neil.demo.zappa.AccountBaseline AccountBaseline} or
+ * {@link neil.demo.zappa.AccountTransaction AccountTransaction},
+ * with the Kafka offset it was read from.
+ * </p>
+ * <p>All records for an account are on the same Kafka partition,
+ * as it is the key, so the offsets for one account only go up.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountRecord implements Serializable {
+
+	private long offset;
+	private Object value;
+
+}
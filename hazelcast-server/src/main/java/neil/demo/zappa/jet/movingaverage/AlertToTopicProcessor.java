@@ -2,13 +2,19 @@ package neil.demo.zappa.jet.movingaverage;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.ITopic;
+import com.hazelcast.jet.JetException;
 import com.hazelcast.jet.core.AbstractProcessor;
-import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.datamodel.Tuple3;
 
+import lombok.extern.slf4j.Slf4j;
 import neil.demo.zappa.MyConstants;
 
 /**
@@ -16,8 +22,9 @@ import neil.demo.zappa.MyConstants;
  * reformatting of the input. Essentially the input item is the
  * alert, all we do with this vertex is encapsulate the formatting
  * so this could be changed if need be. Similarly for where the
- * alert is sent. Here we send it to a Hazelcast topic, for any
- * subscribers to see.
+ * alert is sent. Here we send it to a Hazelcast reliable topic,
+ * for any subscribers to see, including later subscribers as the
+ * topic is held in a ringbuffer.
  * </p>
  * <p>As an optimisation, implement {@link #AlertToTopicPublisher#tryProcess0}
  * rather than the more generic {@link #tryProcess(int, Object)}. We
@@ -28,26 +35,69 @@ import neil.demo.zappa.MyConstants;
  * as a parameter. It doesn't make a lot of difference here, just
  * a demo of different approaches.
  * </p>
+ * <p>Publishing to a topic blocks until the message is sent, and
+ * this processor runs on one of Jet's shared cooperative threads.
+ * So alerts are formatted into batches, and each batch is handed
+ * to a publishing thread of its own that calls
+ * {@link ITopic#publish(Object)} for each. Only a few batches may
+ * be waiting to be published at once. Beyond that input is refused,
+ * and Jet backs off and offers it again later, rather than this
+ * thread waiting.
+ * </p>
+ * <p>There is one publishing thread for all instances of this
+ * processor on a member, taking batches in the order given, so
+ * each instance's alerts are published in order. Alerts are
+ * few, one thread is plenty.
+ * </p>
+ * <p>A part batch is sent when there is no more input for now, and
+ * all batches are waited for before a snapshot or the end of the job,
+ * so no alert is lost. If a batch fails the job fails, to restart
+ * from the last snapshot, rather than carry on without those alerts.
+ * </p>
  */
+@Slf4j
 public class AlertToTopicProcessor extends AbstractProcessor {
 
-	private HazelcastInstance hazelcastInstance;
-	
+	private static final int BATCH_SIZE = 100;
+	private static final int MAX_IN_FLIGHT = 4;
+	private static final ExecutorService PUBLISHER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "alert-publisher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile Throwable failure;
+	private ITopic<String> alertTopic;
+	private List<String> batch;
+
+	/**
+	 * <p>Find the topic. It is configured to discard the oldest
+	 * when full, so publishing doesn't wait for slow subscribers.
+	 * </p>
+	 */
 	@Override
 	protected void init(Context context) throws Exception {
 		super.init(context);
-		this.hazelcastInstance = context.jetInstance().getHazelcastInstance();
+		this.alertTopic = context.jetInstance().getHazelcastInstance().getReliableTopic(MyConstants.ITOPIC_NAME_ALERT);
+		this.batch = new ArrayList<>(BATCH_SIZE);
 	}
 
 	/**
-	 * <p>Process an incoming item by formatting and sending it to a topic.
+	 * <p>Process an incoming item by formatting and adding it to the
+	 * batch to send to a topic.
 	 * </p>
 	 * <p>The input is a map entry, in case we decide later to save it
 	 * to a Hazelcast {@link com.hazelcast.core.IMap IMap}.
 	 * </p>
-	 * <p>The entry key has the date of the price cross and the direction,
-	 * golden cross (good) or death cross (good). The entry value has the
-	 * values for the 50-point and 200-point averages at the cross.
+	 * <p>The entry key has the date of the price cross, the currency
+	 * pair and the rule that found it, such as 50 point against 200 point.
+	 * The entry value has the direction, golden cross (good) or death
+	 * cross (good), and the values for the two indicators at the cross.
+	 * </p>
+	 * <p>Price spikes from {@link SpikeDetectorProcessor} are in the
+	 * same form, the direction being the spike's and the values the
+	 * price and the price before.
 	 * </p>
 	 * <p>Both upwards and downwards trends are good if you're a trader,
 	 * they make money when the price changes. Perhaps not so good if you
@@ -55,30 +105,107 @@ public class AlertToTopicProcessor extends AbstractProcessor {
 	 * </p>
 	 * 
 	 * @param item Raw data to format and publish
-	 * @return True, this is a sink, output queue can't be full as not used
+	 * @return False if the batch is full and can't be sent yet, offer again later
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	protected boolean tryProcess0(Object item) {
-		ITopic<String> alertTopic = this.hazelcastInstance.getTopic(MyConstants.ITOPIC_NAME_ALERT);
+		if (this.batch.size() == BATCH_SIZE && !this.flush()) {
+			return false;
+		}
 		
 		// Re-cast input
-		Entry<Tuple2<LocalDate, String>,Tuple2<BigDecimal, BigDecimal>> entry =
-				(Entry<Tuple2<LocalDate, String>, Tuple2<BigDecimal, BigDecimal>>) item;
+		Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>> entry =
+				(Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>) item;
 
 		// Fields from input
-		LocalDate day = entry.getKey().getKey();
-		String trend = entry.getKey().getValue();
-		BigDecimal current50point = entry.getValue().getKey();
-		BigDecimal current200point = entry.getValue().getValue();
+		LocalDate day = entry.getKey().f0();
+		String currencyPair = entry.getKey().f1();
+		String rule = entry.getKey().f2();
+		String trend = entry.getValue().f0();
+		BigDecimal currentFast = entry.getValue().f1();
+		BigDecimal currentSlow = entry.getValue().f2();
 
 		// Alert text
-		String cross = (trend.equalsIgnoreCase("upward") ? "Golden Cross" : "Death Cross");
-		String alert = cross + " at " + day 
-					+ " (50-point $" + current50point + ", 200-point $" + current200point + ")";
+		String cross;
+		if (trend.equals(CrossDetectorProcessor.UPWARD)) {
+			cross = "Golden Cross";
+		} else if (trend.equals(CrossDetectorProcessor.DOWNWARD)) {
+			cross = "Death Cross";
+		} else {
+			cross = trend;
+		}
+		String alert = cross + " for " + currencyPair + " " + rule + " at " + day 
+					+ " ($" + currentFast + ", $" + currentSlow + ")";
+
+		// Send when the batch is full or input stops
+		this.batch.add(alert);
+		return true;
+	}
+
+	/**
+	 * <p>No input for now, so send what there is.
+	 * </p>
+	 *
+	 * @return False if too many batches are still being published, to back off
+	 */
+	@Override
+	public boolean tryProcess() {
+		return this.flush() && this.inFlight.get() < MAX_IN_FLIGHT;
+	}
+
+	/**
+	 * <p>Make sure all alerts so far are published before the
+	 * snapshot, as they won't be replayed after it.
+	 * </p>
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		return this.flush() && this.inFlight.get() == 0;
+	}
+
+	/**
+	 * <p>Wait for the last alerts to be published.
+	 * </p>
+	 */
+	@Override
+	public boolean complete() {
+		return this.flush() && this.inFlight.get() == 0;
+	}
+
+	/**
+	 * <p>Hand the batch to the publishing thread, if there is one
+	 * and there aren't too many already waiting.
+	 * </p>
+	 *
+	 * @return True if the batch is now empty
+	 */
+	private boolean flush() {
+		if (this.failure != null) {
+			throw new JetException("Publishing alerts to '" + MyConstants.ITOPIC_NAME_ALERT + "'", this.failure);
+		}
+		if (this.batch.isEmpty()) {
+			return true;
+		}
+		if (this.inFlight.get() >= MAX_IN_FLIGHT) {
+			return false;
+		}
 
-		// Send and we're done
-		alertTopic.publish(alert);
+		List<String> alerts = this.batch;
+		this.inFlight.incrementAndGet();
+		PUBLISHER.execute(() -> {
+			try {
+				for (String alert : alerts) {
+					this.alertTopic.publish(alert);
+				}
+			} catch (Throwable throwable) {
+				log.error("Publishing " + alerts.size() + " alerts", throwable);
+				this.failure = throwable;
+			} finally {
+				this.inFlight.decrementAndGet();
+			}
+		});
+		this.batch = new ArrayList<>(BATCH_SIZE);
 		return true;
 	}
 
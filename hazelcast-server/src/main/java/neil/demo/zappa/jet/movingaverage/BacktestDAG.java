@@ -0,0 +1,77 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Vertex;
+import com.hazelcast.jet.core.processor.SinkProcessors;
+
+import lombok.extern.slf4j.Slf4j;
+import neil.demo.zappa.MyConstants;
+
+/**
+ * <p>Builder class for a batch job to backtest moving average
+ * crossover strategies. Rather than the one 50 point and
+ * 200 point rule of {@link MovingAverageDAG}, every combination
+ * of a grid of short and long periods is tried against the
+ * price history, to see how each would have done.
+ * </p>
+ * <p>The history is read as for {@link MovingAverageBackfillDAG},
+ * and likewise travels in the job's DAG, here with its prefix sums
+ * too, 24 bytes a price. The simple averages are calculated over
+ * the whole history by each processor, so unlike the backfill
+ * there is no overlap and nothing approximate.
+ * </p>
+ */
+@Slf4j
+public class BacktestDAG {
+
+	// Every short period with every longer long period, several thousand in all
+	private static final int[] SHORT_PERIODS = IntStream.rangeClosed(2, 100).toArray();
+	private static final int[] LONG_PERIODS = IntStream.iterate(10, period -> period + 5).limit(79).toArray();
+
+	/**
+	 * <p>From top to bottom, the DAG graph can be visualised
+	 * as below:
+	 * <pre>
+	 *                      +------------+
+	 *                      |1 Backtest  |
+	 *                      +------------+
+	 *                             |
+	 *                      +------------+
+	 *                      |2 Sink To   |
+	 *                      | "backtest" |
+	 *                      |    map     |
+	 *                      +------------+
+	 * </pre>
+	 * <p>Vertex 1 has no input, it is given the history and prefix
+	 * sums when built. See {@link BacktestProcessor}.
+	 * </p>
+	 *
+	 * @param source As for {@link MovingAverageBackfillDAG#build(String)}
+	 * @return A DAG to run as a Jet job
+	 * @throws IOException If the history can't be read
+	 */
+	public static DAG build(String source) throws IOException {
+		PriceHistory priceHistory = MovingAverageBackfillDAG.load(source);
+		long[] prefixSums = priceHistory.prefixSums();
+		log.info("Read {} prices for {} from '{}', for {} x {} periods",
+				priceHistory.size(), MovingAverageDAG.BTC_USD_NAME, source,
+				SHORT_PERIODS.length, LONG_PERIODS.length);
+
+		DAG dag = new DAG();
+
+		Vertex backtest = dag.newVertex("Backtest",
+				() -> new BacktestProcessor(priceHistory, prefixSums, SHORT_PERIODS, LONG_PERIODS));
+
+		Vertex backtestSink = dag.newVertex("Backtest IMap Sink",
+				SinkProcessors.writeMapP(MyConstants.IMAP_NAME_BACKTEST)
+				);
+		dag.edge(Edge.between(backtest,backtestSink));
+
+		return dag;
+	}
+
+}
@@ -0,0 +1,145 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.BacktestResult;
+
+/**
+ * <p>Batch source that runs a moving average crossover strategy over
+ * a price history, for its share of a grid of short and long periods.
+ * </p>
+ * <p>Each combination of short and long period is numbered, and this
+ * processor takes those whose number modulo the job's parallelism is
+ * its own index, so the grid is spread evenly across the cluster.
+ * </p>
+ * <p>Averages aren't calculated per combination. The history comes
+ * with prefix sums, the sum of all prices before each day, so the
+ * sum for any window is one subtraction. The short and long sums are
+ * compared cross-multiplied by the periods rather than divided, so
+ * the comparison is exact. The prefix sums are made once for the
+ * job and shared by all processors on a member.
+ * </p>
+ * <p>Output is a map entry per combination, keyed as for
+ * {@link CrossoverRule}, "{@code 50/200}" for example.
+ * </p>
+ */
+public class BacktestProcessor extends AbstractProcessor {
+
+	private final PriceHistory priceHistory;
+	private final long[] prefixSums;
+	private final int[] shortPeriods;
+	private final int[] longPeriods;
+	private Traverser<Entry<String, BacktestResult>> traverser;
+
+	/**
+	 * @param arg0 Prices to test against
+	 * @param arg1 Sum of the prices before each, one longer than the prices
+	 * @param arg2 Short periods to try
+	 * @param arg3 Long periods to try with each short period
+	 */
+	public BacktestProcessor(PriceHistory arg0, long[] arg1, int[] arg2, int[] arg3) {
+		this.priceHistory = arg0;
+		this.prefixSums = arg1;
+		this.shortPeriods = arg2;
+		this.longPeriods = arg3;
+	}
+
+	/**
+	 * <p>Work out which combinations are this processor's.
+	 * </p>
+	 */
+	@Override
+	protected void init(Context context) throws Exception {
+		int index = context.globalProcessorIndex();
+		int parallelism = context.totalParallelism();
+		int combinations = this.shortPeriods.length * this.longPeriods.length;
+
+		this.traverser = Traversers.traverseStream(
+				IntStream.range(0, combinations)
+				.filter(combination -> combination % parallelism == index)
+				.filter(combination -> this.shortPeriod(combination) < this.longPeriod(combination))
+				.mapToObj(combination -> this.run(this.shortPeriod(combination), this.longPeriod(combination)))
+				.map(result -> new SimpleImmutableEntry<>(result.getShortPeriod() + "/" + result.getLongPeriod(), result)));
+	}
+
+	/**
+	 * <p>Run the combinations, as fast as the next vertex will take
+	 * the results.
+	 * </p>
+	 *
+	 * @return True once all sent
+	 */
+	@Override
+	public boolean complete() {
+		return super.emitFromTraverser(this.traverser);
+	}
+
+	private int shortPeriod(int combination) {
+		return this.shortPeriods[combination / this.longPeriods.length];
+	}
+
+	private int longPeriod(int combination) {
+		return this.longPeriods[combination % this.longPeriods.length];
+	}
+
+	/**
+	 * <p>Run the strategy for one combination, from the first day
+	 * the long average is available.
+	 * </p>
+	 */
+	BacktestResult run(int shortPeriod, int longPeriod) {
+		long[] rates = this.priceHistory.getRates();
+		BacktestResult result = new BacktestResult(shortPeriod, longPeriod, 0, 0, 0, 0L);
+
+		int previousSign = 0;
+		long entry = 0L;
+		boolean holding = false;
+
+		for (int i = longPeriod - 1 ; i < rates.length ; i++) {
+			// Short average minus long average, by sign only
+			long shortSum = this.prefixSums[i + 1] - this.prefixSums[i + 1 - shortPeriod];
+			long longSum = this.prefixSums[i + 1] - this.prefixSums[i + 1 - longPeriod];
+			int sign = Long.signum(shortSum * longPeriod - longSum * shortPeriod);
+
+			if (sign != 0 && previousSign != 0 && sign != previousSign) {
+				result.setCrosses(result.getCrosses() + 1);
+				if (sign > 0 && !holding) {
+					entry = rates[i];
+					holding = true;
+				}
+				if (sign < 0 && holding) {
+					this.close(result, entry, rates[i]);
+					holding = false;
+				}
+			}
+			if (sign != 0) {
+				previousSign = sign;
+			}
+		}
+
+		if (holding) {
+			this.close(result, entry, rates[rates.length - 1]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>Count a completed trade.
+	 * </p>
+	 */
+	private void close(BacktestResult result, long entry, long exit) {
+		result.setTrades(result.getTrades() + 1);
+		if (exit > entry) {
+			result.setWins(result.getWins() + 1);
+		}
+		result.setProfit(result.getProfit() + exit - entry);
+	}
+
+}
@@ -0,0 +1,92 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Bollinger bands, a simple moving average with bands above
+ * and below it a number of standard deviations away, usually
+ * 20 points and 2 standard deviations. The bands widen as the
+ * price becomes more volatile.
+ * </p>
+ * <p>As for {@link MovingAverageProcessor}, a ringbuffer of the
+ * last "<i>period</i>" prices is kept per currency pair, with
+ * a running sum and a running sum of squares. Each new price
+ * is added and the evicted price subtracted, so the cost per
+ * price doesn't depend on the period.
+ * </p>
+ * <p>The sum of squares is a {@code double}, as squares of
+ * fixed-point prices could overflow a {@code long}. To stop
+ * rounding drift building up from the subtractions, both sums
+ * are recalculated from the ringbuffer once each time it wraps,
+ * which still averages out at a fixed cost per price.
+ * </p>
+ * <p>Output is three prices, the middle, upper and lower bands,
+ * once there are "<i>period</i>" prices.
+ * </p>
+ */
+public class BollingerProcessor extends IndicatorProcessor {
+
+	private static final int SUM = 0;
+	private static final int SUM_OF_SQUARES = 1;
+
+	private final int period;
+	private final double width;
+
+	/**
+	 * @param arg0 How many prices in the average, eg. 20
+	 * @param arg1 Standard deviations from the average to the bands, eg. 2
+	 */
+	public BollingerProcessor(int arg0, double arg1) {
+		super(3, 2, IndicatorProcessor.checkPeriod(arg0));
+		this.period = arg0;
+		this.width = arg1;
+	}
+
+	@Override
+	protected void update(long rate, long count, int stateBase, int historyBase, long[] output) {
+		int position = (int) (count % this.period);
+
+		// Swap evicted for new, before the ringbuffer slot is reused
+		long evicted = (count < this.period ? 0L : super.history[historyBase + position]);
+		super.history[historyBase + position] = rate;
+
+		if (position == this.period - 1) {
+			this.recalculate(stateBase, historyBase, count + 1);
+		} else {
+			super.state[stateBase + SUM] += rate - evicted;
+			super.state[stateBase + SUM_OF_SQUARES] += (double) rate * rate - (double) evicted * evicted;
+		}
+
+		if (count + 1 < this.period) {
+			output[0] = TimePrice.NO_RATE;
+			output[1] = TimePrice.NO_RATE;
+			output[2] = TimePrice.NO_RATE;
+			return;
+		}
+
+		double mean = super.state[stateBase + SUM] / this.period;
+		double variance = super.state[stateBase + SUM_OF_SQUARES] / this.period - mean * mean;
+		double band = this.width * Math.sqrt(Math.max(variance, 0d));
+
+		output[0] = Math.round(mean);
+		output[1] = Math.round(mean + band);
+		output[2] = Math.round(mean - band);
+	}
+
+	/**
+	 * <p>Sum the prices in the ringbuffer from scratch.
+	 * </p>
+	 */
+	private void recalculate(int stateBase, int historyBase, long n) {
+		double sum = 0d;
+		double sumOfSquares = 0d;
+		for (int i = 0 ; i < Math.min(n, this.period) ; i++) {
+			double rate = super.history[historyBase + i];
+			sum += rate;
+			sumOfSquares += rate * rate;
+		}
+		super.state[stateBase + SUM] = sum;
+		super.state[stateBase + SUM_OF_SQUARES] = sumOfSquares;
+	}
+
+}
@@ -0,0 +1,310 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Watermark;
+
+import neil.demo.zappa.Candle;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+
+/**
+ * <p>Build {@link Candle} summaries of prices over tumbling
+ * windows of time, at several resolutions at once, for example
+ * second, minute, five minute and hour.
+ * </p>
+ * <p>Only the finest resolution looks at the prices. When a
+ * candle at one resolution is complete it is output, and also
+ * merged into the candle at the next resolution up. So the
+ * minute candle is built from 60 second candles, not from
+ * however many prices there were in that minute. Each
+ * resolution must be a whole multiple of the one before.
+ * </p>
+ * <p>A candle is complete when a price arrives for a later
+ * time, or when the watermark passes its end. The watermark
+ * closes candles for currency pairs that have gone quiet.
+ * Prices for a time before the open candle are late, and
+ * are dropped.
+ * </p>
+ * <p>As for {@link MovingAverageProcessor}, input is partitioned
+ * by currency pair, and state is held per resolution per pair
+ * in arrays of primitives indexed by the pair's slot from
+ * {@link CurrencyPairSlots}. This is saved to Jet snapshots.
+ * </p>
+ */
+public class CandleProcessor extends AbstractProcessor {
+
+	// Fields of state, per resolution per currency pair
+	private static final int START = 0;
+	private static final int OPEN = 1;
+	private static final int HIGH = 2;
+	private static final int LOW = 3;
+	private static final int CLOSE = 4;
+	private static final int COUNT = 5;
+	private static final int WIDTH = 6;
+	// Start when nothing is open
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final long[] resolutions;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private long[] candles;
+	private List<Object> output;
+	private Traverser<Object> traverser;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
+
+	/**
+	 * @param arg0 Candle durations in milliseconds, finest first
+	 */
+	public CandleProcessor(long... arg0) {
+		if (arg0.length == 0) {
+			throw new IllegalArgumentException("No resolutions");
+		}
+		for (int i = 0 ; i < arg0.length ; i++) {
+			if (arg0[i] < 1) {
+				throw new IllegalArgumentException("Resolution " + arg0[i] + " not positive");
+			}
+			if (i > 0 && arg0[i] % arg0[i - 1] != 0) {
+				throw new IllegalArgumentException("Resolution " + arg0[i]
+						+ " not a multiple of " + arg0[i - 1]);
+			}
+		}
+		this.resolutions = arg0.clone();
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.candles = new long[0];
+		this.output = new ArrayList<>();
+	}
+
+	/**
+	 * <p>Close any candles that end before the price, then
+	 * add the price to the finest candle.
+	 * </p>
+	 * <p>Candles closed are output. If the output queue fills
+	 * part way through, the rest is sent when this is called
+	 * again with the same input, without re-applying the input.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess0(Object item) {
+
+		// Retry of output previously refused
+		if (this.traverser == null) {
+			Entry<CurrencyPairKey, CurrencyPairValue>
+				data = (Entry<CurrencyPairKey, CurrencyPairValue>) item;
+			long timestamp = data.getValue().getTimestamp();
+			long rate = data.getValue().getRate();
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(data.getKey());
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+
+			this.advance(slot, timestamp);
+
+			// Late if the candle for this time has gone, drop it
+			int base = slot * this.resolutions.length * WIDTH;
+			long start = this.candles[base + START];
+			if (start == NONE || timestamp >= start) {
+				if (start == NONE) {
+					this.candles[base + START] = this.bucketStart(timestamp, 0);
+					this.candles[base + OPEN] = rate;
+					this.candles[base + HIGH] = rate;
+					this.candles[base + LOW] = rate;
+					this.candles[base + COUNT] = 0;
+				}
+				this.candles[base + HIGH] = Math.max(this.candles[base + HIGH], rate);
+				this.candles[base + LOW] = Math.min(this.candles[base + LOW], rate);
+				this.candles[base + CLOSE] = rate;
+				this.candles[base + COUNT]++;
+			}
+
+			if (this.output.isEmpty()) {
+				return true;
+			}
+			this.traverser = this.drainOutput();
+		}
+
+		if (super.emitFromTraverser(this.traverser)) {
+			this.traverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Close candles for all currency pairs that end at or before
+	 * the watermark, and output them ahead of the watermark.
+	 * </p>
+	 */
+	@Override
+	protected boolean tryProcessWm(int ordinal, Watermark wm) {
+		if (this.traverser == null) {
+			for (int slot = 0 ; slot < this.currencyPairSlots.size() ; slot++) {
+				this.advance(slot, wm.timestamp());
+			}
+			this.output.add(wm);
+			this.traverser = this.drainOutput();
+		}
+
+		if (super.emitFromTraverser(this.traverser)) {
+			this.traverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Save each currency pair's open candles as a snapshot
+	 * entry, keyed by currency pair.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			int width = this.resolutions.length * WIDTH;
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot),
+								Arrays.copyOfRange(this.candles, slot * width, (slot + 1) * width))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's open candles, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] state = (long[]) value;
+		int width = this.resolutions.length * WIDTH;
+		if (state.length != width) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ state.length + " items, resolutions are " + Arrays.toString(this.resolutions));
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+
+		System.arraycopy(state, 0, this.candles, slot * width, width);
+	}
+
+	/**
+	 * <p>Close each open candle for the currency pair that ends
+	 * at or before the given time, finest first so each is merged
+	 * into the next resolution up before that is checked.
+	 * </p>
+	 */
+	private void advance(int slot, long timestamp) {
+		int base = slot * this.resolutions.length * WIDTH;
+		for (int i = 0 ; i < this.resolutions.length ; i++) {
+			long start = this.candles[base + i * WIDTH + START];
+			if (start != NONE && start + this.resolutions[i] <= timestamp) {
+				this.close(slot, i);
+			}
+		}
+	}
+
+	/**
+	 * <p>Output an open candle, and merge it into the candle for
+	 * the next resolution up. If that is still open on an earlier
+	 * time, it is complete so is closed first.
+	 * </p>
+	 */
+	private void close(int slot, int resolution) {
+		int base = slot * this.resolutions.length * WIDTH;
+		int from = base + resolution * WIDTH;
+
+		Candle candle = new Candle(this.currencyPairSlots.keyOf(slot),
+				this.candles[from + START], this.resolutions[resolution],
+				this.candles[from + OPEN], this.candles[from + HIGH],
+				this.candles[from + LOW], this.candles[from + CLOSE],
+				this.candles[from + COUNT]);
+		this.output.add(candle);
+		this.candles[from + START] = NONE;
+
+		if (resolution + 1 == this.resolutions.length) {
+			return;
+		}
+
+		int to = from + WIDTH;
+		long start = this.bucketStart(candle.getStart(), resolution + 1);
+		if (this.candles[to + START] != NONE && this.candles[to + START] != start) {
+			this.close(slot, resolution + 1);
+		}
+
+		if (this.candles[to + START] == NONE) {
+			this.candles[to + START] = start;
+			this.candles[to + OPEN] = candle.getOpen();
+			this.candles[to + HIGH] = candle.getHigh();
+			this.candles[to + LOW] = candle.getLow();
+			this.candles[to + COUNT] = 0;
+		} else {
+			this.candles[to + HIGH] = Math.max(this.candles[to + HIGH], candle.getHigh());
+			this.candles[to + LOW] = Math.min(this.candles[to + LOW], candle.getLow());
+		}
+		this.candles[to + CLOSE] = candle.getClose();
+		this.candles[to + COUNT] += candle.getCount();
+	}
+
+	/**
+	 * <p>Start of the candle at a resolution that contains a time.
+	 * </p>
+	 */
+	private long bucketStart(long timestamp, int resolution) {
+		return Math.floorDiv(timestamp, this.resolutions[resolution]) * this.resolutions[resolution];
+	}
+
+	/**
+	 * <p>Hand over the candles closed so far for output.
+	 * </p>
+	 */
+	private Traverser<Object> drainOutput() {
+		List<Object> candles = this.output;
+		this.output = new ArrayList<>();
+		return Traversers.traverseIterable(candles);
+	}
+
+	/**
+	 * <p>Make the state array big enough for another currency
+	 * pair, new entries having no open candles.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int width = this.resolutions.length * WIDTH;
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.candles = Arrays.copyOf(this.candles, this.capacity * width);
+		for (int i = oldCapacity * width ; i < this.capacity * width ; i += WIDTH) {
+			this.candles[i + START] = NONE;
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Several technical indicators, such as {@link EmaProcessor}
+ * and {@link RsiProcessor}, calculated by one vertex, fed from
+ * the output of the moving averages.
+ * </p>
+ * <p>Input is the {@link TimePrices} from {@link TimeWindowAverageProcessor},
+ * already partitioned by currency pair, with duplicates replaced,
+ * late prices dropped and gaps filled. One of its prices, the 1 day
+ * average which is the current price, is given to each indicator.
+ * So prices cross one edge from Kafka for all the averages and
+ * indicators, rather than one each, and the next edge is local.
+ * </p>
+ * <p>Each indicator keeps its own state for each currency pair, a
+ * few {@code double}, as for a separate vertex. The indicators
+ * are only used for their calculation here, they aren't vertices
+ * themselves.
+ * </p>
+ * <p>Output is one {@link TimePrices} with each indicator's values
+ * in turn, in the order given. A snapshot entry is each indicator's
+ * snapshot entry in turn.
+ * </p>
+ */
+public class CombinedIndicatorProcessor extends AbstractProcessor {
+
+	private final int index;
+	private final IndicatorProcessor[] indicators;
+	private final int width;
+	private TimePrices pending;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
+
+	/**
+	 * @param arg0 Which price in the input to use
+	 * @param arg1 Indicators to calculate
+	 */
+	public CombinedIndicatorProcessor(int arg0, IndicatorProcessor... arg1) {
+		if (arg1.length == 0) {
+			throw new IllegalArgumentException("No indicators");
+		}
+		int width = 0;
+		for (IndicatorProcessor indicator : arg1) {
+			width += indicator.outputWidth();
+		}
+
+		this.index = arg0;
+		this.indicators = arg1.clone();
+		this.width = width;
+	}
+
+	/**
+	 * <p>Apply the price to each indicator, and output them
+	 * together if any are available.
+	 * </p>
+	 * <p>As for {@link MovingAverageProcessor}, output refused
+	 * is held and retried, so the input isn't applied twice.
+	 * </p>
+	 */
+	@Override
+	protected boolean tryProcess0(Object item) {
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			TimePrices timePrices = (TimePrices) item;
+			long rate = timePrices.getRates()[this.index];
+			if (rate == TimePrice.NO_RATE) {
+				return true;
+			}
+
+			long[] output = new long[this.width];
+			int offset = 0;
+			for (IndicatorProcessor indicator : this.indicators) {
+				long[] values = indicator.apply(timePrices.getKey(), timePrices.getTimestamp(), rate);
+				// Late, all have the same input so all would drop it
+				if (values == null) {
+					return true;
+				}
+				System.arraycopy(values, 0, output, offset, values.length);
+				offset += values.length;
+			}
+
+			// Nothing to produce until at least one indicator is ready
+			boolean ready = false;
+			for (int i = 0 ; i < output.length ; i++) {
+				ready |= (output[i] != TimePrice.NO_RATE);
+			}
+			if (!ready) {
+				return true;
+			}
+
+			this.pending = new TimePrices(timePrices.getKey(), timePrices.getTimestamp(), output);
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry. All
+	 * indicators have had the same input, so have given the same
+	 * slots to the same currency pairs.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.indicators[0].size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.indicators[0].keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Split a currency pair's snapshot entry, and give each
+	 * indicator its part.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] snapshot = (long[]) value;
+		int offset = 0;
+		for (IndicatorProcessor indicator : this.indicators) {
+			int width = indicator.snapshotWidth();
+			if (offset + width > snapshot.length) {
+				throw new IllegalStateException("Snapshot for " + key + " has "
+						+ snapshot.length + " items, too few for " + this.indicators.length + " indicators");
+			}
+			long[] part = new long[width];
+			System.arraycopy(snapshot, offset, part, 0, width);
+			indicator.restoreFromSnapshot(key, part);
+			offset += width;
+		}
+		if (offset != snapshot.length) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ snapshot.length + " items, expected " + offset);
+		}
+	}
+
+	/**
+	 * <p>Join the indicators' snapshots for one currency pair.
+	 * </p>
+	 */
+	private long[] snapshotOf(int slot) {
+		int width = 0;
+		for (IndicatorProcessor indicator : this.indicators) {
+			width += indicator.snapshotWidth();
+		}
+
+		long[] snapshot = new long[width];
+		int offset = 0;
+		for (IndicatorProcessor indicator : this.indicators) {
+			long[] part = indicator.snapshotOf(slot);
+			System.arraycopy(part, 0, snapshot, offset, part.length);
+			offset += part.length;
+		}
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,93 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.Map.Entry;
+
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Vertex;
+import com.hazelcast.jet.core.processor.SinkProcessors;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.MyConstants;
+
+/**
+ * <p>Builder class for a streaming job to keep a rolling
+ * correlation matrix across all the currency pairs on the
+ * FX topic, for the client to read from an
+ * {@link com.hazelcast.core.IMap IMap}.
+ * </p>
+ */
+public class CorrelationDAG {
+
+	// The one key for the matrix, in the map and for partitioning
+	private static final String KEY = MyConstants.KAFKA_TOPIC_NAME_FX;
+	// Prices are daily, returns count for half after a month
+	private static final long HALF_LIFE_MS = 30 * 24 * 60 * 60 * 1000L;
+	private static final long PUBLISH_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * <p>From top to bottom, the DAG graph can be visualised
+	 * as below:
+	 * <pre>
+	 *                      +-------------+
+	 *                      |1  Kafka     |
+	 *                      |   Source    |
+	 *                      +-------------+
+	 *                             |
+	 *                      +-------------+
+	 *                      |2 Correlation|
+	 *                      +-------------+
+	 *                             |
+	 *                      +-------------+
+	 *                      |3 Sink To    |
+	 *                      |"correlation"|
+	 *                      |    map      |
+	 *                      +-------------+
+	 * </pre>
+	 * <p>Vertex 1 is the same as for {@link MovingAverageDAG}. All
+	 * prices are partitioned on one key, so go to one instance of
+	 * vertex 2, see {@link CorrelationProcessor}. The matrix is
+	 * output once a day of event time, replacing the last.
+	 * </p>
+	 * <p>As the key is constant, that one instance of vertex 2 is a
+	 * serial bottleneck for the whole topic. The local parallelism of
+	 * 1 only stops idle instances being made on each member, a higher
+	 * one wouldn't share the work. So this job's throughput is what
+	 * one thread can do, each price costing work in proportion to the
+	 * number of currency pairs, and it shouldn't be given more
+	 * currency pairs than that allows.
+	 * </p>
+	 *
+	 * @param bootstrapServers Kafka connection info
+	 * @return A DAG to run as a Jet job
+	 */
+	public static DAG build(String bootstrapServers) {
+		DAG dag = new DAG();
+
+		Vertex kafka = MovingAverageDAG.kafkaSource(dag, bootstrapServers);
+
+		Vertex correlation = dag.newVertex("Correlation",
+				() -> new CorrelationProcessor(KEY, HALF_LIFE_MS, PUBLISH_INTERVAL_MS))
+				.localParallelism(1);
+		dag.edge(Edge.between(kafka,correlation)
+				.distributed().partitioned(CorrelationDAG::matrixKey));
+
+		Vertex correlationSink = dag.newVertex("Correlation IMap Sink",
+				SinkProcessors.writeMapP(MyConstants.IMAP_NAME_CORRELATION)
+				);
+		dag.edge(Edge.between(correlation,correlationSink));
+
+		return dag;
+	}
+
+	/**
+	 * <p>All prices have the same partition key, so meet in one
+	 * place, the same place the snapshot is restored to.
+	 * </p>
+	 */
+	public static String matrixKey(Entry<CurrencyPairKey, CurrencyPairValue> entry) {
+		return KEY;
+	}
+
+}
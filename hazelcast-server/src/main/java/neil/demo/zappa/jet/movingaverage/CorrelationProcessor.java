@@ -0,0 +1,386 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.Correlation;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+
+/**
+ * <p>Keep a rolling correlation matrix across all currency pairs,
+ * updated as each price arrives, and output it every so often as a
+ * {@link Correlation}.
+ * </p>
+ * <p>Prices for different currency pairs don't arrive at the same
+ * times, so there isn't a row of returns for all pairs at once to
+ * take the covariance of. Instead prices are grouped into steps of
+ * event time, all the prices with the same timestamp, and each
+ * step is applied once the next timestamp arrives. For each
+ * currency pair "<i>i</i>" with a price in the step, its return
+ * is the change in log price since its price before the step.
+ * That is multiplied by each other pair's change in log price over
+ * the same interval, from the other pair's price at the end of the
+ * step "<i>i</i>" last moved in to its price at the end of this
+ * step, and added to the sum for the pair of pairs. The log prices
+ * of all pairs at the end of the step are then kept as
+ * "<i>i</i>"'s anchors for next time. Each pair's variance is the
+ * sum of its squared returns.
+ * </p>
+ * <p>As with the Hayashi-Yoshida estimator, returns are over each
+ * pair's own intervals between prices, so pairs priced at different
+ * rates don't need to be sampled onto a common grid. Prices with
+ * the same timestamp see each other whatever order they arrive in,
+ * so two pairs always priced together get the product of their
+ * returns over the same interval, and two identical series have a
+ * correlation of 1. A price earlier than the step goes into the
+ * step, as it would be too late for its own.
+ * </p>
+ * <p>So a price costs work proportional to the number of currency
+ * pairs, one row of the matrix, not their square. The matrix is
+ * symmetric and each cell is added to from both its pairs' prices,
+ * so each adds half. Returns over short intervals have a mean near
+ * zero, so it isn't subtracted. The correlation is the sum for the
+ * pair of pairs divided by the square root of the product of their
+ * variances, clamped to the range -1 to 1 as this estimate can
+ * stray slightly outside.
+ * </p>
+ * <p>Older returns are given less weight, halving every half-life
+ * of event time. Rather than decay every cell on each price, each
+ * new return is given more weight, growing exponentially from an
+ * epoch. Correlation is a ratio, so the scale cancels. When the
+ * weight gets too large the sums are all scaled down and the epoch
+ * moved, once in a long while.
+ * </p>
+ * <p>The matrix can't be partitioned by currency pair, so the
+ * input is all sent to one instance. That one instance, on one
+ * thread, is a serial bottleneck for the whole topic, every price
+ * from every partition costs it one row of work, and more
+ * instances or members can't share it.
+ * </p>
+ * <p>State is arrays of primitives indexed by the slot from
+ * {@link CurrencyPairSlots}, sized to a power of two capacity, the
+ * anchors a square of the capacity and the sums a triangle as in
+ * {@link Correlation#index(int, int)}. With 200 currency pairs the
+ * capacity is 256, so the anchors are 65,536 numbers and the sums
+ * 32,896, with the log prices about 99,000 {@code double}, 0.8
+ * megabytes. It grows with the square, 1,000 currency pairs would
+ * be about 12.6 megabytes. The state is saved to Jet snapshots,
+ * trimmed to the currency pairs seen, under the same key that input
+ * is partitioned on, so is restored to the instance that gets the
+ * input.
+ * </p>
+ */
+public class CorrelationProcessor extends AbstractProcessor {
+
+	// When to scale the sums back down
+	private static final double RESCALE_LIMIT = 1e100;
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final String key;
+	private final double timeConstant;
+	private final long publishInterval;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private double[] logPrices;
+	private double[] starts;
+	private boolean[] stepped;
+	private double[] anchors;
+	private double[] sums;
+	private long epoch;
+	private long latest;
+	private long published;
+	private double scale;
+	private Entry<String, Correlation> pending;
+
+	/**
+	 * @param arg0 Key for the output and the snapshot
+	 * @param arg1 Milliseconds for a return's weight to halve
+	 * @param arg2 Milliseconds of event time between outputs
+	 */
+	public CorrelationProcessor(String arg0, long arg1, long arg2) {
+		if (arg1 < 1) {
+			throw new IllegalArgumentException("Half-life " + arg1 + " not positive");
+		}
+		this.key = arg0;
+		this.timeConstant = arg1 / Math.log(2d);
+		this.publishInterval = arg2;
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.logPrices = new double[0];
+		this.starts = new double[0];
+		this.stepped = new boolean[0];
+		this.anchors = new double[0];
+		this.sums = new double[0];
+		this.epoch = NONE;
+		this.scale = 1d;
+	}
+
+	/**
+	 * <p>Add the price to the step for its timestamp. A later
+	 * timestamp first applies the step before to the matrix, and
+	 * outputs the matrix if it is time to.
+	 * </p>
+	 * <p>As for {@link MovingAverageProcessor}, output refused is
+	 * held and retried without re-applying the input.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess0(Object item) {
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			Entry<CurrencyPairKey, CurrencyPairValue>
+				data = (Entry<CurrencyPairKey, CurrencyPairValue>) item;
+			long timestamp = data.getValue().getTimestamp();
+			long rate = data.getValue().getRate();
+			if (rate <= 0L) {
+				return true;
+			}
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(data.getKey());
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+
+			// A later timestamp ends the step, which may be time to publish
+			Correlation correlation = null;
+			if (this.epoch == NONE) {
+				this.start(timestamp);
+			} else if (timestamp > this.latest) {
+				this.endStep();
+				if (this.latest >= this.published + this.publishInterval) {
+					this.published = this.latest;
+					correlation = this.correlation();
+				}
+				this.advance(timestamp);
+			}
+
+			// Join the step, keeping the price from before it
+			if (!this.stepped[slot]) {
+				this.stepped[slot] = true;
+				this.starts[slot] = this.logPrices[slot];
+			}
+			this.logPrices[slot] = Math.log(rate);
+
+			if (correlation == null) {
+				return true;
+			}
+			this.pending = new SimpleImmutableEntry<>(this.key, correlation);
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>How many numbers the state arrays hold, for testing.
+	 * </p>
+	 */
+	int stateLength() {
+		return this.logPrices.length + this.starts.length + this.stepped.length
+				+ this.anchors.length + this.sums.length;
+	}
+
+	/**
+	 * <p>The covariance sums for the currency pairs seen, for testing.
+	 * </p>
+	 */
+	double[] sums() {
+		return Arrays.copyOf(this.sums, Correlation.index(this.currencyPairSlots.size(), 0));
+	}
+
+	/**
+	 * <p>Save the whole state as one snapshot entry.
+	 * </p>
+	 *
+	 * @return True once saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		int size = this.currencyPairSlots.size();
+		if (size == 0) {
+			return true;
+		}
+
+		CurrencyPairKey[] keys = new CurrencyPairKey[size];
+		double[] anchors = new double[size * size];
+		for (int i = 0 ; i < size ; i++) {
+			keys[i] = this.currencyPairSlots.keyOf(i);
+			System.arraycopy(this.anchors, i * this.capacity, anchors, i * size, size);
+		}
+
+		CorrelationState state = new CorrelationState(keys,
+				Arrays.copyOf(this.logPrices, size),
+				Arrays.copyOf(this.starts, size), Arrays.copyOf(this.stepped, size), anchors,
+				Arrays.copyOf(this.sums, Correlation.index(size, 0)),
+				this.epoch, this.latest, this.published);
+
+		return super.tryEmitToSnapshot(this.key, state);
+	}
+
+	/**
+	 * <p>Reload the state, as saved by {@link #saveToSnapshot()}.
+	 * Slots are given out in order of first appearance, so
+	 * taking the keys in order gives each the same slot.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		CorrelationState state = (CorrelationState) value;
+		CurrencyPairKey[] keys = state.getKeys();
+		int size = keys.length;
+
+		for (int i = 0 ; i < size ; i++) {
+			int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical(keys[i]));
+			if (slot != i) {
+				throw new IllegalStateException("Snapshot for " + key + " restored into a processor with "
+						+ this.currencyPairSlots.size() + " currency pairs");
+			}
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+		}
+
+		System.arraycopy(state.getLogPrices(), 0, this.logPrices, 0, size);
+		System.arraycopy(state.getStarts(), 0, this.starts, 0, size);
+		System.arraycopy(state.getStepped(), 0, this.stepped, 0, size);
+		for (int i = 0 ; i < size ; i++) {
+			System.arraycopy(state.getAnchors(), i * size, this.anchors, i * this.capacity, size);
+		}
+		System.arraycopy(state.getSums(), 0, this.sums, 0, state.getSums().length);
+		this.epoch = state.getEpoch();
+		this.latest = state.getLatest();
+		this.published = state.getPublished();
+		this.scale = Math.exp((this.latest - this.epoch) / this.timeConstant);
+	}
+
+	/**
+	 * <p>The first price sets the epoch and the first step.
+	 * </p>
+	 */
+	private void start(long timestamp) {
+		this.epoch = timestamp;
+		this.latest = timestamp;
+		this.published = timestamp;
+	}
+
+	/**
+	 * <p>Add the returns of each currency pair priced in the step
+	 * to its row of the matrix, weighted for the step's time. The
+	 * prices at the end of the step become that pair's anchors.
+	 * </p>
+	 */
+	private void endStep() {
+		int size = this.currencyPairSlots.size();
+
+		for (int i = 0 ; i < size ; i++) {
+			if (!this.stepped[i]) {
+				continue;
+			}
+			this.stepped[i] = false;
+			int row = i * this.capacity;
+
+			// NaN if the first price for this pair
+			double change = this.logPrices[i] - this.starts[i];
+			if (!Double.isNaN(change)) {
+				for (int j = 0 ; j < size ; j++) {
+					if (j == i) {
+						this.sums[Correlation.index(i, i)] += this.scale * change * change;
+					} else {
+						// NaN if the other had no price when the anchors were taken
+						double other = this.logPrices[j] - this.anchors[row + j];
+						if (!Double.isNaN(other)) {
+							this.sums[Correlation.index(i, j)] += this.scale * 0.5d * change * other;
+						}
+					}
+				}
+			}
+
+			System.arraycopy(this.logPrices, 0, this.anchors, row, size);
+		}
+	}
+
+	/**
+	 * <p>Move event time forward to the next step, increasing the
+	 * weight for new returns to match.
+	 * </p>
+	 */
+	private void advance(long timestamp) {
+		this.latest = timestamp;
+		this.scale = Math.exp((this.latest - this.epoch) / this.timeConstant);
+		if (this.scale > RESCALE_LIMIT) {
+			for (int i = 0 ; i < this.sums.length ; i++) {
+				this.sums[i] /= this.scale;
+			}
+			this.epoch = this.latest;
+			this.scale = 1d;
+		}
+	}
+
+	/**
+	 * <p>Divide each covariance by the two standard deviations.
+	 * </p>
+	 */
+	private Correlation correlation() {
+		int size = this.currencyPairSlots.size();
+		String[] currencyPairs = new String[size];
+		double[] correlations = new double[Correlation.index(size, 0)];
+
+		for (int i = 0 ; i < size ; i++) {
+			CurrencyPairKey currencyPairKey = this.currencyPairSlots.keyOf(i);
+			currencyPairs[i] = currencyPairKey.getBase() + "/" + currencyPairKey.getQuote();
+
+			double variance = this.sums[Correlation.index(i, i)];
+			for (int j = 0 ; j <= i ; j++) {
+				double product = variance * this.sums[Correlation.index(j, j)];
+				if (product > 0d) {
+					double correlation = this.sums[Correlation.index(i, j)] / Math.sqrt(product);
+					correlations[Correlation.index(i, j)] = Math.max(-1d, Math.min(1d, correlation));
+				} else {
+					correlations[Correlation.index(i, j)] = Double.NaN;
+				}
+			}
+		}
+
+		return new Correlation(this.latest, currencyPairs, correlations);
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair. The anchors are a square so are re-laid for the new
+	 * width, new cells having no price.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+
+		this.logPrices = Arrays.copyOf(this.logPrices, this.capacity);
+		Arrays.fill(this.logPrices, oldCapacity, this.capacity, Double.NaN);
+		this.starts = Arrays.copyOf(this.starts, this.capacity);
+		this.stepped = Arrays.copyOf(this.stepped, this.capacity);
+
+		double[] anchors = new double[this.capacity * this.capacity];
+		Arrays.fill(anchors, Double.NaN);
+		for (int i = 0 ; i < oldCapacity ; i++) {
+			System.arraycopy(this.anchors, i * oldCapacity, anchors, i * this.capacity, oldCapacity);
+		}
+		this.anchors = anchors;
+
+		this.sums = Arrays.copyOf(this.sums, Correlation.index(this.capacity, 0));
+	}
+
+}
@@ -0,0 +1,34 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import neil.demo.zappa.CurrencyPairKey;
+
+/**
+ * <p>The state of a {@link CorrelationProcessor}, as saved to a
+ * Jet snapshot. Arrays are trimmed to the currency pairs seen,
+ * in slot order, so the processor can be restored with the same
+ * slot numbers. The step in progress is saved too, each pair's
+ * price from before the step if it has a price in it.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CorrelationState implements Serializable {
+
+	private CurrencyPairKey[] keys;
+	private double[] logPrices;
+	private double[] starts;
+	private boolean[] stepped;
+	private double[] anchors;
+	private double[] sums;
+	private long epoch;
+	private long latest;
+	private long published;
+
+}
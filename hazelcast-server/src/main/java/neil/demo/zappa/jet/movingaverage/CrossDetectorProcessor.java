@@ -3,25 +3,28 @@ package neil.demo.zappa.jet.movingaverage;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.stream.IntStream;
 
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
 import com.hazelcast.jet.core.AbstractProcessor;
-import com.hazelcast.jet.datamodel.TimestampedEntry;
-import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.datamodel.Tuple3;
 
+import neil.demo.zappa.CurrencyPairKey;
 import neil.demo.zappa.TimePrice;
 
 /**
- * <p>A processor that detects when sequences of numbers on
- * different input streams intersect, and produces output
- * when this occurs.
+ * <p>A processor that detects when sequences of numbers in
+ * the input intersect, and produces output when this occurs.
  * </p>
  * <p>A "<i>cross</i>" will occur when an increasing sequence of
- * points on the first input queue moves above the value of a decreasing
- * sequence of points on the second input queue. The reverse is also the case,
- * if the first input sequence is decreasing and moves below a second input
+ * points for the first indicator moves above the value of a decreasing
+ * sequence of points for the second indicator. The reverse is also the case,
+ * if the first sequence is decreasing and moves below a second
  * sequence of increasing values.
  * </p>
  * <p>In this demo, the input streams are expected to be a 50-point moving
@@ -50,60 +53,257 @@ import neil.demo.zappa.TimePrice;
  * because the indicator suggests buy, then the price goes up due to supply
  * and demand, and it might be mistaken that the indicator was correct.
  * </p>
+ * <p>Which indicators to compare is configured, as a list of
+ * {@link CrossoverRule}. The 50 point against the 200 point is one rule,
+ * but the current price against the 50 point could be another. All rules
+ * are checked in one pass over each input.
+ * </p>
+ * <p>Input is partitioned by currency pair, so this can run with any
+ * parallelism. The previous values of the indicators are held per currency
+ * pair in an array of primitives indexed by the pair's slot from
+ * {@link CurrencyPairSlots}, as for {@link MovingAverageProcessor}.
+ * </p>
+ * <p>Two days are kept for each currency pair, the latest and the
+ * one before. Input for a later day is compared with the latest.
+ * Input for the same day as the latest replaces it, as from
+ * {@link TimeWindowAverageProcessor} when a price is replaced, and
+ * is compared again with the day before. So a cross is found, or
+ * found again, on the replaced values. Input for an earlier day
+ * is ignored.
+ * </p>
+ * <p>Both days' values are saved to Jet snapshots per currency
+ * pair, so a restarted job can detect a cross on the first day
+ * after the restart.
+ * </p>
+ * <p>Output is a map entry per cross found. The key is the day, the
+ * currency pair and the rule name. The value is the direction and the
+ * two indicator values.
+ * </p>
  */
 public class CrossDetectorProcessor extends AbstractProcessor {
 
-	private BigDecimal previousOrdinal0Rate = null;
-	private BigDecimal currentOrdinal0Rate = null;
-	private BigDecimal previousOrdinal1Rate = null;
-	private BigDecimal currentOrdinal1Rate = null;
+	public static final String UPWARD = "Upward";
+	public static final String DOWNWARD = "Downward";
+
+	private final CrossoverRule[] rules;
+	private final int width;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private long[] timestamps;
+	private long[] latestRates;
+	private long[] previousRates;
+	private Traverser<Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>> traverser;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
 
 	/**
-	 * 
+	 * @param arg0 How many prices in each input item
+	 * @param arg1 Which of the prices to compare
+	 */
+	public CrossDetectorProcessor(int arg0, CrossoverRule... arg1) {
+		for (CrossoverRule rule : arg1) {
+			if (rule.getFast() < 0 || rule.getFast() >= arg0
+					|| rule.getSlow() < 0 || rule.getSlow() >= arg0) {
+				throw new IllegalArgumentException("Rule " + rule + " outside " + arg0 + " prices");
+			}
+		}
+		this.rules = arg1.clone();
+		this.width = arg0;
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.timestamps = new long[0];
+		this.latestRates = new long[0];
+		this.previousRates = new long[0];
+	}
+
+	/**
+	 * <p>Compare the input with the day before for the same
+	 * currency pair, for each rule, then keep the input as the
+	 * latest day.
+	 * </p>
+	 * <p>If the output queue fills part way through the alerts,
+	 * the rest is sent when this is called again with the same
+	 * input, without re-applying the input.
+	 * </p>
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	protected boolean tryProcess0(Object item) {
 		
-		// Re-cast input
-		TimestampedEntry<?, Tuple2<Date, List<BigDecimal>>> inputEntry =
-			(TimestampedEntry<?, Tuple2<Date, List<BigDecimal>>>) item;
-
-		// Find info 
-		Date date = inputEntry.getValue().getKey();
-		this.previousOrdinal0Rate = inputEntry.getValue().f1().get(0);
-		this.currentOrdinal0Rate = inputEntry.getValue().f1().get(1);
-		this.previousOrdinal1Rate = inputEntry.getValue().f1().get(2);
-		this.currentOrdinal1Rate = inputEntry.getValue().f1().get(3);
-
-		// Business logic, do they cross ?
-		String trend = null;
-		if (this.previousOrdinal0Rate.compareTo(this.previousOrdinal1Rate) < 0) {
-			if (this.currentOrdinal0Rate.compareTo(this.currentOrdinal1Rate) > 0) {
-				trend = "Upward";
+		// Retry of output previously refused
+		if (this.traverser == null) {
+			TimePrices timePrices = (TimePrices) item;
+			long[] rates = timePrices.getRates();
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(timePrices.getKey());
+			if (slot >= this.capacity) {
+				this.grow(slot);
 			}
-		}
-		if (this.previousOrdinal0Rate.compareTo(this.previousOrdinal1Rate) > 0) {
-			if (this.currentOrdinal0Rate.compareTo(this.currentOrdinal1Rate) < 0) {
-				trend = "Downward";
+			if (timePrices.getTimestamp() < this.timestamps[slot]) {
+				return true;
+			}
+			int base = slot * this.width;
+
+			// A new day moves the latest to before, the same day replaces the latest
+			if (timePrices.getTimestamp() > this.timestamps[slot]) {
+				System.arraycopy(this.latestRates, base, this.previousRates, base, this.width);
+			}
+
+			// Business logic, do they cross ?
+			List<Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>> alerts = null;
+			for (int i = 0 ; i < this.rules.length ; i++) {
+				String trend = this.trend(base, rates, this.rules[i]);
+				if (trend != null) {
+					if (alerts == null) {
+						alerts = new ArrayList<>(this.rules.length);
+					}
+					alerts.add(this.alert(timePrices, this.rules[i], trend));
+				}
+			}
+
+			// Current becomes latest
+			this.timestamps[slot] = timePrices.getTimestamp();
+			System.arraycopy(rates, 0, this.latestRates, base, this.width);
+
+			if (alerts == null) {
+				return true;
 			}
+			this.traverser = Traversers.traverseIterable(alerts);
 		}
 		
-		if (trend != null) {
-			LocalDate day = TimePrice.convert(date);
-			
-			Tuple2<LocalDate, String> outputEntryKey
-				= Tuple2.tuple2(day, trend);
+		if (super.emitFromTraverser(this.traverser)) {
+			this.traverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
 			
-			Tuple2<BigDecimal, BigDecimal> outputEntryValue
-				= Tuple2.tuple2(this.currentOrdinal0Rate, this.currentOrdinal1Rate);
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry,
+	 * keyed by currency pair. The value is the latest timestamp,
+	 * the latest prices, then the prices the day before.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's state, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] state = (long[]) value;
+		if (state.length != 1 + 2 * this.width) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ state.length + " items, expected " + (1 + 2 * this.width));
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
 
-			Entry<Tuple2<LocalDate, String>,Tuple2<BigDecimal, BigDecimal>> outputEntry
-				= new SimpleImmutableEntry<>(outputEntryKey, outputEntryValue);
+		this.timestamps[slot] = state[0];
+		System.arraycopy(state, 1, this.latestRates, slot * this.width, this.width);
+		System.arraycopy(state, 1 + this.width, this.previousRates, slot * this.width, this.width);
+	}
+
+	/**
+	 * <p>Copy one currency pair's state for a snapshot.
+	 * </p>
+	 */
+	private long[] snapshotOf(int slot) {
+		long[] state = new long[1 + 2 * this.width];
+		state[0] = this.timestamps[slot];
+		System.arraycopy(this.latestRates, slot * this.width, state, 1, this.width);
+		System.arraycopy(this.previousRates, slot * this.width, state, 1 + this.width, this.width);
+		return state;
+	}
+
+	/**
+	 * <p>Did the fast indicator cross the slow indicator ?
+	 * </p>
+	 *
+	 * @param base Start of the currency pair's prices the day before
+	 * @param rates Current prices
+	 * @param rule Which prices to compare
+	 * @return {@link #UPWARD}, {@link #DOWNWARD} or null if no cross, or not enough data
+	 */
+	private String trend(int base, long[] rates, CrossoverRule rule) {
+		long previousFast = this.previousRates[base + rule.getFast()];
+		long previousSlow = this.previousRates[base + rule.getSlow()];
+		long currentFast = rates[rule.getFast()];
+		long currentSlow = rates[rule.getSlow()];
+			
+		if (previousFast == TimePrice.NO_RATE || previousSlow == TimePrice.NO_RATE
+				|| currentFast == TimePrice.NO_RATE || currentSlow == TimePrice.NO_RATE) {
+			return null;
+		}
 
-			return super.tryEmit(outputEntry);
+		if (previousFast < previousSlow && currentFast > currentSlow) {
+			return UPWARD;
+		}
+		if (previousFast > previousSlow && currentFast < currentSlow) {
+			return DOWNWARD;
 		}
-		return true;
+		return null;
+	}
+
+	/**
+	 * <p>Format a cross as a map entry, converting prices
+	 * to {@link BigDecimal} for display.
+	 * </p>
+	 */
+	private Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>
+		alert(TimePrices timePrices, CrossoverRule rule, String trend) {
+		LocalDate day = TimePrice.toLocalDate(timePrices.getTimestamp());
+		String currencyPair = timePrices.getKey().getBase() + "/" + timePrices.getKey().getQuote();
+
+		Tuple3<LocalDate, String, String> outputEntryKey
+			= Tuple3.tuple3(day, currencyPair, rule.getName());
+
+		Tuple3<String, BigDecimal, BigDecimal> outputEntryValue
+			= Tuple3.tuple3(trend,
+					TimePrice.toBigDecimal(timePrices.getRates()[rule.getFast()]),
+					TimePrice.toBigDecimal(timePrices.getRates()[rule.getSlow()]));
+
+		return new SimpleImmutableEntry<>(outputEntryKey, outputEntryValue);
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair, new entries having no timestamp and no prices.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.timestamps = Arrays.copyOf(this.timestamps, this.capacity);
+		Arrays.fill(this.timestamps, oldCapacity, this.capacity, Long.MIN_VALUE);
+		this.latestRates = Arrays.copyOf(this.latestRates, this.capacity * this.width);
+		Arrays.fill(this.latestRates, oldCapacity * this.width, this.capacity * this.width, TimePrice.NO_RATE);
+		this.previousRates = Arrays.copyOf(this.previousRates, this.capacity * this.width);
+		Arrays.fill(this.previousRates, oldCapacity * this.width, this.capacity * this.width, TimePrice.NO_RATE);
 	}
 
 }
@@ -0,0 +1,29 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * <p>A pair of indicators to watch for crossing, such as the
+ * 50 point moving average crossing the 200 point.
+ * </p>
+ * <p>The indicators are given by their position in the
+ * {@link TimePrices} input to the {@link CrossDetectorProcessor}.
+ * The "<i>fast</i>" indicator is the one expected to react
+ * more quickly to price changes, the shorter period.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CrossoverRule implements Serializable {
+
+	private String name;
+	private int fast;
+	private int slow;
+
+}
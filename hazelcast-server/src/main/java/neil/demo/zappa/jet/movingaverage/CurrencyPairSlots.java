@@ -0,0 +1,105 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.Arrays;
+
+import neil.demo.zappa.CurrencyPairKey;
+
+/**
+ * <p>Gives each {@link CurrencyPairKey} seen by a processor a
+ * slot number, 0, 1, 2 and so on, in order of first appearance.
+ * </p>
+ * <p>The processor can then hold the state for each currency
+ * pair in arrays of primitives, indexed by the slot number,
+ * rather than needing a {@link java.util.HashMap HashMap} of
+ * objects per key. Thousands of keys means a few large arrays,
+ * not thousands of small objects.
+ * </p>
+ * <p>Lookup is by the key's {@link CurrencyPairKey#getId() id},
+ * a small number, indexing directly into an array. No hashing or
+ * comparison is needed. Keys are never removed, the set of currency
+ * pairs is not expected to shrink.
+ * </p>
+ * <p>Not thread-safe, a processor instance is only ever called
+ * by one thread at a time.
+ * </p>
+ */
+public class CurrencyPairSlots {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// Slot plus one by id, zero if no slot yet
+	private int[] slotsById;
+	private CurrencyPairKey[] keys;
+	private int size;
+
+	public CurrencyPairSlots() {
+		this.slotsById = new int[INITIAL_CAPACITY];
+		this.keys = new CurrencyPairKey[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * <p>Find the slot for a key, allocating the next slot
+	 * number if the key hasn't been seen before.
+	 * </p>
+	 *
+	 * @param key A currency pair
+	 * @return Slot number, from 0 upwards
+	 */
+	public int slotOf(CurrencyPairKey key) {
+		int id = key.getId();
+
+		if (id < this.slotsById.length && this.slotsById[id] != 0) {
+			return this.slotsById[id] - 1;
+		}
+
+		// New key
+		if (id >= this.slotsById.length) {
+			this.slotsById = Arrays.copyOf(this.slotsById,
+					CurrencyPairSlots.capacityFor(this.slotsById.length, id));
+		}
+		int slot = this.size;
+		this.size++;
+		this.slotsById[id] = slot + 1;
+		if (slot == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, 2 * slot);
+		}
+		this.keys[slot] = key;
+
+		return slot;
+	}
+
+	/**
+	 * @param slot From {@link #slotOf(CurrencyPairKey)}
+	 * @return The key given that slot
+	 */
+	public CurrencyPairKey keyOf(int slot) {
+		return this.keys[slot];
+	}
+
+	/**
+	 * @return How many keys have slots
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * <p>Utility for processors holding state in arrays, find the
+	 * new length needed for an array to include a slot, doubling
+	 * so that growth is occasional.
+	 * </p>
+	 *
+	 * @param length Current array length, in slots
+	 * @param slot Slot that must fit
+	 * @return The current length if big enough, else a bigger one
+	 */
+	public static int capacityFor(int length, int slot) {
+		int capacity = Math.max(length, 1);
+		while (capacity <= slot) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+}
@@ -0,0 +1,49 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Exponential moving averages, where each new price
+ * has weight {@code 2 / (period + 1)} and the older prices
+ * share the rest, so recent prices count for more than
+ * in the simple average of {@link MovingAverageProcessor}.
+ * </p>
+ * <p>Each average is seeded with the simple average of the
+ * first "<i>period</i>" prices, and is output from then on.
+ * Only the previous average is needed for the next, there
+ * is no history of prices.
+ * </p>
+ * <p>Output is one price per period, in the order given.
+ * </p>
+ */
+public class EmaProcessor extends IndicatorProcessor {
+
+	private final int[] periods;
+
+	/**
+	 * @param arg0 Periods for each average, such as 12 and 26
+	 */
+	public EmaProcessor(int... arg0) {
+		super(arg0.length, arg0.length, 0);
+		for (int period : arg0) {
+			IndicatorProcessor.checkPeriod(period);
+		}
+		this.periods = arg0.clone();
+	}
+
+	@Override
+	protected void update(long rate, long count, int stateBase, int historyBase, long[] output) {
+		long n = count + 1;
+
+		for (int i = 0 ; i < this.periods.length ; i++) {
+			super.state[stateBase + i] = IndicatorProcessor.ema(super.state[stateBase + i], rate, this.periods[i], n);
+
+			if (n >= this.periods[i]) {
+				output[i] = Math.round(super.state[stateBase + i]);
+			} else {
+				output[i] = TimePrice.NO_RATE;
+			}
+		}
+	}
+
+}
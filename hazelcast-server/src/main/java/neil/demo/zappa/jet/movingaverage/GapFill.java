@@ -0,0 +1,33 @@
+package neil.demo.zappa.jet.movingaverage;
+
+/**
+ * <p>What {@link TimeWindowAverageProcessor} assumes the price
+ * was at times between two prices, when they are further apart
+ * than the step it is configured with.
+ * </p>
+ */
+public enum GapFill {
+
+	/**
+	 * <p>Nothing is assumed, the average is of the prices
+	 * actually received in the window, however they are spread.
+	 * </p>
+	 */
+	NONE,
+
+	/**
+	 * <p>The price stayed where it was, each missed step is
+	 * filled with the price before the gap.
+	 * </p>
+	 */
+	PREVIOUS,
+
+	/**
+	 * <p>The price moved evenly, each missed step is filled
+	 * with a price on the straight line between the prices
+	 * either side of the gap.
+	 * </p>
+	 */
+	LINEAR,
+
+}
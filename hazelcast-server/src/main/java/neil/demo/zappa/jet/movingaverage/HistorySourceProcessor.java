@@ -0,0 +1,76 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+
+/**
+ * <p>Batch source for one chunk of a {@link PriceHistory}, the
+ * chunk being this processor's index across the whole job.
+ * </p>
+ * <p>Before the chunk's own prices, the "<i>overlap</i>" prices
+ * from the end of the previous chunk are sent again. This is so
+ * processors with a history, such as a 200 point average, are
+ * warmed up when the chunk proper starts. Output from the
+ * overlap is removed later by {@link WarmUpFilterProcessor}.
+ * </p>
+ * <p>Prices are sent in the same form as from Kafka, so the
+ * same processors as the streaming job can be used unchanged.
+ * </p>
+ */
+public class HistorySourceProcessor extends AbstractProcessor {
+
+	private final PriceHistory priceHistory;
+	private final int overlap;
+	private Traverser<Entry<CurrencyPairKey, CurrencyPairValue>> traverser;
+
+	/**
+	 * @param arg0 All prices, of which this processor sends a chunk
+	 * @param arg1 How many prices before the chunk to send too
+	 */
+	public HistorySourceProcessor(PriceHistory arg0, int arg1) {
+		this.priceHistory = arg0;
+		this.overlap = arg1;
+	}
+
+	/**
+	 * <p>Work out which prices are this processor's.
+	 * </p>
+	 */
+	@Override
+	protected void init(Context context) throws Exception {
+		int chunk = context.globalProcessorIndex();
+		int chunks = context.totalParallelism();
+
+		int from = Math.max(0, this.priceHistory.chunkStart(chunk, chunks) - this.overlap);
+		int to = this.priceHistory.chunkStart(chunk + 1, chunks);
+
+		CurrencyPairKey key = CurrencyPairKey.canonical(this.priceHistory.getKey());
+		long[] timestamps = this.priceHistory.getTimestamps();
+		long[] rates = this.priceHistory.getRates();
+
+		this.traverser = Traversers.traverseStream(
+				IntStream.range(from, to)
+				.mapToObj(i -> new SimpleImmutableEntry<>(key,
+						new CurrencyPairValue(timestamps[i], rates[i]))));
+	}
+
+	/**
+	 * <p>Send the chunk, as fast as the next vertex will take it.
+	 * </p>
+	 *
+	 * @return True once all sent
+	 */
+	@Override
+	public boolean complete() {
+		return super.emitFromTraverser(this.traverser);
+	}
+
+}
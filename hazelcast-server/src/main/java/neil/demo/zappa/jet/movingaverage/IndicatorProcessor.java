@@ -0,0 +1,361 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Common logic for technical indicators calculated on a
+ * continuous stream of prices, such as {@link EmaProcessor}
+ * and {@link RsiProcessor}.
+ * </p>
+ * <p>Input is the same as for {@link TimeWindowAverageProcessor},
+ * prices from Kafka partitioned by currency pair. Output is
+ * the same too, a {@link TimePrices} holding the indicator
+ * values for the day, {@link TimePrice#NO_RATE} for any
+ * that don't have enough input yet.
+ * </p>
+ * <p>In the jobs the indicators aren't vertices of their own,
+ * they are run together by a {@link CombinedIndicatorProcessor}
+ * on the output of the averages.
+ * </p>
+ * <p>Each indicator is updated from the new price and its
+ * own previous values, so the cost per price is fixed no
+ * matter how long the period. The state for each currency
+ * pair is a fixed number of {@code double}, and optionally
+ * a fixed number of previous prices, held in arrays indexed
+ * by the pair's slot from {@link CurrencyPairSlots}. This
+ * class manages the arrays, the output and the snapshots,
+ * subclasses do the calculation in {@link #update}.
+ * </p>
+ * <p>Calculations are done in {@code double} on the fixed-point
+ * price units, as unlike a running sum there is nothing
+ * subtracted later that could leave rounding drift. Output is
+ * rounded back to fixed-point.
+ * </p>
+ * <p>As for {@link TimeWindowAverageProcessor}, a price with the
+ * same timestamp as the latest replaces it, and a price with an
+ * earlier timestamp is late and is dropped. So a tick replayed
+ * or corrected isn't counted twice. To replace, the state from
+ * before the latest price is kept, a copy of the {@code double}
+ * values and the one history price it overwrote, and put back
+ * before the replacement is applied. Subclasses must only write
+ * the history at position {@code count % historyWidth}, as a
+ * ringbuffer, for this to work.
+ * </p>
+ */
+public abstract class IndicatorProcessor extends AbstractProcessor {
+
+	// Timestamp when no price yet
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final int outputWidth;
+	private final int stateWidth;
+	private final int historyWidth;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private long[] counts;
+	private long[] timestamps;
+	protected double[] state;
+	protected long[] history;
+	private double[] previousState;
+	private long[] previousHistory;
+	private TimePrices pending;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
+
+	/**
+	 * @param outputWidth How many values are output for each price
+	 * @param stateWidth How many {@code double} are kept per currency pair
+	 * @param historyWidth How many previous prices are kept per currency pair
+	 */
+	protected IndicatorProcessor(int outputWidth, int stateWidth, int historyWidth) {
+		this.outputWidth = outputWidth;
+		this.stateWidth = stateWidth;
+		this.historyWidth = historyWidth;
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.counts = new long[0];
+		this.timestamps = new long[0];
+		this.state = new double[0];
+		this.history = new long[0];
+		this.previousState = new double[0];
+		this.previousHistory = new long[0];
+	}
+
+	/**
+	 * <p>Update the indicators for the currency pair with the next
+	 * price.
+	 * </p>
+	 *
+	 * @param rate The new price, fixed-point
+	 * @param count How many prices there were before this one
+	 * @param stateBase Start of the currency pair's values in {@link #state}
+	 * @param historyBase Start of the currency pair's prices in {@link #history},
+	 *  only position {@code historyBase + count % historyWidth} may be changed
+	 * @param output To fill with each indicator, or {@link TimePrice#NO_RATE}
+	 */
+	protected abstract void update(long rate, long count, int stateBase, int historyBase, long[] output);
+
+	/**
+	 * <p>Update the currency pair's state with the input, and
+	 * output the indicators if any are available.
+	 * </p>
+	 * <p>As for {@link MovingAverageProcessor}, output refused
+	 * is held and retried, so the input isn't applied twice.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess0(Object item) {
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			Entry<CurrencyPairKey, CurrencyPairValue>
+				data = (Entry<CurrencyPairKey, CurrencyPairValue>) item;
+
+			long[] output = this.apply(data.getKey(), data.getValue().getTimestamp(), data.getValue().getRate());
+
+			// Nothing to produce until at least one indicator is ready
+			boolean ready = false;
+			for (int i = 0 ; output != null && i < output.length ; i++) {
+				ready |= (output[i] != TimePrice.NO_RATE);
+			}
+			if (!ready) {
+				return true;
+			}
+
+			this.pending = new TimePrices(data.getKey(), data.getValue().getTimestamp(), output);
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Apply a price to its currency pair's state, replacing
+	 * the latest if for the same time.
+	 * </p>
+	 *
+	 * @param key Currency pair
+	 * @param timestamp Time of the price
+	 * @param rate The price, fixed-point
+	 * @return Each indicator or {@link TimePrice#NO_RATE}, or null if the price is late
+	 */
+	long[] apply(CurrencyPairKey key, long timestamp, long rate) {
+		int slot = this.currencyPairSlots.slotOf(key);
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+
+		if (this.timestamps[slot] != NONE) {
+			// Late, drop it
+			if (timestamp < this.timestamps[slot]) {
+				return null;
+			}
+			// Duplicate, undo the latest so this replaces it
+			if (timestamp == this.timestamps[slot]) {
+				this.undo(slot);
+			}
+		}
+
+		this.keep(slot);
+		long[] output = new long[this.outputWidth];
+		this.update(rate, this.counts[slot], slot * this.stateWidth, slot * this.historyWidth, output);
+		this.counts[slot]++;
+		this.timestamps[slot] = timestamp;
+
+		return output;
+	}
+
+	/**
+	 * <p>Keep what the next update changes, so it can be undone.
+	 * </p>
+	 */
+	private void keep(int slot) {
+		System.arraycopy(this.state, slot * this.stateWidth, this.previousState, slot * this.stateWidth, this.stateWidth);
+		if (this.historyWidth > 0) {
+			this.previousHistory[slot] = this.history[this.historyPosition(slot)];
+		}
+	}
+
+	/**
+	 * <p>Put back the state from before the latest update.
+	 * </p>
+	 */
+	private void undo(int slot) {
+		this.counts[slot]--;
+		System.arraycopy(this.previousState, slot * this.stateWidth, this.state, slot * this.stateWidth, this.stateWidth);
+		if (this.historyWidth > 0) {
+			this.history[this.historyPosition(slot)] = this.previousHistory[slot];
+		}
+	}
+
+	/**
+	 * <p>Where the next update may write the history.
+	 * </p>
+	 */
+	private int historyPosition(int slot) {
+		return slot * this.historyWidth + (int) (this.counts[slot] % this.historyWidth);
+	}
+
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry,
+	 * keyed by currency pair. The value is the count, the
+	 * latest timestamp, the history price kept for a replace,
+	 * the state and the state kept for a replace as raw bits,
+	 * then the history.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's state, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] snapshot = (long[]) value;
+		if (snapshot.length != this.snapshotWidth()) {
+			throw new IllegalStateException("Snapshot for " + key + " has " + snapshot.length
+					+ " items, expected " + this.snapshotWidth());
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+
+		this.counts[slot] = snapshot[0];
+		this.timestamps[slot] = snapshot[1];
+		this.previousHistory[slot] = snapshot[2];
+		for (int i = 0 ; i < this.stateWidth ; i++) {
+			this.state[slot * this.stateWidth + i] = Double.longBitsToDouble(snapshot[3 + i]);
+			this.previousState[slot * this.stateWidth + i] = Double.longBitsToDouble(snapshot[3 + this.stateWidth + i]);
+		}
+		System.arraycopy(snapshot, 3 + 2 * this.stateWidth, this.history, slot * this.historyWidth, this.historyWidth);
+	}
+
+	/**
+	 * <p>Copy one currency pair's state for a snapshot.
+	 * </p>
+	 */
+	long[] snapshotOf(int slot) {
+		long[] snapshot = new long[this.snapshotWidth()];
+		snapshot[0] = this.counts[slot];
+		snapshot[1] = this.timestamps[slot];
+		snapshot[2] = this.previousHistory[slot];
+		for (int i = 0 ; i < this.stateWidth ; i++) {
+			snapshot[3 + i] = Double.doubleToRawLongBits(this.state[slot * this.stateWidth + i]);
+			snapshot[3 + this.stateWidth + i] = Double.doubleToRawLongBits(this.previousState[slot * this.stateWidth + i]);
+		}
+		System.arraycopy(this.history, slot * this.historyWidth, snapshot, 3 + 2 * this.stateWidth, this.historyWidth);
+		return snapshot;
+	}
+
+	int snapshotWidth() {
+		return 3 + 2 * this.stateWidth + this.historyWidth;
+	}
+
+	int outputWidth() {
+		return this.outputWidth;
+	}
+
+	/**
+	 * @return How many currency pairs have state
+	 */
+	int size() {
+		return this.currencyPairSlots.size();
+	}
+
+	/**
+	 * @param slot From 0 to {@link #size()}
+	 * @return The currency pair with that slot
+	 */
+	CurrencyPairKey keyOf(int slot) {
+		return this.currencyPairSlots.keyOf(slot);
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair, new entries having no timestamp.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.counts = Arrays.copyOf(this.counts, this.capacity);
+		this.timestamps = Arrays.copyOf(this.timestamps, this.capacity);
+		Arrays.fill(this.timestamps, oldCapacity, this.capacity, NONE);
+		this.state = Arrays.copyOf(this.state, this.capacity * this.stateWidth);
+		this.history = Arrays.copyOf(this.history, this.capacity * this.historyWidth);
+		this.previousState = Arrays.copyOf(this.previousState, this.capacity * this.stateWidth);
+		this.previousHistory = Arrays.copyOf(this.previousHistory, this.capacity);
+	}
+
+	/**
+	 * <p>One step of an exponential moving average, seeded with
+	 * the simple average of the first values. Until then the
+	 * running total is kept in place of the average.
+	 * </p>
+	 *
+	 * @param previous The previous average, or running total
+	 * @param value The next value
+	 * @param period Number of values the average is over
+	 * @param n Values seen including this one
+	 * @return The new average, or running total if {@code n < period}
+	 */
+	protected static double ema(double previous, double value, int period, long n) {
+		if (n < period) {
+			return previous + value;
+		}
+		if (n == period) {
+			return (previous + value) / period;
+		}
+		return previous + (value - previous) * 2 / (period + 1);
+	}
+
+	/**
+	 * <p>Checks for constructor arguments.
+	 * </p>
+	 */
+	protected static int checkPeriod(int period) {
+		if (period < 1) {
+			throw new IllegalArgumentException("Period " + period + " not positive");
+		}
+		return period;
+	}
+}
@@ -0,0 +1,41 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.Map.Entry;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Save a price unless the map already has a later one.
+ * </p>
+ * <p>A batch job working on chunks of history in parallel writes
+ * prices in no particular order, so a plain put could leave an
+ * older price in the map at the end.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class LatestTimePriceEntryProcessor extends AbstractEntryProcessor<String, TimePrice> {
+
+	private final TimePrice timePrice;
+
+	LatestTimePriceEntryProcessor(TimePrice arg0) {
+		this.timePrice = arg0;
+	}
+
+	/**
+	 * <p>Replace the value if it's for the same time or earlier.
+	 * </p>
+	 */
+	@Override
+	public Void process(Entry<String, TimePrice> entry) {
+		TimePrice value = entry.getValue();
+
+		if (value == null || value.getTimestamp() <= this.timePrice.getTimestamp()) {
+			entry.setValue(this.timePrice);
+		}
+
+		return null;
+	}
+
+}
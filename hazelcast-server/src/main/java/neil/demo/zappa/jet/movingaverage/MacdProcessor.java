@@ -0,0 +1,72 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Moving Average Convergence Divergence, the difference
+ * between a fast and a slow exponential moving average, usually
+ * 12 and 26 points. The "<i>signal</i>" is an exponential moving
+ * average of that difference, usually over 9 points, and the
+ * "<i>histogram</i>" is the difference from the signal.
+ * </p>
+ * <p>Output is three prices, MACD, signal and histogram. The
+ * MACD is available once there is input for the slow average,
+ * the signal and histogram after a further signal period.
+ * </p>
+ * <p>As for {@link EmaProcessor}, only the three previous
+ * averages are kept per currency pair.
+ * </p>
+ */
+public class MacdProcessor extends IndicatorProcessor {
+
+	private static final int FAST = 0;
+	private static final int SLOW = 1;
+	private static final int SIGNAL = 2;
+
+	private final int fast;
+	private final int slow;
+	private final int signal;
+
+	/**
+	 * @param arg0 Fast average period, eg. 12
+	 * @param arg1 Slow average period, eg. 26
+	 * @param arg2 Signal average period, eg. 9
+	 */
+	public MacdProcessor(int arg0, int arg1, int arg2) {
+		super(3, 3, 0);
+		this.fast = IndicatorProcessor.checkPeriod(arg0);
+		this.slow = IndicatorProcessor.checkPeriod(arg1);
+		this.signal = IndicatorProcessor.checkPeriod(arg2);
+		if (this.fast >= this.slow) {
+			throw new IllegalArgumentException("Fast " + arg0 + " not less than slow " + arg1);
+		}
+	}
+
+	@Override
+	protected void update(long rate, long count, int stateBase, int historyBase, long[] output) {
+		long n = count + 1;
+
+		super.state[stateBase + FAST] = IndicatorProcessor.ema(super.state[stateBase + FAST], rate, this.fast, n);
+		super.state[stateBase + SLOW] = IndicatorProcessor.ema(super.state[stateBase + SLOW], rate, this.slow, n);
+
+		output[0] = TimePrice.NO_RATE;
+		output[1] = TimePrice.NO_RATE;
+		output[2] = TimePrice.NO_RATE;
+		if (n < this.slow) {
+			return;
+		}
+
+		double macd = super.state[stateBase + FAST] - super.state[stateBase + SLOW];
+		output[0] = Math.round(macd);
+
+		long signalN = n - this.slow + 1;
+		super.state[stateBase + SIGNAL] = IndicatorProcessor.ema(super.state[stateBase + SIGNAL], macd, this.signal, signalN);
+		if (signalN < this.signal) {
+			return;
+		}
+
+		output[1] = Math.round(super.state[stateBase + SIGNAL]);
+		output[2] = Math.round(macd - super.state[stateBase + SIGNAL]);
+	}
+
+}
@@ -0,0 +1,424 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Vertex;
+import com.hazelcast.jet.core.processor.SinkProcessors;
+import com.hazelcast.jet.datamodel.Tuple3;
+import com.hazelcast.jet.function.DistributedFunctions;
+import com.hazelcast.map.EntryProcessor;
+
+import lombok.extern.slf4j.Slf4j;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.MyConstants;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Builder class for a batch version of {@link MovingAverageDAG},
+ * to recalculate the moving averages, other indicators and alerts
+ * for all of history in one go.
+ * </p>
+ * <p>Input is a CSV file in the same format as the Kafka topic,
+ * such as "{@code btcusd.csv}", or what is on the Kafka topic
+ * when the job starts. Only {@code BTC/USD} is used. This is
+ * read in full when the job is built, so the job knows how
+ * many prices there are.
+ * </p>
+ * <p>The history is captured by the source vertex's supplier,
+ * so is serialized in the job's DAG and sent to every member.
+ * At 16 bytes a price this is fine for daily prices, tens of
+ * years is a few hundred KB. Much more, such as intraday ticks,
+ * would be better loaded to an {@link com.hazelcast.core.IMap IMap}
+ * and each chunk read from there by the source.
+ * </p>
+ * <p>The prices are split into as many consecutive chunks as
+ * there are processors across the cluster, and each chunk is
+ * worked on in parallel, from source to filter, by the same
+ * processors as the streaming job. The edges are isolated, so
+ * each processor instance only sees one chunk and the state
+ * for one chunk doesn't interfere with another.
+ * </p>
+ * <p>A chunk can't start cold, a 200 point average needs the
+ * 200 prices before. So each chunk starts with an overlap of
+ * prices from the end of the previous chunk, and output for the
+ * overlap is dropped. For the simple averages this needs the
+ * longest period and one more for the cross detector to compare
+ * with, and the result is exact.
+ * </p>
+ * <p>The exponential averages, MACD, RSI and the spike detector's
+ * volatility are seeded at the start of the overlap rather than
+ * the start of history, so are only approximately the same as
+ * the streaming job's. The overlap is sized from their periods
+ * so the seed's weight has decayed to below one part in a billion
+ * by the end of it, under one fixed-point unit at prices up to
+ * 100,000. See {@link #overlap()}.
+ * </p>
+ * <p>Output is to the same "{@code BTC/USD}", "{@code timeseries}"
+ * and "{@code alert}" maps. Chunks finish in any order, so the
+ * "{@code BTC/USD}" map is only updated with a price if it is the
+ * latest. Alerts aren't published to the topic, they are history.
+ * </p>
+ */
+@Slf4j
+public class MovingAverageBackfillDAG {
+
+	public static final String CLASSPATH_PREFIX = "classpath:";
+	public static final String FILE_PREFIX = "file:";
+
+	// Prices to warm up a chunk, exponential seeds decayed to this weight
+	private static final double SEED_WEIGHT = 1e-9;
+	private static final int OVERLAP = MovingAverageBackfillDAG.overlap();
+
+	private static final long KAFKA_POLL_MS = 1_000L;
+	private static final long KAFKA_READ_TIMEOUT_MS = 60_000L;
+
+	/**
+	 * <p>From top to bottom, the DAG graph can be visualised
+	 * as below, with an instance of vertices 1, 2, 3, 4 and 5
+	 * for each chunk of the history.
+	 * <pre>
+	 *                      +------------+
+	 *                      |1  History  |
+	 *                      |   Source   |
+	 *                      +------------+
+	 *                             |
+	 *                      +------------+
+	 *                      |2  Moving   |
+	 *                      |  Averages  |
+	 *                      | 1, 50, 200 |
+	 *                      +------------+
+	 *                       /           \
+	 *          +------------+            +------------+
+	 *          |3  Warm Up  |            |4   Cross   |
+	 *          |   Filter   |            |  Detector  |
+	 *          +------------+            +------------+
+	 *                |                          |
+	 *          +------------+            +------------+
+	 *          |6   Price   |            |5  Warm Up  |
+	 *          | Formatter  |            |   Filter   |
+	 *          +------------+            +------------+
+	 *            /        \                     |
+	 * +------------+  +------------+     +------------+
+	 * |7 Sink To   |  |8 Append To |     |9 Sink To   |
+	 * | "BTC/USD"  |  |"timeseries"|     |  "alert"   |
+	 * |  if later  |  |    map     |     |    map     |
+	 * +------------+  +------------+     +------------+
+	 * </pre>
+	 * <p>As for {@link MovingAverageDAG}, the other indicators are
+	 * one vertex fed from vertex 2, and go through their own filter
+	 * and formatter to vertices 7 and 8. The spike detector is fed
+	 * from vertex 1, through its own filter to vertex 9.
+	 * </p>
+	 *
+	 * @param source CSV file, "{@code classpath:}" or "{@code file:}", or Kafka connection info
+	 * @return A DAG to run as a Jet job
+	 * @throws IOException If the history can't be read
+	 */
+	public static DAG build(String source) throws IOException {
+		// History is prices, the streaming job's averages must be too to match
+		if (MovingAverageDAG.AVERAGE_INPUT != MovingAverageDAG.TICKS) {
+			throw new IllegalStateException("Backfill is over prices, streaming averages are over "
+					+ MovingAverageDAG.AVERAGE_INPUT + "ms candles");
+		}
+
+		PriceHistory priceHistory = MovingAverageBackfillDAG.load(source);
+		log.info("Read {} prices for {} from '{}'", priceHistory.size(), MovingAverageDAG.BTC_USD_NAME, source);
+
+		// Same on each member, assumes they are the same size
+		int parallelism = Runtime.getRuntime().availableProcessors();
+
+		DAG dag = new DAG();
+
+		// Each instance sends its chunk and overlap
+		Vertex historySource = dag.newVertex("History Source",
+				() -> new HistorySourceProcessor(priceHistory, OVERLAP))
+				.localParallelism(parallelism);
+
+		Vertex averages = dag.newVertex("Moving Averages",
+				() -> new TimeWindowAverageProcessor(MovingAverageDAG.GAP_FILL,
+						MovingAverageDAG.WINDOW_STEP_MS, MovingAverageDAG.PERIOD_DURATIONS_MS))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(historySource).to(averages).isolated());
+
+		Vertex averagesFilter = dag.newVertex("Moving Averages Warm Up Filter",
+				() -> new WarmUpFilterProcessor<TimePrices>(priceHistory, TimePrices::getTimestamp))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(averages).to(averagesFilter).isolated());
+
+		Vertex priceFormatter = dag.newVertex("Price Formatter",
+				() -> new PriceFormatterProcessor(MovingAverageDAG.BTC_USD, MovingAverageDAG.PERIOD_NAMES));
+		dag.edge(Edge.between(averagesFilter,priceFormatter));
+
+		// Save prices to IMaps, latest and history
+		Vertex priceSink = dag.newVertex("BTC/USD IMap Sink",
+				SinkProcessors.updateMapP(MyConstants.IMAP_NAME_BTC_USD,
+						DistributedFunctions.<String, TimePrice>entryKey(),
+						MovingAverageBackfillDAG::latest)
+				);
+		dag.edge(Edge.between(priceFormatter,priceSink));
+		Vertex timeSeriesSink = dag.newVertex("Time Series IMap Sink",
+				SinkProcessors.updateMapP(MyConstants.IMAP_NAME_TIME_SERIES,
+						MovingAverageDAG::timeSeriesKey,
+						MovingAverageDAG::timeSeriesAppend)
+				);
+		dag.edge(Edge.from(priceFormatter,1).to(timeSeriesSink));
+
+		// Crosses, including any on the first day of the chunk
+		Vertex crossDetector = dag.newVertex("Cross Detector",
+				() -> new CrossDetectorProcessor(MovingAverageDAG.PERIODS.length, MovingAverageDAG.RULES))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(averages,1).to(crossDetector).isolated());
+
+		Vertex alertFilter = dag.newVertex("Alert Warm Up Filter",
+				() -> new WarmUpFilterProcessor<Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>>
+					(priceHistory, MovingAverageBackfillDAG::alertTimestamp))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(crossDetector).to(alertFilter).isolated());
+
+		Vertex alertMapSink = dag.newVertex("Alert IMap Sink",
+				SinkProcessors.writeMapP(MyConstants.IMAP_NAME_ALERT)
+				);
+		dag.edge(Edge.between(alertFilter,alertMapSink));
+
+		// Price spikes, to the same map
+		Vertex spikeDetector = dag.newVertex("Spike Detector",
+				() -> new SpikeDetectorProcessor(MovingAverageDAG.SPIKE_NAME,
+						MovingAverageDAG.SPIKE_PERIOD, MovingAverageDAG.SPIKE_THRESHOLD))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(historySource,1).to(spikeDetector).isolated());
+
+		Vertex spikeFilter = dag.newVertex("Spike Warm Up Filter",
+				() -> new WarmUpFilterProcessor<Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>>
+					(priceHistory, MovingAverageBackfillDAG::alertTimestamp))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(spikeDetector).to(spikeFilter).isolated());
+		dag.edge(Edge.from(spikeFilter).to(alertMapSink,1));
+
+		// Other indicators, in one vertex from the averages, saved to the same IMaps
+		Vertex indicators = dag.newVertex("Indicators", MovingAverageDAG::indicators)
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(averages,2).to(indicators).isolated());
+
+		Vertex indicatorsFilter = dag.newVertex("Indicators Warm Up Filter",
+				() -> new WarmUpFilterProcessor<TimePrices>(priceHistory, TimePrices::getTimestamp))
+				.localParallelism(parallelism);
+		dag.edge(Edge.from(indicators).to(indicatorsFilter).isolated());
+
+		Vertex indicatorsFormatter = dag.newVertex("Indicators Formatter",
+				() -> new PriceFormatterProcessor(MovingAverageDAG.BTC_USD, MovingAverageDAG.INDICATOR_NAMES));
+		dag.edge(Edge.between(indicatorsFilter,indicatorsFormatter));
+		dag.edge(Edge.from(indicatorsFormatter).to(priceSink,1));
+		dag.edge(Edge.from(indicatorsFormatter,1).to(timeSeriesSink,1));
+
+		return dag;
+	}
+
+	/**
+	 * <p>Save a formatted price, unless there is a later one.
+	 * </p>
+	 */
+	public static EntryProcessor<String, TimePrice> latest(Entry<String, TimePrice> entry) {
+		return new LatestTimePriceEntryProcessor(entry.getValue());
+	}
+
+	/**
+	 * <p>The time of an alert, the day of the cross.
+	 * </p>
+	 */
+	public static long alertTimestamp(Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>> entry) {
+		return TimePrice.toTimestamp(entry.getKey().f0());
+	}
+
+	/**
+	 * <p>Read all {@code BTC/USD} prices, in time order. If the
+	 * same time occurs more than once, the last read is kept.
+	 * </p>
+	 *
+	 * @param source As for {@link #build(String)}
+	 * @return Possibly empty
+	 * @throws IOException If the history can't be read
+	 */
+	static PriceHistory load(String source) throws IOException {
+		List<CurrencyPairValue> values;
+		if (source.startsWith(CLASSPATH_PREFIX) || source.startsWith(FILE_PREFIX)) {
+			values = MovingAverageBackfillDAG.readCsv(source);
+		} else {
+			values = MovingAverageBackfillDAG.readKafka(source);
+		}
+
+		// Stable, so duplicates stay in the order read
+		values.sort(Comparator.comparingLong(CurrencyPairValue::getTimestamp));
+
+		long[] timestamps = new long[values.size()];
+		long[] rates = new long[values.size()];
+		int size = 0;
+		for (CurrencyPairValue value : values) {
+			if (size > 0 && timestamps[size - 1] == value.getTimestamp()) {
+				size--;
+			}
+			timestamps[size] = value.getTimestamp();
+			rates[size] = value.getRate();
+			size++;
+		}
+
+		return new PriceHistory(MovingAverageDAG.BTC_USD,
+				Arrays.copyOf(timestamps, size), Arrays.copyOf(rates, size));
+	}
+
+	/**
+	 * <p>How many prices before a chunk to send, so the state at
+	 * the start of the chunk is as if it had run from the start.
+	 * </p>
+	 * <p>The simple averages and Bollinger bands need their period,
+	 * plus one for the cross detector. Where a value is updated
+	 * as {@code previous * retained + new * (1 - retained)}, the
+	 * seed's weight after {@code n} more prices is
+	 * {@code retained^n}, so the seeding period is followed by
+	 * enough prices for that to fall below {@link #SEED_WEIGHT}.
+	 * The MACD signal is seeded from the MACD, so needs both.
+	 * </p>
+	 */
+	static int overlap() {
+		int overlap = MovingAverageDAG.PERIODS[MovingAverageDAG.PERIODS.length - 1] + 1;
+		overlap = Math.max(overlap, MovingAverageDAG.BOLLINGER_PERIOD);
+
+		for (int period : MovingAverageDAG.EMA_PERIODS) {
+			overlap = Math.max(overlap, MovingAverageBackfillDAG.emaWarmUp(period));
+		}
+		overlap = Math.max(overlap, MovingAverageBackfillDAG.emaWarmUp(MovingAverageDAG.MACD_SLOW)
+				+ MovingAverageBackfillDAG.emaWarmUp(MovingAverageDAG.MACD_SIGNAL));
+		// On changes, so one more price
+		overlap = Math.max(overlap, 1 + MovingAverageBackfillDAG.emaWarmUp(MovingAverageDAG.SPIKE_PERIOD));
+		// Wilder's smoothing, weight 1 / period
+		overlap = Math.max(overlap, 1 + MovingAverageDAG.RSI_PERIOD
+				+ MovingAverageBackfillDAG.decay((MovingAverageDAG.RSI_PERIOD - 1d) / MovingAverageDAG.RSI_PERIOD));
+
+		return overlap;
+	}
+
+	/**
+	 * <p>Prices to seed an exponential average and then for the
+	 * seed to decay, the previous value keeping weight
+	 * {@code 1 - 2 / (period + 1)} each time.
+	 * </p>
+	 */
+	private static int emaWarmUp(int period) {
+		return period + MovingAverageBackfillDAG.decay((period - 1d) / (period + 1d));
+	}
+
+	/**
+	 * <p>How many updates for a weight to fall below {@link #SEED_WEIGHT}.
+	 * </p>
+	 */
+	private static int decay(double retained) {
+		return (int) Math.ceil(Math.log(SEED_WEIGHT) / Math.log(retained));
+	}
+
+	/**
+	 * <p>Read a CSV file with the same lines as the Kafka topic, such
+	 * as "{@code 2018-11-07,1234}". Lines starting "{@code #}" are skipped.
+	 * </p>
+	 */
+	private static List<CurrencyPairValue> readCsv(String source) throws IOException {
+		InputStream inputStream;
+		if (source.startsWith(CLASSPATH_PREFIX)) {
+			inputStream = MovingAverageBackfillDAG.class.getClassLoader()
+					.getResourceAsStream(source.substring(CLASSPATH_PREFIX.length()));
+			if (inputStream == null) {
+				throw new FileNotFoundException(source);
+			}
+		} else {
+			inputStream = new FileInputStream(source.substring(FILE_PREFIX.length()));
+		}
+
+		CurrencyPairValue.CurrencyPairValueDeserializer deserializer = new CurrencyPairValue.CurrencyPairValueDeserializer();
+		List<CurrencyPairValue> result = new ArrayList<>();
+
+		try (InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+				BufferedReader bufferedReader = new BufferedReader(inputStreamReader)) {
+			String line;
+			while ((line = bufferedReader.readLine()) != null) {
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					result.add(deserializer.deserialize(source, line.getBytes(StandardCharsets.UTF_8)));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>Read the "{@code fx}" Kafka topic from the start of each
+	 * partition up to where it has got to now. Anything written
+	 * after this starts is left for the streaming job.
+	 * </p>
+	 * <p>If that isn't done within a time limit, such as when the
+	 * brokers are down, fail rather than hang the command.
+	 * </p>
+	 */
+	private static List<CurrencyPairValue> readKafka(String bootstrapServers) throws IOException {
+		Properties properties = new Properties();
+		properties.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
+		properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+		properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+
+		List<CurrencyPairValue> result = new ArrayList<>();
+
+		try (KafkaConsumer<CurrencyPairKey, CurrencyPairValue> kafkaConsumer =
+				new KafkaConsumer<>(properties,
+						new CurrencyPairKey.CurrencyPairKeyDeserializer(),
+						new CurrencyPairValue.CurrencyPairValueDeserializer())) {
+			List<TopicPartition> topicPartitions =
+					kafkaConsumer.partitionsFor(MyConstants.KAFKA_TOPIC_NAME_FX).stream()
+					.map(partitionInfo -> new TopicPartition(partitionInfo.topic(), partitionInfo.partition()))
+					.collect(Collectors.toList());
+
+			kafkaConsumer.assign(topicPartitions);
+			kafkaConsumer.seekToBeginning(topicPartitions);
+			Map<TopicPartition, Long> endOffsets = kafkaConsumer.endOffsets(topicPartitions);
+
+			long deadline = System.currentTimeMillis() + KAFKA_READ_TIMEOUT_MS;
+			while (topicPartitions.stream()
+					.anyMatch(topicPartition -> kafkaConsumer.position(topicPartition) < endOffsets.get(topicPartition))) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Topic '" + MyConstants.KAFKA_TOPIC_NAME_FX + "' not read to "
+							+ endOffsets + " within " + KAFKA_READ_TIMEOUT_MS + "ms");
+				}
+				for (ConsumerRecord<CurrencyPairKey, CurrencyPairValue> record : kafkaConsumer.poll(KAFKA_POLL_MS)) {
+					long endOffset = endOffsets.get(new TopicPartition(record.topic(), record.partition()));
+					if (record.offset() < endOffset && MovingAverageDAG.BTC_USD.equals(record.key())) {
+						result.add(record.value());
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+}
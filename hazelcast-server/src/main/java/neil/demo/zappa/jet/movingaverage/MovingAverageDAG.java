@@ -1,11 +1,7 @@
 package neil.demo.zappa.jet.movingaverage;
 
-import com.hazelcast.jet.aggregate.AggregateOperation;
-import com.hazelcast.jet.aggregate.AggregateOperation2;
 import com.hazelcast.jet.core.DAG;
 import com.hazelcast.jet.core.Edge;
-import com.hazelcast.jet.core.SlidingWindowPolicy;
-import com.hazelcast.jet.core.TimestampKind;
 import com.hazelcast.jet.core.Vertex;
 import com.hazelcast.jet.core.WatermarkEmissionPolicy;
 import com.hazelcast.jet.core.WatermarkGenerationParams;
@@ -13,25 +9,26 @@ import com.hazelcast.jet.core.WatermarkPolicies;
 import com.hazelcast.jet.core.processor.DiagnosticProcessors;
 import com.hazelcast.jet.core.processor.Processors;
 import com.hazelcast.jet.core.processor.SinkProcessors;
-import com.hazelcast.jet.datamodel.TimestampedEntry;
-import com.hazelcast.jet.datamodel.Tuple2;
 import com.hazelcast.jet.function.DistributedFunction;
-import com.hazelcast.jet.function.DistributedFunctions;
-import com.hazelcast.jet.function.DistributedToLongFunction;
 import com.hazelcast.jet.kafka.KafkaProcessors;
+import com.hazelcast.map.EntryProcessor;
+import neil.demo.zappa.Candle;
 import neil.demo.zappa.CurrencyPairKey;
 import neil.demo.zappa.CurrencyPairValue;
 import neil.demo.zappa.MyConstants;
 import neil.demo.zappa.TimePrice;
+import neil.demo.zappa.TimeSeries;
+import neil.demo.zappa.TimeSeriesBlock;
+import neil.demo.zappa.TimeSeriesKey;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 
-import java.math.BigDecimal;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * <p>Builder class to construct a <I><b>D</b>irected <b>A</b>cyclic <b>G</b>raph</i>.
@@ -48,16 +45,86 @@ import java.util.UUID;
  * <p>The latter case, the average of "1" is just another way to load
  * the latest value.
  * </p>
+ * <p>Alongside these, other technical indicators are calculated
+ * from the same prices, exponential moving averages, MACD, RSI
+ * and Bollinger bands. Prices are also summarised into candles,
+ * by the second, minute, five minutes and hour. Each price is
+ * also checked for a spike, a change far outside the recent
+ * volatility, alerted in the same way as a cross.
+ * </p>
  */
 public class MovingAverageDAG {
 
-    private static final int ONE_DAY_IN_MS = 24 * 60 * 60 * 1000;
-    private static final int TWO_DAYS_IN_MS = 2 * ONE_DAY_IN_MS;
+    // Periods to average over, and where each is found in the output
+    static final int[] PERIODS = { 1, 50, 200 };
+    static final String[] PERIOD_NAMES = {
+    		MyConstants.KEY_CURRENT, MyConstants.KEY_50_POINT, MyConstants.KEY_200_POINT };
+    static final int INDEX_CURRENT = 0;
+    private static final int INDEX_50_POINT = 1;
+    private static final int INDEX_200_POINT = 2;
+
+    // Prices are daily, a missed day taking the day before's price
+    static final long PRICE_STEP_MS = 24 * 60 * 60 * 1000L;
+    static final GapFill GAP_FILL = GapFill.PREVIOUS;
+
+    // Candle sizes, each a multiple of the one before, and their names
+    private static final long[] CANDLE_RESOLUTIONS = { 1_000L, 60_000L, 300_000L, 3_600_000L };
+    private static final String[] CANDLE_NAMES = {
+    		"1s", "1m", "5m", MyConstants.CANDLE_CHART_RESOLUTION };
+
+    /* What the averages, and the indicators after them, are over. Either
+     * prices as they arrive, or the closing prices of candles of one of
+     * the resolutions above. A period is that many steps, so with candles
+     * the "50 Point" average is over the last 50 candles.
+     */
+    static final long TICKS = 0L;
+    static final long AVERAGE_INPUT = TICKS;
+    static final long WINDOW_STEP_MS = (AVERAGE_INPUT == TICKS ? PRICE_STEP_MS : AVERAGE_INPUT);
+    static final long[] PERIOD_DURATIONS_MS =
+    		Arrays.stream(PERIODS).mapToLong(period -> period * WINDOW_STEP_MS).toArray();
+
+    // Other indicators, with the names of their outputs
+    static final int[] EMA_PERIODS = { 12, 26 };
+    static final String[] EMA_NAMES = {
+    		MyConstants.KEY_EMA_12, MyConstants.KEY_EMA_26 };
+    static final int MACD_FAST = 12;
+    static final int MACD_SLOW = 26;
+    static final int MACD_SIGNAL = 9;
+    static final String[] MACD_NAMES = {
+    		MyConstants.KEY_MACD, MyConstants.KEY_MACD_SIGNAL, MyConstants.KEY_MACD_HISTOGRAM };
+    static final int RSI_PERIOD = 14;
+    static final String[] RSI_NAMES = {
+    		MyConstants.KEY_RSI_14 };
+    static final int BOLLINGER_PERIOD = 20;
+    static final double BOLLINGER_WIDTH = 2.0;
+    static final String[] BOLLINGER_NAMES = {
+    		MyConstants.KEY_BOLLINGER_MIDDLE, MyConstants.KEY_BOLLINGER_UPPER, MyConstants.KEY_BOLLINGER_LOWER };
+    static final String[] INDICATOR_NAMES =
+    		Stream.of(EMA_NAMES, MACD_NAMES, RSI_NAMES, BOLLINGER_NAMES)
+    		.flatMap(Arrays::stream).toArray(String[]::new);
+
+    // Which averages to look for crosses in
+    static final CrossoverRule[] RULES = {
+    		new CrossoverRule("50/200", INDEX_50_POINT, INDEX_200_POINT) };
 
+    // Price changes this many standard deviations from usual are spikes
+    static final String SPIKE_NAME = "Z-Score 4";
+    static final int SPIKE_PERIOD = 50;
+    static final double SPIKE_THRESHOLD = 4.0;
+
+    // Prices are in date order per Kafka partition, most partitions are unused
+    private static final long WATERMARK_LAG_MS = 0L;
+    private static final long IDLE_PARTITION_TIMEOUT_MS = 10_000L;
+
+    // Only this currency pair is saved to the maps
+    static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+    static final String BTC_USD_NAME = BTC_USD.getBase() + "/" + BTC_USD.getQuote();
+
+    // Kafka's record isn't serializable, only key and value go on from the source
     private static final DistributedFunction
     	<ConsumerRecord<CurrencyPairKey, CurrencyPairValue>,
-    	ConsumerRecord<CurrencyPairKey, CurrencyPairValue>>
-    	NO_KAFKA_PROJECTION_FILTER = DistributedFunctions.wholeItem();
+    	Entry<CurrencyPairKey, CurrencyPairValue>>
+    	KAFKA_PROJECTION_FN = record -> new SimpleImmutableEntry<>(record.key(), record.value());
 
     private static String MY_KAFKA_KEY_DESERIALIZER_CLASS_NAME = 
     		CurrencyPairKey.class.getCanonicalName()
@@ -75,55 +142,63 @@ public class MovingAverageDAG {
 	 *                      | "currency" |
 	 *                      |    topic   |
 	 *                      +------------+
+	 *                             |
+	 *                             |
+	 *                             |
+	 *                             |
+	 *                      +------------+
+	 *                      |2  Moving   |
+	 *                      |  Averages  |
+	 *                      | 1, 50, 200 |
+	 *                      +------------+
 	 *                     /       |      \
 	 *                    /        |       \
 	 *                   /         |        \
 	 *                  /          |         \
 	 *    +------------+    +------------+    +------------+     
-	 *    |2  Moving   |    |3  Moving   |    |4  Moving   |
-	 *    |  Average   |    |  Average   |    |  Average   |
-	 *    |   Of 1     |    |   Of 50    |    |   Of 200   |
-	 *    +------------+    +------------+    +------------+     
-	 *          |       \          |      \  /       |
-	 *          |        \         |       \/        |
-	 *          |         \        |       /\        |
-	 *          |          \       |      /  \       |
-	 *    +------------+    +------------+    +------------+     
-	 *    |5   Sink    |    |6   Price   |    |7   Co-     |
-	 *    |     To     |    |  Formatter |    |   Grouper  |
+	 *    |3   Sink    |    |4   Price   |    |5   Cross   |
+	 *    |     To     |    |  Formatter |    |  Detector  |
 	 *    | SystemOut  |    |            |    |            |
 	 *    +------------+    +------------+    +------------+    
-	 *                             |                 |
-	 *                             |                 |
-	 *                             |                 |
-	 *                             |                 |
-	 *                      +------------+    +------------+      
-	 *                      |8 Sink To   |    |9  Group    |
-	 *                      | "BTC/USD"  |    |  Filter    |
-	 *                      |     map    |    |            |
-	 *                      +------------+    +------------+     
-	 *                                               |
-	 *                                               |
-	 *                                               |
-	 *                                               |
-	 *                                        +------------+      
-	 *                                        |10  Cross   |
-	 *                                        |  Detector  |
-	 *                                        |            |
-	 *                                        +------------+     
-	 *                                               |      \
-	 *                                               |       \
-	 *                                               |        \
-	 *                                               |         \
-	 *                                        +------------+    +------------+      
-	 *                                        |11 Sink To  |    |12 Sink To  |
-	 *                                        |   "alert"  |    |  "alert"   |
-	 *                                        |    topic   |    |    map     |
-	 *                                        +------------+    +------------+     
+	 *                             |                 |      \
+	 *                             |                 |       \
+	 *                             |                 |        \
+	 *                             |                 |         \
+	 *                      +------------+    +------------+    +------------+      
+	 *                      |6 Sink To   |    |7  Sink To  |    |8  Sink To  |
+	 *                      | "BTC/USD"  |    |   "alert"  |    |  "alert"   |
+	 *                      |     map    |    |    topic   |    |    map     |
+	 *                      +------------+    +------------+    +------------+     
+	 *                             |
+	 *                             |
+	 *                      +------------+
+	 *                      |9  Append   |
+	 *                      |     To     |
+	 *                      |"timeseries"|
+	 *                      +------------+
 	 * </pre>
 	 * <p>The numbered boxes represent the vertices of the graph, and the
 	 * lines the edges between them for data flow.
 	 * </p>
+	 * <p>Not shown are the other technical indicators. These are
+	 * all calculated by one vertex, fed from vertex 2 on a local
+	 * edge partitioned by currency pair, using the current price
+	 * from its output. So they share its handling of duplicate,
+	 * late and missing prices, and prices only cross one edge from
+	 * vertex 1 for all the averages and indicators. The output goes
+	 * through its own price formatter to vertices 6 and 9.
+	 * See {@link CombinedIndicatorProcessor}.
+	 * </p>
+	 * <p>Also not shown are candles. A {@link CandleProcessor} vertex
+	 * is fed from vertex 1 in the same way, and the latest candle
+	 * for each currency pair and resolution is saved to the
+	 * "{@code candle}" map.
+	 * </p>
+	 * <p>Vertex 2 can instead be fed the candles of one resolution,
+	 * set by {@link #AVERAGE_INPUT}, so the averages and indicators
+	 * are over bars rather than prices. The candles are then the
+	 * input to vertex 2 in place of vertex 1.
+	 * </p>
 	 * <ul>
 	 * <li><b>1. Source Kafka</b>
 	 * <p>This vertex is a Kafka Processor, reading continuously from
@@ -131,40 +206,41 @@ public class MovingAverageDAG {
 	 * <p>Jet provides a Kafka reader so we use this rather than
 	 * write out own. Kafka needs connection properties, and
 	 * deserializers to turn the topic data into Java entries.</p>
-	 * <p>Each data record read in is sent once each in parallel to
-	 * vertices 2, 3 and 4.</p>
+	 * <p>Each data record read in is sent once to vertex 2, as a
+	 * key/value entry. Kafka's own record class isn't serializable,
+	 * so can't cross the partitioned edges to other members.</p>
+	 * <p>Watermarks, how far event time has got, are generated
+	 * here from the day on each price, separately for each Kafka
+	 * partition and merged by Jet. Only one partition has prices,
+	 * so a partition with nothing to read for a while is treated as
+	 * idle and doesn't hold back event time for the rest.</p>
 	 * <p>It doesn't receive any data from other vertices, it is the
 	 * start of the graph so the "<i>source</i>" of data.
 	 * </p>
 	 * </li>
-	 * <li><b>2. Average of 1</b>
-	 * <p>This vertex is an instance of the {@link MovingAverageProcessor}
-	 * class, configured with an averaging window of 1.</p>
-	 * <p>This vertex calculates the average of each single item of
-	 * input to produce a single item of output.</p>
-	 * <p>So "{@code outputItem == inputItem / 1}".</p>
-	 * <p>Mathematically, this is a {@code no-op}. But we do it this
+	 * <li><b>2. Moving Averages</b>
+	 * <p>This vertex is an instance of the {@link TimeWindowAverageProcessor}
+	 * class, configured with averaging windows of 1, 50 and 200 days.
+	 * It keeps one history of input per currency pair, long enough for the
+	 * longest window, and produces one output item holding all three averages.
+	 * A day with no price counts as the day before's price, a price sent
+	 * twice for a day replaces the first, so a window of 50 is always 50 days.</p>
+	 * <p>The average of 1 calculates the average of each single item of
+	 * input to produce a single item of output.
+	 * So "{@code outputItem == inputItem / 1}".
+	 * Mathematically, this is a {@code no-op}. But we do it this
 	 * way to get an output feed of un-averaged prices in the exact
 	 * same format as the output feed of averaged prices.
 	 * </p>
+	 * <p>For the average of 50, when the 50th item of input has been
+	 * received, the first average is produced, the average of days 1 to 50.
+	 * When the 51st item of input has been received, the second
+	 * average is produced, the average of days 2 to 51. And so on.</p>
+	 * <p>The average of 200 is the same calculation of course, but it won't
+	 * be produced until 200 input items are read. Until then that
+	 * part of the output is empty.</p>
 	 * </li>
-	 * <li><b>3. Average of 50</b>
-	 * <p>This vertex is an instance of the {@link MovingAverageProcessor}
-	 * class, configured with an averaging window of 50.</p>
-	 * <p>When the 50th item of input has been received, the first
-	 * item of output is produced, the average of days 1 to 50.</p>
-	 * <p>When the 51st item of input has been received, the second
-	 * item of output is produced, the average of days 2 to 51.</p>
-	 * <p>When the 52nd item of input has been received, the third
-	 * item of output is produced, the average of days 3 to 52.</p>
-	 * </li>
-	 * <li><b>4. Average of 200</b>
-	 * <p>This vertex is an instance of the {@link MovingAverageProcessor}
-	 * class, configured with an averaging window of 200.</p>
-	 * <p>The averaging calculation is the same of course, but it won't
-	 * produce any output until 200 input items are read.</p>
-	 * </li>
-	 * <li><b>5. Sink Logger</b>
+	 * <li><b>3. Sink Logger</b>
 	 * <p>This job takes an input feed from vertex 2, and uses
 	 * one of the provided convenience classes to log the input
 	 * to the screen.</p>
@@ -178,52 +254,39 @@ public class MovingAverageDAG {
 	 * to the next stage.
 	 * </p>
 	 * </li>
-	 * <li><b>6. Price Formatter</b>
-	 * <p>Earlier vertices produce three streams of prices ; the
+	 * <li><b>4. Price Formatter</b>
+	 * <p>The earlier vertex produces three prices at a time ; the
 	 * current price, the average of the last 50 and the average
 	 * of the last 200.
 	 * </p>
-	 * <p>This stage reads from all three of these streams,
-	 * and reformats the output slightly, suitable for saving
-	 * in an {@link java.util.Map} (that will actually be a
+	 * <p>This stage splits these, and reformats the output slightly,
+	 * suitable for saving in an {@link java.util.Map} (that will actually be a
 	 * {@link com.hazelcast.core.IMap}.
 	 * </p>
-	 * <li><b>7. Co-Grouper</b>
-	 * <p>This vertex does a join on two infinite streams,
-	 * as it is only fed a <b>*</b><i>window</i><b>*</b>
-	 * of data from each stream.
-     * </p>
-	 * <p>So what it gets in are a few points in the same time
-	 * range from ordinal 0 (the 50 point average) and ordinal 1
-	 * (the 200 point average) and produces a single data object
-	 * holding the combination of these, to make life easier
-	 * for later stages.
-     * </p>
-	 * <p>Remember these are sliding windows on an infinite
-	 * stream. You have to place windows over the stream as
-	 * you can't wait for it to end (it's infinite!).
+	 * </li>
+	 * <li><b>5. Cross Detector</b>
+	 * <p>This is the key vertex as far as this demo goes,
+	 * it's the one that actually detects crosses in the moving
+	 * averages.</p>
+	 * <p>It gets in a feed of all the moving averages, and
+	 * remembers the previous day's per currency pair. It is
+	 * configured with rules of which averages to compare, here
+	 * just the 50 point against the 200 point. The logic is pretty
+	 * simple, if they cross since the previous day, produce an alert.</p>
+	 * <p>If the 50 point is heading upwards and the 200 points
+	 * is headed downwards, or the other way round, then they
+	 * can cross. See the {@link CrossDetectorProcessor} class
+	 * for details of what this <b>*</b>might<b>*</b> suggest.
 	 * </p>
-	 * <p>The windows here are time based. The same data
-	 * may appear in more than one window. Here the window
-	 * spans two days and advances by one day. So a 
-	 * window will contain Monday and Tuesday data. The next
-	 * window will contain Tuesday and Wednesday, and the
-	 * Tuesday in this window is the same as the Tuesday
-	 * in the previous window.
-     * </p>
-	 * <p>Data in the window may be incomplete. The 50 point
-	 * moving average will start producing data after 50
-	 * days, the 200 point after 200 days. So in the window
-	 * covering days 61 and 62 there will input on ordinal 0
-	 * and not on ordinal 1, so this input is incomplete
-	 * and so on these days the output is incomplete.
-	 * Vertex 9 to the rescue here.
-     * </p>
-     * </li>
-	 * <li><b>8. Sink To "{@code BTC/USD}" Map</b>
-	 * <p>This takes the input from the price combiner vertex, and
+	 * <p>Input is partitioned by currency pair, so this
+	 * can run with as many instances as there are CPUs.
+	 * </p>
+	 * </li>
+	 * <li><b>6. Sink To "{@code BTC/USD}" Map</b>
+	 * <p>This takes the input from the price formatter vertex, and
 	 * sends the output to the {@link com.hazelcast.core.IMap IMap}"
-	 * named "{@code Price}".</p>
+	 * named "{@code BTC/USD}". Only the {@code BTC/USD} currency pair
+	 * is saved here.</p>
 	 * <p>This is a "<i>sink</i>" as the data that goes into thie
 	 * graph vertex doesn't go onwards through another edge.
 	 * </p>
@@ -234,30 +297,11 @@ public class MovingAverageDAG {
 	 * the Jet job into the value already present in the map,
 	 * although this can be done too if needed.
 	 * </p>
-	 * <li><b>9. Group Filter</b>
-	 * <p>The previous vertex, the {@code Co-Grouper}, can
-	 * produce incomplete output (if it has incomplete input!).
-	 * We don't want these for the next stage, so filter them
-	 * out.
-     * </p>
-     * <p>This could be coded using a {@link com.hazelcast.jet.core.Processor Processor}
-     * but here just embewd it as a lambda for ease.
-     * </p>
-     * </li>
-	 * <li><b>10. Cross Detector</b>
-	 * <p>This is the key vertex as far as this demo goes,
-	 * it's the one that actually detects crosses in the moving
-	 * averages.</p>
-	 * <p>As it gets in a feed of 50 point and 200 point moving
-	 * averages the logic is pretty simple. If they cross, produce
-	 * an alert.</p>
-	 * <p>If the 50 point is heading upwards and the 200 points
-	 * is headed downwards, or the other way round, then they
-	 * can cross. See the {@link CrossDetectorProcessor} class
-	 * for details of what this <b>*</b>might<b>*</b> suggest.
+	 * <p>So this map only has the latest of each price, a few
+	 * entries. The history is kept by vertex 9.
 	 * </p>
 	 * </li>
-	 * <li><b>11. Sink To "{@code alert}" Topic</b>
+	 * <li><b>7. Sink To "{@code alert}" Topic</b>
 	 * <p>Potentially the {@code Cross Detector} may find
 	 * a cross of the direction that the 50 point and 200 point
 	 * moving averages are headed, and if so it produces a
@@ -269,7 +313,7 @@ public class MovingAverageDAG {
 	 * feel appropriate.
 	 * </p>
 	 * </li>
-	 * <li><b>12. Sink To "{@code alert}" Map</b>
+	 * <li><b>8. Sink To "{@code alert}" Map</b>
 	 * <p>The previous vertex publishes the alert to
 	 * to a {@link com.hazelcast.core.ITopic ITopic}
 	 * for real-time reactive purposes. This vertex
@@ -281,53 +325,78 @@ public class MovingAverageDAG {
 	 * event, but since you can event listeners on
 	 * an {@link com.hazelcast.core.IMap IMap} you could
 	 * do reactive processing here too.
+	 * </li>
+	 * <li><b>9. Append To "{@code timeseries}" Map</b>
+	 * <p>The same prices as vertex 6 are also appended to the
+	 * history in the "{@code timeseries}" {@link com.hazelcast.core.IMap IMap}.
+	 * This is keyed by currency pair, price name and month, so
+	 * each month of each price is a separate entry in its own
+	 * partition, and a range of dates can be fetched by key. See
+	 * {@link TimeSeries}.
+	 * </p>
+	 * <p>Appending uses a {@link TimeSeriesAppendEntryProcessor},
+	 * sending only the new price to where the month's entry is.
+	 * </p>
+	 * </li>
 	 * </ul>
 	 * 
 	 * @param bootstrapServers Kafka connection info
 	 * @return A DAG to run as a Jet job
 	 */
 	public static DAG build(String bootstrapServers) {
-        Properties properties = new Properties();
-        properties.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
-        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, MY_KAFKA_KEY_DESERIALIZER_CLASS_NAME);
-        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, MY_KAFKA_VALUE_DESERIALIZER_CLASS_NAME);
-        
         DAG dag = new DAG();
         
-        // Use a built-in processor to read from Kafka
-        Vertex kafka = dag.newVertex("Kafka Source",
-                KafkaProcessors.streamKafkaP(properties, 
-                		NO_KAFKA_PROJECTION_FILTER,
-                		WatermarkGenerationParams.noWatermarks(), 
-                		MyConstants.KAFKA_TOPIC_NAME_FX)
-                )
-                ;
+        Vertex kafka = MovingAverageDAG.kafkaSource(dag, bootstrapServers);
 
-        // Create three processors for moving averages
-        Vertex averageOf1 = dag.newVertex("Average of 1", () -> new MovingAverageProcessor(1));
-        Vertex averageOf50 = dag.newVertex("Average of 50", () -> new MovingAverageProcessor(50));
-        Vertex averageOf200 = dag.newVertex("Average of 200", () -> new MovingAverageProcessor(200));
+        // Candles at all resolutions from one vertex, the latest saved to an IMap
+        Vertex candles = dag.newVertex("Candles", () -> new CandleProcessor(CANDLE_RESOLUTIONS));
+        dag.edge(Edge.from(kafka,0).to(candles)
+        		.distributed().partitioned(MovingAverageDAG.currencyPairKey()));
+        Vertex candleFormatter = dag.newVertex("Candle Formatter",
+        		Processors.mapP(MovingAverageDAG::candleEntry));
+        dag.edge(Edge.between(candles,candleFormatter));
+        Vertex candleSink = dag.newVertex("Candle IMap Sink",
+        		SinkProcessors.writeMapP(MyConstants.IMAP_NAME_CANDLE)
+        		);
+        dag.edge(Edge.between(candleFormatter,candleSink));
+
+        // One processor for all the moving averages, sharing the price history
+        Vertex averages = dag.newVertex("Moving Averages", () -> new TimeWindowAverageProcessor(GAP_FILL, WINDOW_STEP_MS, PERIOD_DURATIONS_MS));
+
+        if (AVERAGE_INPUT == TICKS) {
+            /* Feed the output from Kafka into the average calculator, once.
+             * Distributed so each currency pair goes to the member that owns it,
+             * which is also where its state is restored from a snapshot.
+             */
+            dag.edge(Edge.from(kafka,2).to(averages)
+            		.distributed().partitioned(MovingAverageDAG.currencyPairKey()));
+        } else {
+            if (Arrays.stream(CANDLE_RESOLUTIONS).noneMatch(resolution -> resolution == AVERAGE_INPUT)) {
+            	throw new IllegalStateException("Average input " + AVERAGE_INPUT + " not a candle resolution "
+            			+ Arrays.toString(CANDLE_RESOLUTIONS));
+            }
 
-        // Feed the output from Kafka into the average calculators
-        dag.edge(Edge.from(kafka,0).to(averageOf1)
-        		.partitioned(MovingAverageDAG.currencyPairKey()));
-        dag.edge(Edge.from(kafka,1).to(averageOf50)
-        		.partitioned(MovingAverageDAG.currencyPairKey()));
-        dag.edge(Edge.from(kafka,2).to(averageOf200)
-        		.partitioned(MovingAverageDAG.currencyPairKey()));
+            /* Or feed the candles of the chosen resolution. Already on the member
+             * that owns the currency pair, so local, and partitioned so each pair's
+             * candles stay in order.
+             */
+            Vertex candleFilter = dag.newVertex("Averages Candle Filter",
+            		Processors.filterP((Candle candle) -> candle.getDuration() == AVERAGE_INPUT));
+            dag.edge(Edge.from(candles,1).to(candleFilter)
+            		.partitioned((DistributedFunction<Candle, CurrencyPairKey>) Candle::getKey));
+            dag.edge(Edge.between(candleFilter,averages)
+            		.partitioned((DistributedFunction<Candle, CurrencyPairKey>) Candle::getKey));
+        }
         
-        // Print the averageOf1 (the current price) to the screen
+        // Print the averages to the screen
         Vertex logSink = dag.newVertex("Log Sink", 
         		DiagnosticProcessors.writeLoggerP(item -> new String("*** " + item + " ***")));
-        dag.edge(Edge.from(averageOf1,0).to(logSink));
+        dag.edge(Edge.from(averages,0).to(logSink));
         
         // Reformat the prices
-        Vertex priceFormatter = dag.newVertex("Price Combiner", PriceFormatterProcessor::new);
-        dag.edge(Edge.from(averageOf1,1).to(priceFormatter,0));
-        dag.edge(Edge.from(averageOf50,0).to(priceFormatter,1));
-        dag.edge(Edge.from(averageOf200,0).to(priceFormatter,2));
+        Vertex priceFormatter = dag.newVertex("Price Formatter",
+        		() -> new PriceFormatterProcessor(BTC_USD, PERIOD_NAMES));
+        dag.edge(Edge.from(averages,1).to(priceFormatter));
         
         // Save prices to an IMap
         Vertex priceSink = dag.newVertex("BTC/USD IMap Sink",
@@ -335,79 +404,33 @@ public class MovingAverageDAG {
         		);
         dag.edge(Edge.between(priceFormatter,priceSink));
         
-        /* Defines two days of data in a window, advancing one day at a time.
-         * So output is (Monday, Tuesday), (Tuesday, Wednesday), (Wednesday, Thursday)
-         * as each day's average features in two windows
-         */
-        SlidingWindowPolicy slidingWindowPolicy = 
-        		SlidingWindowPolicy.slidingWinPolicy(TWO_DAYS_IN_MS, ONE_DAY_IN_MS);
-		
-        // Inject timestamps into the 50-point stream so can group on sliding windows
-        Vertex watermarkedAverageOf50 = dag.newVertex("Watermark 50 point Average",
-        		Processors.insertWatermarksP(
-        				WatermarkGenerationParams.wmGenParams(
-        						TimePrice::getTimestamp, 
-        						WatermarkPolicies.limitingLag(0), 
-        						WatermarkEmissionPolicy.emitByFrame(slidingWindowPolicy), 
-        						0)
-        		)).localParallelism(1);
-        dag.edge(Edge.from(averageOf50,1).to(watermarkedAverageOf50));
-
-        // Inject timestamps into the 200-point stream so can group on sliding windows
-        Vertex watermarkedAverageOf200 = dag.newVertex("Watermark 200 point Average",
-        		Processors.insertWatermarksP(
-        				WatermarkGenerationParams.wmGenParams(
-        						TimePrice::getTimestamp, 
-        						WatermarkPolicies.limitingLag(0), 
-        						WatermarkEmissionPolicy.emitByFrame(slidingWindowPolicy), 
-        						0)
-        		)).localParallelism(1);
-        dag.edge(Edge.from(averageOf200,1).to(watermarkedAverageOf200));
-
-        // 50 point stream type, 200 point stream type, grouping class and output type
-        AggregateOperation2<TimePrice, TimePrice, TimePriceGrouper, 
-        		Tuple2<Date, List<BigDecimal>>> 
-        myAggregation = AggregateOperation
-        	     .withCreate(TimePriceGrouper::new)
-        	     .andAccumulate0(TimePriceGrouper::add0)
-        	     .andAccumulate1(TimePriceGrouper::add1)
-        	     .andCombine(TimePriceGrouper::combine)
-        	     .andExportFinish(TimePriceGrouper::get)
-        	     ;
-
-        // Produce a compound of two each from 50-point and 200-point average
-        Vertex coGrouper = dag.newVertex("Group 50 and 200 point window",
-        		Processors.aggregateToSlidingWindowP(
-        				Arrays.asList(
-        						DistributedFunctions.constantKey(),
-        						DistributedFunctions.constantKey()),
-        				Arrays.asList(
-        						(DistributedToLongFunction<TimePrice>) TimePrice::getTimestamp,
-        						(DistributedToLongFunction<TimePrice>) TimePrice::getTimestamp),
-        				TimestampKind.EVENT, 
-        				slidingWindowPolicy, 
-        				myAggregation,
-        				MovingAverageDAG::timestampedEntryBuilder
-        				)
-        		).localParallelism(1);
-        dag.edge(Edge.from(watermarkedAverageOf50,0).to(coGrouper,0));
-        dag.edge(Edge.from(watermarkedAverageOf200,0).to(coGrouper,1));
-
-        // Filter incomplete output from coGrouper, partial windows
-        Vertex filterPartialCoGroup = dag.newVertex("Filter CoGroup",
-        		Processors.filterP(
-        				(TimestampedEntry<?, Tuple2<Date, List<BigDecimal>>> entry) -> 
-        					entry.getValue() != null)
-        			);
-        dag.edge(Edge.from(coGrouper).to(filterPartialCoGroup));
+        // And append them to the history, in monthly blocks
+        Vertex timeSeriesSink = dag.newVertex("Time Series IMap Sink",
+        		SinkProcessors.updateMapP(MyConstants.IMAP_NAME_TIME_SERIES,
+        				MovingAverageDAG::timeSeriesKey,
+        				MovingAverageDAG::timeSeriesAppend)
+        		);
+        dag.edge(Edge.from(priceFormatter,1).to(timeSeriesSink));
+        
+        // Other indicators, in one vertex, from the current price the averages output
+        Vertex indicators = dag.newVertex("Indicators", MovingAverageDAG::indicators);
+        dag.edge(Edge.from(averages,3).to(indicators)
+        		.partitioned((DistributedFunction<TimePrices, CurrencyPairKey>) TimePrices::getKey));
+        Vertex indicatorFormatter = dag.newVertex("Indicators Formatter",
+        		() -> new PriceFormatterProcessor(BTC_USD, INDICATOR_NAMES));
+        dag.edge(Edge.between(indicators,indicatorFormatter));
+        dag.edge(Edge.from(indicatorFormatter).to(priceSink,1));
+        dag.edge(Edge.from(indicatorFormatter,1).to(timeSeriesSink,1));
 
-        // Look for Death Cross and Golden Cross
-        Vertex crossDetector = dag.newVertex("Cross Detector", CrossDetectorProcessor::new);
-        dag.edge(Edge.from(filterPartialCoGroup).to(crossDetector).isolated());
+        // Look for Death Cross and Golden Cross, per currency pair
+        Vertex crossDetector = dag.newVertex("Cross Detector",
+        		() -> new CrossDetectorProcessor(PERIODS.length, RULES));
+        dag.edge(Edge.from(averages,2).to(crossDetector)
+        		.partitioned((DistributedFunction<TimePrices, CurrencyPairKey>) TimePrices::getKey));
 
         // Sink detected cross as formatted text to a topic for subscribers
         Vertex alertTopicSink = dag.newVertex("Alert Topic Sink", AlertToTopicProcessor::new);
-        dag.edge(Edge.between(crossDetector,alertTopicSink).isolated());
+        dag.edge(Edge.between(crossDetector,alertTopicSink));
         
         // Sink detected cross as source info to a map for future reference
         Vertex alertMapSink = dag.newVertex("Alert IMap Sink",
@@ -415,27 +438,116 @@ public class MovingAverageDAG {
         		);
         dag.edge(Edge.from(crossDetector,1).to(alertMapSink));
         
+        // Look for price spikes, alerted to the same topic and map
+        Vertex spikeDetector = dag.newVertex("Spike Detector",
+        		() -> new SpikeDetectorProcessor(SPIKE_NAME, SPIKE_PERIOD, SPIKE_THRESHOLD));
+        dag.edge(Edge.from(kafka,1).to(spikeDetector)
+        		.distributed().partitioned(MovingAverageDAG.currencyPairKey()));
+        Vertex spikeTopicSink = dag.newVertex("Spike Alert Topic Sink", AlertToTopicProcessor::new);
+        dag.edge(Edge.between(spikeDetector,spikeTopicSink));
+        dag.edge(Edge.from(spikeDetector,1).to(alertMapSink,1));
+        
         return dag;
     }
 
+	/**
+	 * <p>Add a source vertex for the prices on the FX topic, read
+	 * from the start, with event time from the price.
+	 * </p>
+	 *
+	 * @param dag To add to
+	 * @param bootstrapServers Kafka connection info
+	 * @return The source vertex
+	 */
+	static Vertex kafkaSource(DAG dag, String bootstrapServers) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, MY_KAFKA_KEY_DESERIALIZER_CLASS_NAME);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, MY_KAFKA_VALUE_DESERIALIZER_CLASS_NAME);
+
+        // Use a built-in processor to read from Kafka, with event time from the price
+        return dag.newVertex("Kafka Source",
+                KafkaProcessors.streamKafkaP(properties, 
+                		KAFKA_PROJECTION_FN,
+                		WatermarkGenerationParams.wmGenParams(
+                				MovingAverageDAG::timestamp,
+                				WatermarkPolicies.limitingLag(WATERMARK_LAG_MS),
+                				WatermarkEmissionPolicy.suppressDuplicates(),
+                				IDLE_PARTITION_TIMEOUT_MS),
+                		MyConstants.KAFKA_TOPIC_NAME_FX)
+                );
+	}
+
+	/**
+	 * <p>The other technical indicators, calculated together from
+	 * the current price.
+	 * </p>
+	 */
+	static CombinedIndicatorProcessor indicators() {
+		return new CombinedIndicatorProcessor(INDEX_CURRENT,
+				new EmaProcessor(EMA_PERIODS),
+				new MacdProcessor(MACD_FAST, MACD_SLOW, MACD_SIGNAL),
+				new RsiProcessor(RSI_PERIOD),
+				new BollingerProcessor(BOLLINGER_PERIOD, BOLLINGER_WIDTH));
+	}
+
+	/**
+	 * <p>Which block of the history a formatted price goes in,
+	 * by price name and month.
+	 * </p>
+	 */
+	public static TimeSeriesKey timeSeriesKey(Entry<String, TimePrice> entry) {
+		return new TimeSeriesKey(BTC_USD_NAME, entry.getKey(),
+				TimeSeries.bucketOf(entry.getValue().getTimestamp()));
+	}
+
+	/**
+	 * <p>Add a formatted price to its block of the history.
+	 * </p>
+	 */
+	public static EntryProcessor<TimeSeriesKey, TimeSeriesBlock> timeSeriesAppend(Entry<String, TimePrice> entry) {
+		return new TimeSeriesAppendEntryProcessor(entry.getValue().getTimestamp(), entry.getValue().getRate());
+	}
+
+	/**
+	 * <p>Make a map entry for a candle, the key being the currency
+	 * pair and the resolution, "{@code BTC/USD 1h}" for example.
+	 * </p>
+	 */
+	public static Entry<String, Candle> candleEntry(Candle candle) {
+		String resolution = String.valueOf(candle.getDuration());
+		for (int i = 0 ; i < CANDLE_RESOLUTIONS.length ; i++) {
+			if (CANDLE_RESOLUTIONS[i] == candle.getDuration()) {
+				resolution = CANDLE_NAMES[i];
+			}
+		}
+		String key = candle.getKey().getBase() + "/" + candle.getKey().getQuote() + " " + resolution;
+		return new SimpleImmutableEntry<>(key, candle);
+	}
+
 	/**
 	 * <p>For routing on Currency pairs, whole key.
 	 * </p>
+	 * <p>This uses Jet's default partitioning, the same as used
+	 * to restore keyed state from a snapshot. The key is
+	 * {@link com.hazelcast.core.PartitionAware PartitionAware},
+	 * so only its short partition key is serialized to route it.
+	 * </p>
 	 * 
 	 * @return
 	 */
-    public static DistributedFunction<ConsumerRecord<CurrencyPairKey, CurrencyPairValue>, CurrencyPairKey> currencyPairKey() {
-        return ConsumerRecord::key;
+    public static DistributedFunction<Entry<CurrencyPairKey, CurrencyPairValue>, CurrencyPairKey> currencyPairKey() {
+        return Entry::getKey;
     }
-    
+
     /**
-     * <p>Build a timestamped entry, like a map entry but with a
-     * timestamp too :-)
+     * <p>Event time for a price is its day, not when it was written
+     * to Kafka.
      * </p>
      */
-    public static TimestampedEntry<String, Tuple2<Date,List<BigDecimal>>> timestampedEntryBuilder(
-    		long previous, long current, String key, Tuple2<Date,List<BigDecimal>> value
-    		) {
-    	return new TimestampedEntry<>(current, key, value);
+    public static long timestamp(Entry<CurrencyPairKey, CurrencyPairValue> entry) {
+    	return entry.getValue().getTimestamp();
     }
-}
+}
\ No newline at end of file
@@ -1,16 +1,16 @@
 package neil.demo.zappa.jet.movingaverage;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.LocalDate;
-import java.util.Date;
-
-import org.apache.kafka.clients.consumer.ConsumerRecord;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
 
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
 import com.hazelcast.jet.core.AbstractProcessor;
 
+import neil.demo.zappa.Candle;
 import neil.demo.zappa.CurrencyPairKey;
-import neil.demo.zappa.CurrencyPairValue;
 import neil.demo.zappa.TimePrice;
 
 /**
@@ -21,9 +21,43 @@ import neil.demo.zappa.TimePrice;
  * numbers are added and divided by the count. There is
  * not any weighting towards later numbers.
  * </p>
- * <p>Calculations use {@link BigDecimal} which is
- * probably an unnecessary level of accuracy for this
- * application.
+ * <p>Several averages are calculated at once, for example
+ * the 1 point, 50 point and 200 point. They all share the
+ * one history of input, sized for the longest period, and
+ * are output together in one {@link TimePrices}.
+ * </p>
+ * <p>Input is partitioned by currency pair, but one processor
+ * instance will receive several currency pairs. Each pair has
+ * its own history and sums, held in arrays of primitives shared
+ * by all pairs and indexed by the pair's slot from
+ * {@link CurrencyPairSlots}.
+ * </p>
+ * <p>Rather than re-add every number in the window each
+ * time, a running sum is kept per period. When a new number
+ * arrives the number it evicts from that period's window is
+ * subtracted and the new number added, so the cost per input
+ * item is the same whether the window is 1 point or 1000 points.
+ * </p>
+ * <p>Numbers are held as {@code long} in fixed-point, units
+ * of 1/10,000th, rather than as {@link java.math.BigDecimal BigDecimal}.
+ * This avoids object creation per input item, and unlike
+ * {@code double} there is no rounding drift as numbers
+ * are added to and subtracted from the running sum. Input
+ * arrives in this form, and output is sent in this form.
+ * </p>
+ * <p>State is saved to Jet snapshots per currency pair, so a
+ * restarted job carries on from where it was rather than re-reading
+ * the whole topic to refill the ringbuffers.
+ * </p>
+ * <p>Input is {@link Candle} summaries from {@link CandleProcessor},
+ * using the closing price, so the averages are over a count of bars,
+ * such as the last 50 hours. A bar with no prices isn't output by
+ * {@link CandleProcessor}, so a quiet hour is skipped rather than
+ * counted.
+ * </p>
+ * <p>The jobs use {@link TimeWindowAverageProcessor} instead, which
+ * takes prices or candles, see {@link MovingAverageDAG#AVERAGE_INPUT},
+ * and fills the gaps so a quiet hour counts as the hour before.
  * </p>
  * <p>Note in Jet this is run as a continuous stream job.
  * Input will be fed as it arrives to the {@link MovingAverageProcessor#tryProcess tryProcess}
@@ -34,10 +68,16 @@ import neil.demo.zappa.TimePrice;
  */
 public class MovingAverageProcessor extends AbstractProcessor {
 
-	private final BigDecimal averageOf;
-	private final BigDecimal[] rates;
-	private LocalDate day;
-	private int count;
+	private final int[] periods;
+	private final int shortest;
+	private final int longest;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private long[] rates;
+	private long[] sums;
+	private int[] counts;
+	private TimePrices pending;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
 
 	/**
 	 * <p>There may be more than one instance of this
@@ -45,103 +85,259 @@ public class MovingAverageProcessor extends AbstractProcessor {
 	 * available.
 	 * </p>
 	 * <p>Build a storage array which we will use as
-	 * a ringbuffer to hold input until we are ready
-	 * to output.
+	 * a ringbuffer per currency pair to hold input until
+	 * we are ready to output. Each ringbuffer is sized for
+	 * the longest period, shorter periods look at the most
+	 * recent part of it. The array grows as more currency
+	 * pairs are seen.
 	 * </p>
 	 *
-	 * @param arg0 How many input items to average
+	 * @param arg0 How many input items to average, for each average
 	 */
-	public MovingAverageProcessor(int arg0) {
-		this.averageOf = new BigDecimal(arg0);
-		this.rates = new BigDecimal[arg0];
-		this.count = 0;
+	public MovingAverageProcessor(int... arg0) {
+		int longest = 0;
+		int shortest = Integer.MAX_VALUE;
+		for (int period : arg0) {
+			if (period < 1) {
+				throw new IllegalArgumentException("Period " + period + " not positive");
+			}
+			longest = Math.max(longest, period);
+			shortest = Math.min(shortest, period);
+		}
+		if (arg0.length == 0) {
+			throw new IllegalArgumentException("No periods");
+		}
+
+		this.periods = arg0.clone();
+		this.shortest = shortest;
+		this.longest = longest;
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.rates = new long[0];
+		this.sums = new long[0];
+		this.counts = new int[0];
 	}
 
 	/**
-	 * <p>Use a ringbuffer to produce a moving average from
+	 * <p>Use a ringbuffer to produce moving averages from
 	 * a constant stream of input.
 	 * </p>
-	 * <p>The logic for input processing is simply to store
-	 * each item in a local ringbuffer.
+	 * <p>The logic for input processing is to adjust the
+	 * running sum for each period by the difference between
+	 * the new item and the item falling out of that period,
+	 * then store the new item in the local ringbuffer.
 	 * </p>
 	 * <p>The logic for output processing is to determine
-	 * if the ringbuffer is fully populated. If it is,
-	 * we can calculate and send out the average. If it
-	 * isn't, there is no average to send and the method
+	 * if the ringbuffer holds enough for at least the
+	 * shortest period. If it is, we can calculate and send out
+	 * the averages, any period not yet filled being {@link TimePrice#NO_RATE}.
+	 * If it isn't, there is no average to send and the method
 	 * has nothing further to do.
 	 * </p>
 	 * <p>Output sending uses Jet's {@link com.hazelcast.jet.core.AbstractProcessor#tryEmit tryEmit}
 	 * to see if the {@link com.hazelcast.jet.core.Edge Edge} can take the output
 	 * or if it is full of queued items that the next step hasn't handled yet.
-	 * </p> 
-	 * 
+	 * If it can't, the same input is offered again later, so hold on to the
+	 * output rather than apply the input to the running sums a second time.
+	 * </p>
+	 *
 	 * @return True if processing passed on any necessary output
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	protected boolean tryProcess(int ordinal, Object item) {
-		
-		/* Extract what we need from input. An optimisation
-		 * would be to do this in the projection not this class.
-		 */
-		ConsumerRecord<CurrencyPairKey, CurrencyPairValue>
-			data = (ConsumerRecord<CurrencyPairKey, CurrencyPairValue>) item;
-
-		CurrencyPairValue value = data.value();
-
-		// Track where we are going to store in the ringbuffer
-		int position = this.count % this.rates.length;
-		this.count++;
-		
-		// Store input in local ringbuffer
-		this.rates[position] = value.getRate();
-		this.day = value.getDay();
-
-		// Produce output once we have enough input
-		if (count >= this.rates.length) {
-			Date date = TimePrice.convert(this.day);
-			BigDecimal average = this.calculateAverage();
-
-			// Average up to the day stated, assumes no days missed
-			TimePrice timePrice = new TimePrice(date, average);
-
-			// False if needs to back off and rerun
-			boolean sent = super.tryEmit(timePrice);
-			if (sent==false) {
-				count--;
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			Candle candle = (Candle) item;
+			CurrencyPairKey key = candle.getKey();
+			long timestamp = candle.getStart();
+			long rate = candle.getClose();
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(key);
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+			int count = this.counts[slot];
+			int ratesBase = slot * this.longest;
+			int sumsBase = slot * this.periods.length;
+
+			// Swap evicted for new in each sum, before the ringbuffer slot is reused
+			for (int i = 0 ; i < this.periods.length ; i++) {
+				this.sums[sumsBase + i] += rate - this.evicted(ratesBase, count, this.periods[i]);
+			}
+
+			// Store input in local ringbuffer
+			this.rates[ratesBase + (count % this.longest)] = rate;
+			count++;
+
+			// Avoid overflow on a long-running stream, position only matters
+			if (count == Integer.MAX_VALUE) {
+				count = this.longest + (count % this.longest);
+			}
+			this.counts[slot] = count;
+
+			// Nothing to produce until we have enough input
+			if (count < this.shortest) {
+				return true;
 			}
-			return sent;
+
+			// Averages up to the bar stated
+			this.pending = new TimePrices(key, timestamp, this.calculateAverages(sumsBase, count));
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
 		} else {
-			// Nothing to produce
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry. The
+	 * entry key is the currency pair, so on restore Jet gives the
+	 * entry to whichever instance is then sent that currency pair.
+	 * The entry value is the count, the sums and the ringbuffer,
+	 * all as {@code long}.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
 			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's state, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] state = (long[]) value;
+		if (state.length != 1 + this.periods.length + this.longest) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ state.length + " items, periods are " + Arrays.toString(this.periods));
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+
+		this.counts[slot] = (int) state[0];
+		System.arraycopy(state, 1, this.sums, slot * this.periods.length, this.periods.length);
+		System.arraycopy(state, 1 + this.periods.length, this.rates, slot * this.longest, this.longest);
+	}
+
+	/**
+	 * <p>Copy one currency pair's state for a snapshot.
+	 * </p>
+	 */
+	private long[] snapshotOf(int slot) {
+		long[] state = new long[1 + this.periods.length + this.longest];
+		state[0] = this.counts[slot];
+		System.arraycopy(this.sums, slot * this.periods.length, state, 1, this.periods.length);
+		System.arraycopy(this.rates, slot * this.longest, state, 1 + this.periods.length, this.longest);
+		return state;
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.rates = Arrays.copyOf(this.rates, this.capacity * this.longest);
+		this.sums = Arrays.copyOf(this.sums, this.capacity * this.periods.length);
+		this.counts = Arrays.copyOf(this.counts, this.capacity);
+	}
+
+	/**
+	 * <p>Find the item that drops out of a window of the
+	 * given period when the next item is added.
+	 * </p>
+	 *
+	 * @param base Start of the currency pair's ringbuffer
+	 * @param count Items added so far for the currency pair
+	 * @param period Window size
+	 * @return The oldest item in the window, or zero if the window is not full
+	 */
+	private long evicted(int base, int count, int period) {
+		if (count < period) {
+			return 0L;
 		}
+		return this.rates[base + ((count - period) % this.longest)];
 	}
 
 	/**
-	 * <p>Calculate the <u>simple</u> average of a fully
-	 * populated array of numbers. That is, there is no
+	 * <p>Calculate the <u>simple</u> average from the
+	 * running sum for each period. That is, there is no
 	 * weighting towards the most recent, all are equal.
-	 * So add them up, divide by the count.
+	 * So divide the sum by the count.
+	 * </p>
+	 * <p>The division is done on the {@code long} fixed-point
+	 * value, rounding to the nearest unit.
+	 * </p>
+	 *
+	 * @param base Start of the currency pair's sums
+	 * @param count Items added so far for the currency pair
+	 * @return Averages, fixed-point, {@link TimePrice#NO_RATE} if not enough input
+	 */
+	private long[] calculateAverages(int base, int count) {
+		long[] averages = new long[this.periods.length];
+
+		for (int i = 0 ; i < this.periods.length ; i++) {
+			if (count >= this.periods[i]) {
+				averages[i] = MovingAverageProcessor.divideHalfUp(this.sums[base + i], this.periods[i]);
+			} else {
+				averages[i] = TimePrice.NO_RATE;
+			}
+		}
+
+		return averages;
+	}
+
+	/**
+	 * <p>Integer division rounding half away from zero, to
+	 * match {@link java.math.RoundingMode#HALF_UP RoundingMode.HALF_UP}.
 	 * </p>
-	 * <p>Note this is {@link BigDecimal} so this generates
-	 * a lot of intermediate objects. Use of {@code double}
-	 * might be sufficient here, we don't need the highest
-	 * degree of accuracy.
+	 * <p>The sum is exact, so this is the only rounding. For fewer
+	 * decimal places than {@link TimePrice#SCALE}, scale the divisor,
+	 * such as {@code count * 100} for 2 places, rather than round this
+	 * result again. Rounding twice moves halves, a mean of 1.00495 would
+	 * become 1.0050 then 1.01 instead of 1.00.
 	 * </p>
 	 *
-	 * @return Average, to 2 decimal places.
+	 * @param dividend Fixed-point sum
+	 * @param divisor Count of items summed
+	 * @return Fixed-point quotient
 	 */
-	private BigDecimal calculateAverage() {
-		BigDecimal sum = BigDecimal.ZERO;
-		
-		for (int i = 0 ; i < this.rates.length ; i ++) {
-			sum = sum.add(this.rates[i]);
+	static long divideHalfUp(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (Math.abs(remainder) * 2 >= divisor) {
+			quotient += (dividend < 0 ? -1 : 1);
 		}
-		
-		BigDecimal average = sum.divide(this.averageOf, 2, RoundingMode.HALF_UP);
-		
-		return average;
+		return quotient;
 	}
 
-	
 }
@@ -1,66 +1,82 @@
 package neil.demo.zappa.jet.movingaverage;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
 import com.hazelcast.jet.core.AbstractProcessor;
 
-import neil.demo.zappa.MyConstants;
+import neil.demo.zappa.CurrencyPairKey;
 import neil.demo.zappa.TimePrice;
 
 /**
  * <p>A processor to do some simple refomatting of input value
- * to make it into a map entry.
+ * to make it into map entries.
  * </p>
- * <p>Input from ordinal 0 is the current price, handled by
- * {@link PriceFormatterProcessor#tryProcess0}. Ordinal 1
- * is the average of 50, handled by {@link PriceFormatterProcessor#tryProcess1}.
- * Ordinal 2 is the average of 200, handled by
- * {@link PriceFormatterProcessor#tryProcess2}.
+ * <p>Input is several prices for the same day, such as the
+ * current price, the average of 50 and the average of 200.
+ * Each price becomes a separate map entry, named by its
+ * position in the input, so "{@code Current}", "{@code 50 Point}"
+ * and "{@code 200 Point}" for example.
  * </p>
- * <p>All three input ordinals could have been handled by
- * {@link AbstractProcessor#tryProcess(int, Object)} as an alternative.
+ * <p>Prices not yet available, such as the average of 200
+ * on day 199, are skipped.
+ * </p>
+ * <p>Only one currency pair is formatted, as the map entry
+ * keys don't include the currency pair. Prices for other
+ * currency pairs are ignored.
  * </p>
  */
 public class PriceFormatterProcessor extends AbstractProcessor {
 
-	/**
-	 * <p>Format incoming price from ordinal 0
-	 */
-	@Override
-	protected boolean tryProcess0(Object item) {
-		TimePrice timePrice = (TimePrice) item;
-		
-		Entry<String, TimePrice> outputEntry =
-				new SimpleImmutableEntry<>(MyConstants.KEY_CURRENT, timePrice);
-		
-		return super.tryEmit(outputEntry);
-	}
+	private final CurrencyPairKey currencyPairKey;
+	private final String[] names;
+	private Traverser<Entry<String, TimePrice>> traverser;
 
 	/**
-	 * <p>Format incoming price from ordinal 1
+	 * @param arg0 Currency pair to format prices for
+	 * @param arg1 Map key for each price in the input
 	 */
-	@Override
-	protected boolean tryProcess1(Object item) {
-		TimePrice timePrice = (TimePrice) item;
-		
-		Entry<String, TimePrice> outputEntry =
-				new SimpleImmutableEntry<>(MyConstants.KEY_50_POINT, timePrice);
-		
-		return super.tryEmit(outputEntry);
+	public PriceFormatterProcessor(CurrencyPairKey arg0, String... arg1) {
+		this.currencyPairKey = arg0;
+		this.names = arg1;
 	}
 
 	/**
-	 * <p>Format incoming price from ordinal 2
+	 * <p>Format incoming prices from ordinal 0. If the output
+	 * queue fills part way through, the rest is sent when
+	 * this is called again with the same input.
+	 * </p>
 	 */
 	@Override
-	protected boolean tryProcess2(Object item) {
-		TimePrice timePrice = (TimePrice) item;
+	protected boolean tryProcess0(Object item) {
+		if (this.traverser == null) {
+			TimePrices timePrices = (TimePrices) item;
+
+			if (!this.currencyPairKey.equals(timePrices.getKey())) {
+				return true;
+			}
 		
-		Entry<String, TimePrice> outputEntry =
-				new SimpleImmutableEntry<>(MyConstants.KEY_200_POINT, timePrice);
+			List<Entry<String, TimePrice>> outputEntries = new ArrayList<>(this.names.length);
+			for (int i = 0 ; i < this.names.length ; i++) {
+				if (timePrices.getRates()[i] != TimePrice.NO_RATE) {
+					TimePrice timePrice = new TimePrice(timePrices.getTimestamp(), timePrices.getRates()[i]);
+					outputEntries.add(new SimpleImmutableEntry<>(this.names[i], timePrice));
+				}
+			}
 		
-		return super.tryEmit(outputEntry);
+			this.traverser = Traversers.traverseIterable(outputEntries);
+		}
+
+		if (super.emitFromTraverser(this.traverser)) {
+			this.traverser = null;
+			return true;
+		} else {
+			return false;
+		}
 	}
 	
 }
@@ -0,0 +1,79 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import neil.demo.zappa.CurrencyPairKey;
+
+/**
+ * <p>All the prices for one currency pair, in time order, held
+ * as two parallel arrays of {@code long} for a batch job to
+ * work through.
+ * </p>
+ * <p>The prices are split into consecutive chunks, one per
+ * processor, so each can be worked on in parallel. See
+ * {@link MovingAverageBackfillDAG}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+public class PriceHistory implements Serializable {
+
+	private CurrencyPairKey key;
+	private long[] timestamps;
+	private long[] rates;
+
+	/**
+	 * <p>How many prices there are.
+	 * </p>
+	 */
+	public int size() {
+		return this.timestamps.length;
+	}
+
+	/**
+	 * <p>Running totals of the prices, element {@code i} being the
+	 * sum of the first {@code i} prices. The sum of any window of
+	 * prices is then the difference of two totals.
+	 * </p>
+	 *
+	 * @return One longer than the prices
+	 */
+	public long[] prefixSums() {
+		long[] prefixSums = new long[this.timestamps.length + 1];
+		for (int i = 0 ; i < this.rates.length ; i++) {
+			prefixSums[i + 1] = prefixSums[i] + this.rates[i];
+		}
+		return prefixSums;
+	}
+
+	/**
+	 * <p>Index of the first price in a chunk, or {@link #size()} if
+	 * there are more chunks than prices and this one is empty.
+	 * </p>
+	 *
+	 * @param chunk From zero
+	 * @param chunks How many chunks in all
+	 */
+	public int chunkStart(int chunk, int chunks) {
+		return (int) ((long) chunk * this.timestamps.length / chunks);
+	}
+
+	/**
+	 * <p>Time of the first price in a chunk, so anything earlier
+	 * belongs to a previous chunk. {@link Long#MIN_VALUE} for the
+	 * first chunk, {@link Long#MAX_VALUE} if the chunk is empty.
+	 * </p>
+	 */
+	public long chunkStartTime(int chunk, int chunks) {
+		if (chunk == 0) {
+			return Long.MIN_VALUE;
+		}
+		int start = this.chunkStart(chunk, chunks);
+		return (start < this.timestamps.length ? this.timestamps[start] : Long.MAX_VALUE);
+	}
+
+}
@@ -0,0 +1,79 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Relative Strength Index, comparing the size of recent
+ * price rises with recent price falls, on a scale of 0 to 100.
+ * High values, above 70 say, suggest the price has risen too
+ * far too fast, low values below 30 the reverse.
+ * </p>
+ * <p>Rises and falls are averaged with Wilder's smoothing, each
+ * new change having weight {@code 1 / period}. The first
+ * average is the simple average of the first "<i>period</i>"
+ * changes, so output starts on the price after that.
+ * </p>
+ * <p>Only the previous price and the two averages are kept
+ * per currency pair. Output is one value, fixed-point like
+ * a price, so {@code 70.5} is held as {@code 705000}.
+ * </p>
+ */
+public class RsiProcessor extends IndicatorProcessor {
+
+	private static final int PREVIOUS = 0;
+	private static final int GAIN = 1;
+	private static final int LOSS = 2;
+
+	private final int period;
+
+	/**
+	 * @param arg0 How many price changes to average, eg. 14
+	 */
+	public RsiProcessor(int arg0) {
+		super(1, 3, 0);
+		this.period = IndicatorProcessor.checkPeriod(arg0);
+	}
+
+	@Override
+	protected void update(long rate, long count, int stateBase, int historyBase, long[] output) {
+		output[0] = TimePrice.NO_RATE;
+
+		double previous = super.state[stateBase + PREVIOUS];
+		super.state[stateBase + PREVIOUS] = rate;
+
+		// First price, no change yet
+		if (count == 0) {
+			return;
+		}
+
+		double change = rate - previous;
+		double gain = Math.max(change, 0d);
+		double loss = Math.max(-change, 0d);
+
+		// Changes seen, including this one
+		long n = count;
+		if (n < this.period) {
+			super.state[stateBase + GAIN] += gain;
+			super.state[stateBase + LOSS] += loss;
+			return;
+		}
+		if (n == this.period) {
+			super.state[stateBase + GAIN] = (super.state[stateBase + GAIN] + gain) / this.period;
+			super.state[stateBase + LOSS] = (super.state[stateBase + LOSS] + loss) / this.period;
+		} else {
+			super.state[stateBase + GAIN] = (super.state[stateBase + GAIN] * (this.period - 1) + gain) / this.period;
+			super.state[stateBase + LOSS] = (super.state[stateBase + LOSS] * (this.period - 1) + loss) / this.period;
+		}
+
+		double averageGain = super.state[stateBase + GAIN];
+		double averageLoss = super.state[stateBase + LOSS];
+		double rsi;
+		if (averageLoss == 0d) {
+			rsi = (averageGain == 0d ? 50d : 100d);
+		} else {
+			rsi = 100d - 100d / (1d + averageGain / averageLoss);
+		}
+		output[0] = TimePrice.toRate(rsi);
+	}
+
+}
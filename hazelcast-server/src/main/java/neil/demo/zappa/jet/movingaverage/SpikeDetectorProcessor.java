@@ -0,0 +1,347 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.datamodel.Tuple3;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Detect a price that jumps much further from the one before
+ * than is usual, such as a bad tick on a feed, and produce an
+ * alert for it on that price, before it has had much effect on
+ * the moving averages.
+ * </p>
+ * <p>For each currency pair a rolling mean and variance is kept
+ * of the change from one price to the next, as a fraction of
+ * the price. Each new change is scored by how many standard
+ * deviations it is from the mean, its "<i>z-score</i>", and is
+ * a spike if that is beyond the threshold, such as 4.
+ * </p>
+ * <p>The mean and variance are updated incrementally, as in
+ * Welford's method, with the "<i>n</i>"th change having weight
+ * {@code 1 / n} until that falls below {@code 2 / (period + 1)},
+ * about half way through the period, and {@code 2 / (period + 1)}
+ * after that. So at first they are the exact mean and variance
+ * of all changes so far, then they decay exponentially, following
+ * the recent volatility. Only the two values are kept, there is
+ * no window of history to recompute. Spikes aren't looked for
+ * until there have been "<i>period</i>" changes.
+ * </p>
+ * <p>A spike doesn't update the mean and variance, so a bad tick
+ * doesn't make the next one look normal. Nor does it become the
+ * price the next change is measured from, so a single bad tick
+ * gives a single alert, not a second as the price returns. If the
+ * next price is close to the spike rather than to the price before,
+ * the price really has moved, and it is taken as the new level
+ * without another alert. A price of zero or less is never taken
+ * as the level to measure from, it is alerted as a spike down.
+ * </p>
+ * <p>Spikes are only alerted. The prices still go unchanged to the
+ * candles, averages and indicators, which are fed from Kafka
+ * separately.
+ * </p>
+ * <p>As for {@link CrossDetectorProcessor}, input is partitioned
+ * by currency pair, state is held in arrays indexed by the pair's
+ * slot from {@link CurrencyPairSlots} and saved to Jet snapshots,
+ * and output is a map entry per alert. The key is the day, the
+ * currency pair and the rule name. The value is the direction and
+ * the price before and after. Prices earlier than the previous
+ * price are ignored.
+ * </p>
+ */
+public class SpikeDetectorProcessor extends AbstractProcessor {
+
+	public static final String SPIKE_UP = "Spike Up";
+	public static final String SPIKE_DOWN = "Spike Down";
+
+	// Fields of state per currency pair, long then double
+	private static final int TIMESTAMP = 0;
+	private static final int PREVIOUS = 1;
+	private static final int SUSPECT = 2;
+	private static final int COUNT = 3;
+	private static final int LONG_WIDTH = 4;
+	private static final int MEAN = 0;
+	private static final int VARIANCE = 1;
+	private static final int DOUBLE_WIDTH = 2;
+
+	private final String name;
+	private final int period;
+	private final double threshold;
+	private final double alpha;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private long[] levels;
+	private double[] stats;
+	private Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>> pending;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
+
+	/**
+	 * @param arg0 Rule name for the alerts
+	 * @param arg1 How many changes the mean and variance follow, eg. 50
+	 * @param arg2 Standard deviations from the mean for a spike, eg. 4
+	 */
+	public SpikeDetectorProcessor(String arg0, int arg1, double arg2) {
+		if (arg1 < 2) {
+			throw new IllegalArgumentException("Period " + arg1 + " less than 2");
+		}
+		if (arg2 <= 0d) {
+			throw new IllegalArgumentException("Threshold " + arg2 + " not positive");
+		}
+		this.name = arg0;
+		this.period = arg1;
+		this.threshold = arg2;
+		this.alpha = 2d / (arg1 + 1);
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.levels = new long[0];
+		this.stats = new double[0];
+	}
+
+	/**
+	 * <p>Score the change from the previous price, output an alert
+	 * if it is a spike, otherwise add it to the mean and variance.
+	 * </p>
+	 * <p>As for {@link CrossDetectorProcessor}, output refused is
+	 * held and retried without re-applying the input.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess0(Object item) {
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			Entry<CurrencyPairKey, CurrencyPairValue>
+				data = (Entry<CurrencyPairKey, CurrencyPairValue>) item;
+			long timestamp = data.getValue().getTimestamp();
+			long rate = data.getValue().getRate();
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(data.getKey());
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+			int longBase = slot * LONG_WIDTH;
+			int doubleBase = slot * DOUBLE_WIDTH;
+
+			if (timestamp < this.levels[longBase + TIMESTAMP]) {
+				return true;
+			}
+			this.levels[longBase + TIMESTAMP] = timestamp;
+
+			// First price, or no usable price yet
+			long previous = this.levels[longBase + PREVIOUS];
+			if (previous == TimePrice.NO_RATE) {
+				if (rate > 0L) {
+					this.levels[longBase + PREVIOUS] = rate;
+				}
+				return true;
+			}
+
+			double change = this.change(previous, rate);
+			if (rate <= 0L) {
+				this.pending = this.alert(data.getKey(), timestamp, SPIKE_DOWN, rate, previous);
+			} else if (!this.isSpike(doubleBase, this.levels[longBase + COUNT], change)) {
+				this.update(doubleBase, ++this.levels[longBase + COUNT], change);
+				this.levels[longBase + PREVIOUS] = rate;
+				this.levels[longBase + SUSPECT] = TimePrice.NO_RATE;
+				return true;
+			} else {
+				// Close to the spike before, the price has moved
+				long suspect = this.levels[longBase + SUSPECT];
+				if (suspect != TimePrice.NO_RATE
+						&& !this.isSpike(doubleBase, this.levels[longBase + COUNT], this.change(suspect, rate))) {
+					this.levels[longBase + PREVIOUS] = rate;
+					this.levels[longBase + SUSPECT] = TimePrice.NO_RATE;
+					return true;
+				}
+
+				this.levels[longBase + SUSPECT] = rate;
+				this.pending = this.alert(data.getKey(), timestamp, change > 0 ? SPIKE_UP : SPIKE_DOWN, rate, previous);
+			}
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry,
+	 * keyed by currency pair. The value is the timestamp, the
+	 * previous price, the suspect price and the count, then the
+	 * mean and variance as their bits.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's state, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] state = (long[]) value;
+		if (state.length != LONG_WIDTH + DOUBLE_WIDTH) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ state.length + " items, expected " + (LONG_WIDTH + DOUBLE_WIDTH));
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+
+		System.arraycopy(state, 0, this.levels, slot * LONG_WIDTH, LONG_WIDTH);
+		for (int i = 0 ; i < DOUBLE_WIDTH ; i++) {
+			this.stats[slot * DOUBLE_WIDTH + i] = Double.longBitsToDouble(state[LONG_WIDTH + i]);
+		}
+	}
+
+	/**
+	 * <p>The mean and variance of a currency pair's changes, for
+	 * testing.
+	 * </p>
+	 *
+	 * @return Mean then variance, both zero if no changes yet
+	 */
+	double[] statsOf(CurrencyPairKey key) {
+		int slot = this.currencyPairSlots.slotOf(key);
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+		return Arrays.copyOfRange(this.stats, slot * DOUBLE_WIDTH, (slot + 1) * DOUBLE_WIDTH);
+	}
+
+	/**
+	 * <p>Copy one currency pair's state for a snapshot.
+	 * </p>
+	 */
+	private long[] snapshotOf(int slot) {
+		long[] state = new long[LONG_WIDTH + DOUBLE_WIDTH];
+		System.arraycopy(this.levels, slot * LONG_WIDTH, state, 0, LONG_WIDTH);
+		for (int i = 0 ; i < DOUBLE_WIDTH ; i++) {
+			state[LONG_WIDTH + i] = Double.doubleToLongBits(this.stats[slot * DOUBLE_WIDTH + i]);
+		}
+		return state;
+	}
+
+	/**
+	 * <p>Change between two prices, as a fraction of the first,
+	 * which is always above zero.
+	 * </p>
+	 */
+	private double change(long from, long to) {
+		return (double) (to - from) / from;
+	}
+
+	/**
+	 * <p>Is the change further from the mean than the threshold
+	 * allows ? Never while warming up, or if the changes so far
+	 * have all been the same.
+	 * </p>
+	 *
+	 * @param base Start of the currency pair's mean and variance
+	 * @param count Changes in the mean and variance so far
+	 * @param change Change to score
+	 * @return True if a spike
+	 */
+	private boolean isSpike(int base, long count, double change) {
+		double variance = this.stats[base + VARIANCE];
+		if (count < this.period || variance <= 0d) {
+			return false;
+		}
+		double z = (change - this.stats[base + MEAN]) / Math.sqrt(variance);
+		return Math.abs(z) > this.threshold;
+	}
+
+	/**
+	 * <p>One step of the weighted incremental mean and variance.
+	 * With weight {@code 1 / n} this is Welford's update for the
+	 * population variance.
+	 * </p>
+	 *
+	 * @param base Start of the currency pair's mean and variance
+	 * @param n Changes including this one
+	 * @param change The change to add
+	 */
+	private void update(int base, long n, double change) {
+		double weight = Math.max(1d / n, this.alpha);
+		double difference = change - this.stats[base + MEAN];
+		double increment = weight * difference;
+		this.stats[base + MEAN] += increment;
+		this.stats[base + VARIANCE] = (1d - weight) * (this.stats[base + VARIANCE] + difference * increment);
+	}
+
+	/**
+	 * <p>Format a spike as a map entry, converting prices
+	 * to {@link BigDecimal} for display.
+	 * </p>
+	 */
+	private Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>
+		alert(CurrencyPairKey key, long timestamp, String direction, long rate, long previous) {
+		LocalDate day = TimePrice.toLocalDate(timestamp);
+		String currencyPair = key.getBase() + "/" + key.getQuote();
+
+		Tuple3<LocalDate, String, String> outputEntryKey
+			= Tuple3.tuple3(day, currencyPair, this.name);
+
+		Tuple3<String, BigDecimal, BigDecimal> outputEntryValue
+			= Tuple3.tuple3(direction, TimePrice.toBigDecimal(rate), TimePrice.toBigDecimal(previous));
+
+		return new SimpleImmutableEntry<>(outputEntryKey, outputEntryValue);
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair, new entries having no previous price.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.levels = Arrays.copyOf(this.levels, this.capacity * LONG_WIDTH);
+		this.stats = Arrays.copyOf(this.stats, this.capacity * DOUBLE_WIDTH);
+		for (int i = oldCapacity ; i < this.capacity ; i++) {
+			this.levels[i * LONG_WIDTH + TIMESTAMP] = Long.MIN_VALUE;
+			this.levels[i * LONG_WIDTH + PREVIOUS] = TimePrice.NO_RATE;
+			this.levels[i * LONG_WIDTH + SUSPECT] = TimePrice.NO_RATE;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Represents several prices at the same point in time for
+ * a currency pair, such as the moving averages over different
+ * periods for the same day.
+ * </p>
+ * <p>The position in the array matches the position of the
+ * period the price was calculated for. A price may be
+ * {@link TimePrice#NO_RATE} if there isn't enough input yet
+ * to calculate it, for example the 200 point average on day 199.
+ * </p>
+ * <p>As for {@link TimePrice}, the time and prices are held
+ * as {@code long}.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TimePrices implements Serializable {
+
+	private CurrencyPairKey key;
+	private long timestamp;
+	private long[] rates;
+
+}
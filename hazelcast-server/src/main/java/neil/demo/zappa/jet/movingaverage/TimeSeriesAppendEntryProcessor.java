@@ -0,0 +1,78 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.Map.Entry;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+
+import neil.demo.zappa.TimeSeriesBlock;
+import neil.demo.zappa.TimeSeriesKey;
+
+/**
+ * <p>Append a price to a block of a time series, creating the
+ * block if it's the first price in that bucket.
+ * </p>
+ * <p>This runs where the block is held, so only the price goes
+ * over the network, not the block.
+ * </p>
+ * <p>The "{@code timeseries}" map is held in {@code OBJECT} format,
+ * see "{@code hazelcast.xml}", so the block is changed in place.
+ * Appending is then a fixed cost, rather than deserializing and
+ * serializing the whole month for each price.
+ * </p>
+ * <p>As for {@link neil.demo.zappa.jet.account.AccountMergeEntryProcessor AccountMergeEntryProcessor},
+ * this same object is the backup processor, so the backup is
+ * sent the price and appends it to its copy of the block in
+ * the same way.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class TimeSeriesAppendEntryProcessor implements EntryProcessor<TimeSeriesKey, TimeSeriesBlock>,
+	EntryBackupProcessor<TimeSeriesKey, TimeSeriesBlock> {
+
+	private final long timestamp;
+	private final long rate;
+
+	TimeSeriesAppendEntryProcessor(long arg0, long arg1) {
+		this.timestamp = arg0;
+		this.rate = arg1;
+	}
+
+	/**
+	 * <p>Add to the block, or replace if there is already a
+	 * price at this time.
+	 * </p>
+	 */
+	@Override
+	public Void process(Entry<TimeSeriesKey, TimeSeriesBlock> entry) {
+		this.apply(entry);
+		return null;
+	}
+
+	/**
+	 * <p>Add to the backup the same way.
+	 * </p>
+	 */
+	@Override
+	public void processBackup(Entry<TimeSeriesKey, TimeSeriesBlock> entry) {
+		this.apply(entry);
+	}
+
+	@Override
+	public EntryBackupProcessor<TimeSeriesKey, TimeSeriesBlock> getBackupProcessor() {
+		return this;
+	}
+
+	private void apply(Entry<TimeSeriesKey, TimeSeriesBlock> entry) {
+		TimeSeriesBlock value = entry.getValue();
+
+		if (value == null) {
+			value = new TimeSeriesBlock();
+		}
+
+		value.append(this.timestamp, this.rate);
+
+		entry.setValue(value);
+	}
+
+}
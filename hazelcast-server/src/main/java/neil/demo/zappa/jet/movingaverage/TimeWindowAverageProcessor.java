@@ -0,0 +1,462 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import neil.demo.zappa.Candle;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>A moving average over a length of time, such as the last
+ * 50 days or the last 15 minutes, rather than over a count of
+ * prices as {@link MovingAverageProcessor} does.
+ * </p>
+ * <p>Counting prices assumes they are evenly spaced. If a day
+ * is missed, a 50 point average covers 51 days, and if a price
+ * is sent twice it covers 49. Here the window is set by the
+ * timestamps, a price is in the window for duration "<i>D</i>"
+ * if it is later than "<i>D</i>" before the latest price.
+ * </p>
+ * <p>Gaps longer than the step, the expected spacing of prices,
+ * are filled according to the {@link GapFill} rule, so a day
+ * missed can count as the day before's price. With
+ * {@link GapFill#NONE} the average is of whatever prices fell in
+ * the window. A price with the same timestamp as the latest
+ * replaces it, a price with an earlier timestamp is late and
+ * is dropped.
+ * </p>
+ * <p>Each currency pair has a deque of timestamped prices, back
+ * as far as the longest window, in time order as they arrive.
+ * Each window has a running sum and the position in the deque
+ * where it starts. A new price is added to the back and to every
+ * sum, then each window's start moves forward past prices now
+ * too old, subtracting them. Each price is added and removed once
+ * per window, so the cost per price is the same however long the
+ * windows are, though a burst of prices can evict many at once.
+ * Prices too old for the longest window are dropped from the
+ * front of the deque.
+ * </p>
+ * <p>A window's average is output once the currency pair has
+ * prices going back its whole duration, less one step, and
+ * until then is {@link TimePrice#NO_RATE}. With prices once
+ * a day and the step a day, a 50 day window is first output
+ * on the 50th day.
+ * </p>
+ * <p>Input is prices from Kafka, or {@link Candle} summaries
+ * using the closing price. Output, fixed-point arithmetic and
+ * snapshots are as for {@link MovingAverageProcessor}, the
+ * averages for all the windows being output together in one
+ * {@link TimePrices}.
+ * </p>
+ */
+public class TimeWindowAverageProcessor extends AbstractProcessor {
+
+	// Start when no price yet
+	private static final long NONE = Long.MIN_VALUE;
+	private static final int INITIAL_DEQUE_CAPACITY = 16;
+
+	private final GapFill gapFill;
+	private final long step;
+	private final long[] durations;
+	private final long longest;
+	private final CurrencyPairSlots currencyPairSlots;
+	private int capacity;
+	private PriceDeque[] deques;
+	private long[] sums;
+	private long[] starts;
+	private long[] firsts;
+	private TimePrices pending;
+	private Traverser<Entry<CurrencyPairKey, long[]>> snapshotTraverser;
+
+	/**
+	 * @param arg0 How to fill gaps between prices
+	 * @param arg1 Expected time between prices in milliseconds, eg. one day
+	 * @param arg2 Milliseconds to average over, for each average
+	 */
+	public TimeWindowAverageProcessor(GapFill arg0, long arg1, long... arg2) {
+		if (arg1 < 1) {
+			throw new IllegalArgumentException("Step " + arg1 + " not positive");
+		}
+		if (arg2.length == 0) {
+			throw new IllegalArgumentException("No durations");
+		}
+		long longest = 0;
+		for (long duration : arg2) {
+			if (duration < arg1) {
+				throw new IllegalArgumentException("Duration " + duration + " less than step " + arg1);
+			}
+			longest = Math.max(longest, duration);
+		}
+
+		this.gapFill = arg0;
+		this.step = arg1;
+		this.durations = arg2.clone();
+		this.longest = longest;
+		this.currencyPairSlots = new CurrencyPairSlots();
+		this.capacity = 0;
+		this.deques = new PriceDeque[0];
+		this.sums = new long[0];
+		this.starts = new long[0];
+		this.firsts = new long[0];
+	}
+
+	/**
+	 * <p>Add the price to its currency pair's windows, after any
+	 * prices to fill a gap before it, then evict what is now too
+	 * old and output the averages.
+	 * </p>
+	 * <p>As for {@link MovingAverageProcessor}, output refused is
+	 * held and retried without re-applying the input.
+	 * </p>
+	 *
+	 * @return True if processing passed on any necessary output
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess(int ordinal, Object item) {
+
+		// Retry of output previously refused
+		if (this.pending == null) {
+			CurrencyPairKey key;
+			long timestamp;
+			long rate;
+			if (item instanceof Candle) {
+				Candle candle = (Candle) item;
+				key = candle.getKey();
+				timestamp = candle.getStart();
+				rate = candle.getClose();
+			} else {
+				Entry<CurrencyPairKey, CurrencyPairValue>
+					data = (Entry<CurrencyPairKey, CurrencyPairValue>) item;
+				key = data.getKey();
+				timestamp = data.getValue().getTimestamp();
+				rate = data.getValue().getRate();
+			}
+
+			// Find this currency pair's state
+			int slot = this.currencyPairSlots.slotOf(key);
+			if (slot >= this.capacity) {
+				this.grow(slot);
+			}
+			PriceDeque deque = this.deques[slot];
+			int base = slot * this.durations.length;
+
+			if (this.firsts[slot] == NONE) {
+				this.firsts[slot] = timestamp;
+			} else {
+				long latest = deque.timestamp(deque.tail - 1);
+
+				// Late, drop it
+				if (timestamp < latest) {
+					return true;
+				}
+
+				// Duplicate, replace the latest, which is in every window
+				if (timestamp == latest) {
+					long previous = deque.rate(deque.tail - 1);
+					deque.setRate(deque.tail - 1, rate);
+					for (int i = 0 ; i < this.durations.length ; i++) {
+						this.sums[base + i] += rate - previous;
+					}
+					return this.emit(key, timestamp, slot);
+				}
+
+				if (this.gapFill != GapFill.NONE) {
+					this.fill(slot, latest, deque.rate(deque.tail - 1), timestamp, rate);
+				}
+			}
+
+			this.add(slot, timestamp, rate);
+			this.evict(slot, timestamp);
+			return this.emit(key, timestamp, slot);
+		}
+
+		// False if needs to back off and rerun
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Save each currency pair's state as a snapshot entry, keyed
+	 * by currency pair. The value is the first timestamp, then
+	 * the sum and start position for each window, then the
+	 * deque's timestamps and prices in pairs, all as {@code long}.
+	 * Positions are saved relative to the front of the deque.
+	 * </p>
+	 *
+	 * @return True once all are saved, false to be called again
+	 */
+	@Override
+	public boolean saveToSnapshot() {
+		if (this.snapshotTraverser == null) {
+			this.snapshotTraverser = Traversers.traverseStream(
+					IntStream.range(0, this.currencyPairSlots.size())
+					.<Entry<CurrencyPairKey, long[]>>mapToObj(slot ->
+						new SimpleImmutableEntry<>(this.currencyPairSlots.keyOf(slot), this.snapshotOf(slot))));
+		}
+
+		if (super.emitFromTraverserToSnapshot(this.snapshotTraverser)) {
+			this.snapshotTraverser = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Reload one currency pair's state, as saved by
+	 * {@link #saveToSnapshot()}.
+	 * </p>
+	 */
+	@Override
+	protected void restoreFromSnapshot(Object key, Object value) {
+		long[] state = (long[]) value;
+		int header = 1 + 2 * this.durations.length;
+		if (state.length < header || (state.length - header) % 2 != 0) {
+			throw new IllegalStateException("Snapshot for " + key + " has "
+					+ state.length + " items, durations are " + Arrays.toString(this.durations));
+		}
+
+		int slot = this.currencyPairSlots.slotOf(CurrencyPairKey.canonical((CurrencyPairKey) key));
+		if (slot >= this.capacity) {
+			this.grow(slot);
+		}
+		int base = slot * this.durations.length;
+
+		this.firsts[slot] = state[0];
+		for (int i = 0 ; i < this.durations.length ; i++) {
+			this.sums[base + i] = state[1 + 2 * i];
+			this.starts[base + i] = state[2 + 2 * i];
+		}
+		PriceDeque deque = new PriceDeque(INITIAL_DEQUE_CAPACITY);
+		for (int i = header ; i < state.length ; i += 2) {
+			deque.add(state[i], state[i + 1]);
+		}
+		this.deques[slot] = deque;
+	}
+
+	/**
+	 * <p>Copy one currency pair's state for a snapshot.
+	 * </p>
+	 */
+	private long[] snapshotOf(int slot) {
+		PriceDeque deque = this.deques[slot];
+		int base = slot * this.durations.length;
+		int header = 1 + 2 * this.durations.length;
+		long[] state = new long[header + 2 * deque.size()];
+
+		state[0] = this.firsts[slot];
+		for (int i = 0 ; i < this.durations.length ; i++) {
+			state[1 + 2 * i] = this.sums[base + i];
+			state[2 + 2 * i] = this.starts[base + i] - deque.head;
+		}
+		for (long i = deque.head ; i < deque.tail ; i++) {
+			int offset = header + 2 * (int) (i - deque.head);
+			state[offset] = deque.timestamp(i);
+			state[offset + 1] = deque.rate(i);
+		}
+		return state;
+	}
+
+	/**
+	 * <p>Add prices for each step missed between the latest
+	 * price and the next. Steps too old to be in the longest
+	 * window after the next price are skipped, they would only
+	 * be evicted.
+	 * </p>
+	 */
+	private void fill(int slot, long fromTimestamp, long fromRate, long toTimestamp, long toRate) {
+		long first = Math.max(1L, Math.floorDiv(toTimestamp - this.longest - fromTimestamp, this.step) + 1);
+		for (long k = first ; fromTimestamp + k * this.step < toTimestamp ; k++) {
+			long timestamp = fromTimestamp + k * this.step;
+			long rate;
+			if (this.gapFill == GapFill.LINEAR) {
+				// As double, the product of price and milliseconds could overflow
+				rate = fromRate + Math.round((double) (toRate - fromRate)
+						* (timestamp - fromTimestamp) / (toTimestamp - fromTimestamp));
+			} else {
+				rate = fromRate;
+			}
+			this.add(slot, timestamp, rate);
+		}
+	}
+
+	/**
+	 * <p>Add a price to the back of the deque and to every window.
+	 * </p>
+	 */
+	private void add(int slot, long timestamp, long rate) {
+		this.deques[slot].add(timestamp, rate);
+		int base = slot * this.durations.length;
+		for (int i = 0 ; i < this.durations.length ; i++) {
+			this.sums[base + i] += rate;
+		}
+	}
+
+	/**
+	 * <p>Move each window's start past prices no later than its
+	 * duration before the latest, subtracting them from its sum,
+	 * then drop prices no window needs from the front of the deque.
+	 * </p>
+	 */
+	private void evict(int slot, long latest) {
+		PriceDeque deque = this.deques[slot];
+		int base = slot * this.durations.length;
+		long head = deque.tail;
+
+		for (int i = 0 ; i < this.durations.length ; i++) {
+			long cutoff = latest - this.durations[i];
+			long start = this.starts[base + i];
+			while (start < deque.tail && deque.timestamp(start) <= cutoff) {
+				this.sums[base + i] -= deque.rate(start);
+				start++;
+			}
+			this.starts[base + i] = start;
+			head = Math.min(head, start);
+		}
+
+		deque.head = head;
+	}
+
+	/**
+	 * <p>Output the averages, unless no window is available yet.
+	 * </p>
+	 *
+	 * @return True if the output was accepted or there was none
+	 */
+	private boolean emit(CurrencyPairKey key, long timestamp, int slot) {
+		long[] averages = this.calculateAverages(slot, timestamp);
+
+		boolean any = false;
+		for (long average : averages) {
+			any |= (average != TimePrice.NO_RATE);
+		}
+		if (!any) {
+			return true;
+		}
+
+		this.pending = new TimePrices(key, timestamp, averages);
+		if (super.tryEmit(this.pending)) {
+			this.pending = null;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * <p>Divide each window's sum by the count of prices in it,
+	 * if the currency pair has prices back far enough.
+	 * </p>
+	 *
+	 * @return Averages, fixed-point, {@link TimePrice#NO_RATE} if not enough input
+	 */
+	private long[] calculateAverages(int slot, long latest) {
+		long[] averages = new long[this.durations.length];
+		PriceDeque deque = this.deques[slot];
+		int base = slot * this.durations.length;
+
+		for (int i = 0 ; i < this.durations.length ; i++) {
+			long count = deque.tail - this.starts[base + i];
+			if (this.firsts[slot] <= latest - this.durations[i] + this.step && count > 0) {
+				averages[i] = MovingAverageProcessor.divideHalfUp(this.sums[base + i], count);
+			} else {
+				averages[i] = TimePrice.NO_RATE;
+			}
+		}
+
+		return averages;
+	}
+
+	/**
+	 * <p>Make the state arrays big enough for another currency
+	 * pair, new entries having no prices.
+	 * </p>
+	 *
+	 * @param slot The slot that must fit
+	 */
+	private void grow(int slot) {
+		int oldCapacity = this.capacity;
+		this.capacity = CurrencyPairSlots.capacityFor(this.capacity, slot);
+		this.deques = Arrays.copyOf(this.deques, this.capacity);
+		this.sums = Arrays.copyOf(this.sums, this.capacity * this.durations.length);
+		this.starts = Arrays.copyOf(this.starts, this.capacity * this.durations.length);
+		this.firsts = Arrays.copyOf(this.firsts, this.capacity);
+		for (int i = oldCapacity ; i < this.capacity ; i++) {
+			this.deques[i] = new PriceDeque(INITIAL_DEQUE_CAPACITY);
+			this.firsts[i] = NONE;
+		}
+	}
+
+	/**
+	 * <p>Timestamps and prices in arrival order, added at the back
+	 * and removed from the front. Positions are counted from the
+	 * first ever added, so stay valid as the front moves, and are
+	 * mapped into arrays that double in size when full.
+	 * </p>
+	 */
+	private static final class PriceDeque {
+		private long[] timestamps;
+		private long[] rates;
+		private int mask;
+		private long head;
+		private long tail;
+
+		PriceDeque(int capacity) {
+			this.timestamps = new long[capacity];
+			this.rates = new long[capacity];
+			this.mask = capacity - 1;
+		}
+
+		int size() {
+			return (int) (this.tail - this.head);
+		}
+
+		long timestamp(long position) {
+			return this.timestamps[(int) (position & this.mask)];
+		}
+
+		long rate(long position) {
+			return this.rates[(int) (position & this.mask)];
+		}
+
+		void setRate(long position, long rate) {
+			this.rates[(int) (position & this.mask)] = rate;
+		}
+
+		void add(long timestamp, long rate) {
+			if (this.size() == this.timestamps.length) {
+				this.grow();
+			}
+			this.timestamps[(int) (this.tail & this.mask)] = timestamp;
+			this.rates[(int) (this.tail & this.mask)] = rate;
+			this.tail++;
+		}
+
+		private void grow() {
+			long[] timestamps = new long[this.timestamps.length * 2];
+			long[] rates = new long[this.rates.length * 2];
+			int mask = timestamps.length - 1;
+			for (long i = this.head ; i < this.tail ; i++) {
+				timestamps[(int) (i & mask)] = this.timestamp(i);
+				rates[(int) (i & mask)] = this.rate(i);
+			}
+			this.timestamps = timestamps;
+			this.rates = rates;
+			this.mask = mask;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.function.DistributedToLongFunction;
+
+/**
+ * <p>Drop output made while a chunk of a batch job was warming
+ * up, from the prices sent again from the end of the previous
+ * chunk by {@link HistorySourceProcessor}. That output is incomplete,
+ * and the previous chunk has the complete version.
+ * </p>
+ * <p>The edges from the source to here are isolated, so this
+ * processor only sees output from the chunk with the same
+ * index as itself.
+ * </p>
+ */
+public class WarmUpFilterProcessor<T> extends AbstractProcessor {
+
+	private final PriceHistory priceHistory;
+	private final DistributedToLongFunction<T> timestampFn;
+	private long chunkStartTime;
+
+	/**
+	 * @param arg0 All prices, to find where this chunk starts
+	 * @param arg1 The time an item is for
+	 */
+	public WarmUpFilterProcessor(PriceHistory arg0, DistributedToLongFunction<T> arg1) {
+		this.priceHistory = arg0;
+		this.timestampFn = arg1;
+	}
+
+	/**
+	 * <p>Work out where this processor's chunk starts.
+	 * </p>
+	 */
+	@Override
+	protected void init(Context context) throws Exception {
+		this.chunkStartTime = this.priceHistory.chunkStartTime(
+				context.globalProcessorIndex(), context.totalParallelism());
+	}
+
+	/**
+	 * <p>Pass on the item if it's for a time in the chunk proper.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected boolean tryProcess0(Object item) {
+		if (this.timestampFn.applyAsLong((T) item) < this.chunkStartTime) {
+			return true;
+		}
+		return super.tryEmit(item);
+	}
+
+}
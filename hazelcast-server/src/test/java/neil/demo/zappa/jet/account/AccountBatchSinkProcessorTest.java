@@ -0,0 +1,50 @@
+package neil.demo.zappa.jet.account;
+
+import static neil.demo.zappa.jet.account.AccountMergeEntryProcessorTest.record;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.function.DistributedFunctions;
+
+/**
+ * <p>Each account's offsets must only go up, or the entry
+ * processors would skip a transaction never applied.
+ * </p>
+ */
+public class AccountBatchSinkProcessorTest {
+
+	/**
+	 * <p>Accounts interleaved are each in order.
+	 * </p>
+	 */
+	@Test
+	public void inOrder() {
+		AccountBatchSinkProcessor<String> accountBatchSinkProcessor = processor();
+
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Frank", record(1L, "2018-02-01", 1d, false)));
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Gail", record(2L, "2018-02-01", 1d, false)));
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Frank", record(3L, "2018-02-01", 1d, false)));
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Gail", record(4L, "2018-02-01", 1d, false)));
+	}
+
+	/**
+	 * <p>A later offset for another account is fine, an earlier
+	 * one for the same account is not.
+	 * </p>
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void outOfOrder() {
+		AccountBatchSinkProcessor<String> accountBatchSinkProcessor = processor();
+
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Frank", record(3L, "2018-02-01", 1d, false)));
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Gail", record(4L, "2018-02-01", 1d, false)));
+		accountBatchSinkProcessor.checkOrder(new SimpleImmutableEntry<>("Frank", record(2L, "2018-02-01", 1d, false)));
+	}
+
+	private static AccountBatchSinkProcessor<String> processor() {
+		return new AccountBatchSinkProcessor<>("account", DistributedFunctions.entryKey(),
+				list -> new AccountMergeEntryProcessor(list));
+	}
+}
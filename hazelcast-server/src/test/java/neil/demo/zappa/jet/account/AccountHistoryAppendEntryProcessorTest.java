@@ -0,0 +1,67 @@
+package neil.demo.zappa.jet.account;
+
+import static neil.demo.zappa.jet.account.AccountMergeEntryProcessorTest.record;
+import static org.junit.Assert.assertEquals;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import neil.demo.zappa.AccountHistoryKey;
+import neil.demo.zappa.AccountHistoryPage;
+
+/**
+ * <p>Transactions are added to the page once, however often the
+ * topic is replayed.
+ * </p>
+ */
+public class AccountHistoryAppendEntryProcessorTest {
+
+	private static final AccountHistoryKey KEY = new AccountHistoryKey("Frank", "2018-02");
+
+	/**
+	 * <p>The first transactions of the month make the page.
+	 * </p>
+	 */
+	@Test
+	public void newPage() {
+		Entry<AccountHistoryKey, AccountHistoryPage> entry = new SimpleEntry<>(KEY, null);
+
+		new AccountHistoryAppendEntryProcessor(Arrays.asList(
+				record(6L, "2018-02-01", 10d, false),
+				record(7L, "2018-02-02", 3d, true)
+				)).process(entry);
+
+		assertEquals(7L, entry.getValue().getOffset());
+		assertEquals(2, entry.getValue().getTransactions().size());
+		assertEquals("2018-02-02", entry.getValue().getTransactions().get(1).getWhen().toString());
+	}
+
+	/**
+	 * <p>The same batch again, then read again from part way
+	 * through with one more, adds each transaction once.
+	 * </p>
+	 */
+	@Test
+	public void replay() {
+		Entry<AccountHistoryKey, AccountHistoryPage> entry = new SimpleEntry<>(KEY, null);
+		AccountHistoryAppendEntryProcessor accountHistoryAppendEntryProcessor =
+				new AccountHistoryAppendEntryProcessor(Arrays.asList(
+					record(6L, "2018-02-01", 10d, false),
+					record(7L, "2018-02-02", 3d, true)
+					));
+
+		accountHistoryAppendEntryProcessor.process(entry);
+		accountHistoryAppendEntryProcessor.process(entry);
+		new AccountHistoryAppendEntryProcessor(Arrays.asList(
+				record(7L, "2018-02-02", 3d, true),
+				record(9L, "2018-02-03", 4d, false)
+				)).process(entry);
+
+		assertEquals(9L, entry.getValue().getOffset());
+		assertEquals(3, entry.getValue().getTransactions().size());
+		assertEquals("2018-02-03", entry.getValue().getTransactions().get(2).getWhen().toString());
+	}
+}
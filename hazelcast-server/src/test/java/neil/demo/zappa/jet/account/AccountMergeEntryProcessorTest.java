@@ -0,0 +1,171 @@
+package neil.demo.zappa.jet.account;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import neil.demo.zappa.AccountBaseline;
+import neil.demo.zappa.AccountSummary;
+import neil.demo.zappa.AccountTransaction;
+
+/**
+ * <p>Transactions are applied once, however often the topic is
+ * replayed, after the account's baseline.
+ * </p>
+ */
+public class AccountMergeEntryProcessorTest {
+
+	/**
+	 * <p>A credit of 10 and a debit of 3 on 100.
+	 * </p>
+	 */
+	@Test
+	public void apply() {
+		Entry<String, AccountSummary> entry = summary(5L);
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				record(6L, "2018-02-01", 10d, false),
+				record(7L, "2018-02-02", 3d, true)
+				)).process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-01-01", "2018-02-02", 107d, 2L, 7L), entry.getValue());
+	}
+
+	/**
+	 * <p>The same batch again changes nothing.
+	 * </p>
+	 */
+	@Test
+	public void replay() {
+		Entry<String, AccountSummary> entry = summary(5L);
+		AccountMergeEntryProcessor accountMergeEntryProcessor = new AccountMergeEntryProcessor(Arrays.asList(
+				record(6L, "2018-02-01", 10d, false),
+				record(7L, "2018-02-02", 3d, true)
+				));
+
+		accountMergeEntryProcessor.process(entry);
+		accountMergeEntryProcessor.process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-01-01", "2018-02-02", 107d, 2L, 7L), entry.getValue());
+	}
+
+	/**
+	 * <p>A batch read again from part way through only applies
+	 * the offsets after the summary's.
+	 * </p>
+	 */
+	@Test
+	public void replayOverlap() {
+		Entry<String, AccountSummary> entry = summary(6L);
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				record(5L, "2018-01-31", 1_000d, false),
+				record(6L, "2018-02-01", 10d, false),
+				record(7L, "2018-02-02", 3d, true)
+				)).process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-01-01", "2018-02-02", 97d, 1L, 7L), entry.getValue());
+	}
+
+	/**
+	 * <p>The backup is given the same delta, and ends the same.
+	 * </p>
+	 */
+	@Test
+	public void backup() {
+		Entry<String, AccountSummary> entry = summary(5L);
+		Entry<String, AccountSummary> backup = summary(5L);
+		AccountMergeEntryProcessor accountMergeEntryProcessor = new AccountMergeEntryProcessor(Arrays.asList(
+				record(6L, "2018-02-01", 10d, false)
+				));
+
+		accountMergeEntryProcessor.process(entry);
+		accountMergeEntryProcessor.getBackupProcessor().processBackup(backup);
+
+		assertEquals(entry.getValue(), backup.getValue());
+	}
+
+	/**
+	 * <p>A baseline and the transactions after it in one batch, with
+	 * no summary yet, open the account before the transactions.
+	 * </p>
+	 */
+	@Test
+	public void baselineThenTransactions() {
+		Entry<String, AccountSummary> entry = new SimpleEntry<>("Frank", null);
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				baseline(1L, "2018-01-01", 100d),
+				record(2L, "2018-02-01", 10d, false),
+				record(3L, "2018-02-02", 3d, true)
+				)).process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-01-01", "2018-02-02", 107d, 2L, 3L), entry.getValue());
+	}
+
+	/**
+	 * <p>A baseline already applied, read again with a new
+	 * transaction, doesn't reset the balance.
+	 * </p>
+	 */
+	@Test
+	public void baselineReplay() {
+		Entry<String, AccountSummary> entry = summary(5L);
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				baseline(1L, "2018-01-01", 100d),
+				record(6L, "2018-02-01", 10d, false)
+				)).process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-01-01", "2018-02-01", 110d, 1L, 6L), entry.getValue());
+	}
+
+	/**
+	 * <p>Transactions with no baseline yet are counted from zero,
+	 * not dropped, and the baseline after them replaces the summary
+	 * as it is the balance as at its date.
+	 * </p>
+	 */
+	@Test
+	public void transactionsBeforeBaseline() {
+		Entry<String, AccountSummary> entry = new SimpleEntry<>("Frank", null);
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				record(1L, "2018-01-15", 10d, false)
+				)).process(entry);
+
+		assertEquals(new AccountSummary(null, "2018-01-15", "2018-01-15", 10d, 1L, 1L), entry.getValue());
+
+		new AccountMergeEntryProcessor(Arrays.asList(
+				baseline(2L, "2018-02-01", 100d),
+				record(3L, "2018-02-02", 5d, false)
+				)).process(entry);
+
+		assertEquals(new AccountSummary("Frank", "2018-02-01", "2018-02-02", 105d, 1L, 3L), entry.getValue());
+	}
+
+	private static Entry<String, AccountSummary> summary(long offset) {
+		return new SimpleEntry<>("Frank", new AccountSummary("Frank", "2018-01-01", "2018-01-01", 100d, 0L, offset));
+	}
+
+	static AccountRecord baseline(long offset, String when, double balance) {
+		AccountBaseline accountBaseline = new AccountBaseline();
+		accountBaseline.setWhen(when);
+		accountBaseline.setOwner("Frank");
+		accountBaseline.setBalance(balance);
+		return new AccountRecord(offset, accountBaseline);
+	}
+
+	static AccountRecord record(long offset, String when, double amount, boolean debit) {
+		AccountTransaction accountTransaction = new AccountTransaction();
+		accountTransaction.setWhen(when);
+		accountTransaction.setDescription("Test");
+		accountTransaction.setAmount(amount);
+		accountTransaction.setDebit(debit);
+		return new AccountRecord(offset, accountTransaction);
+	}
+}
@@ -0,0 +1,79 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+
+import neil.demo.zappa.BacktestResult;
+import neil.demo.zappa.CurrencyPairKey;
+
+/**
+ * <p>Crossover backtest on a short history worked through by hand.
+ * </p>
+ */
+public class BacktestProcessorTest {
+
+	private static final long[] RATES = { 10, 10, 10, 20, 30, 20, 10, 10, 40, 50, 10, 10, 30, 60 };
+	private static final PriceHistory PRICE_HISTORY = new PriceHistory(new CurrencyPairKey("BTC", "USD"),
+			LongStream.range(0, RATES.length).toArray(), RATES);
+
+	/**
+	 * <p>The price against its 3 point average. On the third price
+	 * they are equal, which isn't a cross either way. The price is
+	 * above from the fourth, falls below on the sixth with nothing
+	 * held, rises above on the ninth to buy at 40, falls below on the
+	 * eleventh to sell at 10, and rises above on the thirteenth to
+	 * buy at 30. That is still held at the end, so is valued at 60.
+	 * </p>
+	 */
+	@Test
+	public void run() {
+		BacktestProcessor backtestProcessor =
+				new BacktestProcessor(PRICE_HISTORY, PRICE_HISTORY.prefixSums(), new int[0], new int[0]);
+
+		assertEquals(new BacktestResult(1, 3, 4, 2, 1, 0L), backtestProcessor.run(1, 3));
+	}
+
+	/**
+	 * <p>Prices always equal to the average never cross.
+	 * </p>
+	 */
+	@Test
+	public void runFlat() {
+		long[] rates = new long[10];
+		Arrays.fill(rates, 123L);
+		PriceHistory priceHistory = new PriceHistory(PRICE_HISTORY.getKey(), new long[rates.length], rates);
+		BacktestProcessor backtestProcessor =
+				new BacktestProcessor(priceHistory, priceHistory.prefixSums(), new int[0], new int[0]);
+
+		assertEquals(new BacktestResult(2, 5, 0, 0, 0, 0L), backtestProcessor.run(2, 5));
+	}
+
+	/**
+	 * <p>Each short period with each longer long period, skipping
+	 * 2/2, keyed by the periods.
+	 * </p>
+	 */
+	@Test
+	public void grid() {
+		int[] shortPeriods = { 1, 2 };
+		int[] longPeriods = { 2, 3 };
+		BacktestProcessor backtestProcessor =
+				new BacktestProcessor(PRICE_HISTORY, PRICE_HISTORY.prefixSums(), shortPeriods, longPeriods);
+
+		TestSupport.verifyProcessor(() ->
+				new BacktestProcessor(PRICE_HISTORY, PRICE_HISTORY.prefixSums(), shortPeriods, longPeriods))
+			.disableSnapshots()
+			.expectOutput(Arrays.asList(
+					new SimpleImmutableEntry<>("1/2", backtestProcessor.run(1, 2)),
+					new SimpleImmutableEntry<>("1/3", backtestProcessor.run(1, 3)),
+					new SimpleImmutableEntry<>("2/3", backtestProcessor.run(2, 3))
+					));
+	}
+}
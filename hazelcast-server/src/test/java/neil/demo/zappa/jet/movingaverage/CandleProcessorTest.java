@@ -0,0 +1,60 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+
+import neil.demo.zappa.Candle;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+
+/**
+ * <p>Candles at 1 and 3 second resolutions, rolling over as
+ * later prices arrive.
+ * </p>
+ */
+public class CandleProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+
+	/**
+	 * <p>The price at 1.5s closes the first second. The price at
+	 * 3.2s closes the second second, which is merged into the
+	 * 3 second candle before that closes too. The price at 2.9s
+	 * is for a second already closed, so is dropped, and the
+	 * price at 4.1s closes the 3 second candle with only the
+	 * price at 3.2s in it.
+	 * </p>
+	 */
+	@Test
+	public void rollover() {
+		TestSupport.verifyProcessor(() -> new CandleProcessor(1_000L, 3_000L))
+			.input(Arrays.asList(
+					price(100L, 10L),
+					price(900L, 12L),
+					price(1_500L, 8L),
+					price(3_200L, 20L),
+					price(2_900L, 99L),
+					price(4_100L, 21L)
+					))
+			.expectOutput(Arrays.asList(
+					new Candle(BTC_USD, 0L, 1_000L, 10L, 12L, 10L, 12L, 2L),
+					new Candle(BTC_USD, 1_000L, 1_000L, 8L, 8L, 8L, 8L, 1L),
+					new Candle(BTC_USD, 0L, 3_000L, 10L, 12L, 8L, 8L, 3L),
+					new Candle(BTC_USD, 3_000L, 1_000L, 20L, 20L, 20L, 20L, 1L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void resolutionsNotMultiples() {
+		new CandleProcessor(1_000L, 1_500L);
+	}
+
+	private static Entry<CurrencyPairKey, CurrencyPairValue> price(long timestamp, long rate) {
+		return new SimpleImmutableEntry<>(BTC_USD, new CurrencyPairValue(timestamp, rate));
+	}
+}
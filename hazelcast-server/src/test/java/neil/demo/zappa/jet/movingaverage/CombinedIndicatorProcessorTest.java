@@ -0,0 +1,80 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Indicators calculated together from one of the prices in
+ * the averages' output, the same as each on its own.
+ * </p>
+ * <p>{@link TestSupport} saves and restores a snapshot between
+ * items, so this checks each indicator gets back its own part.
+ * </p>
+ */
+public class CombinedIndicatorProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final long NO = TimePrice.NO_RATE;
+
+	/**
+	 * <p>EMA(2) of 100, 300, 200 is 200 then 200. RSI(2) has a rise
+	 * of 200 and a fall of 100, so 100 - 100 / 3. The second price
+	 * in each input is ignored.
+	 * </p>
+	 */
+	@Test
+	public void combined() {
+		TestSupport.verifyProcessor(() -> new CombinedIndicatorProcessor(0, new EmaProcessor(2), new RsiProcessor(2)))
+			.input(Arrays.asList(
+					input(1, 100L),
+					input(2, 300L),
+					input(3, 200L)
+					))
+			.expectOutput(Arrays.asList(
+					output(2, 200L, NO),
+					output(3, 200L, 666_667L)
+					));
+	}
+
+	/**
+	 * <p>A replaced price replaces in every indicator, a late
+	 * price is dropped by all, and input with no price is skipped.
+	 * </p>
+	 */
+	@Test
+	public void duplicateAndLate() {
+		TestSupport.verifyProcessor(() -> new CombinedIndicatorProcessor(0, new EmaProcessor(2), new RsiProcessor(2)))
+			.input(Arrays.asList(
+					input(1, 100L),
+					input(2, 300L),
+					input(3, 200L),
+					input(3, 400L),
+					input(2, 999L),
+					input(4, NO)
+					))
+			.expectOutput(Arrays.asList(
+					output(2, 200L, NO),
+					output(3, 200L, 666_667L),
+					output(3, 333L, 1_000_000L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noIndicators() {
+		new CombinedIndicatorProcessor(0);
+	}
+
+	private static TimePrices input(long day, long rate) {
+		return new TimePrices(BTC_USD, TimePrice.toTimestamp(day), new long[] { rate, 123L });
+	}
+
+	private static TimePrices output(long day, long... rates) {
+		return new TimePrices(BTC_USD, TimePrice.toTimestamp(day), rates);
+	}
+}
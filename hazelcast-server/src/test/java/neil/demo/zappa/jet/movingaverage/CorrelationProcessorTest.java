@@ -0,0 +1,174 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestOutbox;
+import com.hazelcast.jet.core.test.TestProcessorContext;
+
+import neil.demo.zappa.Correlation;
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Currency pairs priced at the same timestamps, arriving in
+ * either order, are correlated on the same intervals. A price
+ * touches one row of the matrix, and the state for 200 currency
+ * pairs is under a megabyte.
+ * </p>
+ * <p>The correlation is a ratio of floating point sums, so is
+ * checked to within rounding rather than with
+ * {@link com.hazelcast.jet.core.test.TestSupport TestSupport}.
+ * </p>
+ */
+public class CorrelationProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final CurrencyPairKey ETH_USD = new CurrencyPairKey("ETH", "USD");
+	private static final long DAY = 24 * 60 * 60 * 1_000L;
+	private static final long[] PRICES = {
+			1_000_000L, 1_020_000L, 990_000L, 1_010_000L, 1_050_000L,
+			1_030_000L, 1_000_000L, 1_040_000L, 1_060_000L, 1_020_000L
+	};
+
+	private CorrelationProcessor correlationProcessor;
+	private TestOutbox outbox;
+
+	@Before
+	public void setUp() throws Exception {
+		this.correlationProcessor = new CorrelationProcessor("fx", 30 * DAY, DAY);
+		this.outbox = new TestOutbox(PRICES.length * 2);
+		this.correlationProcessor.init(this.outbox, new TestProcessorContext());
+	}
+
+	/**
+	 * <p>Two identical series have a correlation of 1, though the
+	 * first price of each day alternates between them.
+	 * </p>
+	 */
+	@Test
+	public void identical() {
+		for (int day = 0 ; day < PRICES.length ; day++) {
+			CurrencyPairKey first = (day % 2 == 0 ? BTC_USD : ETH_USD);
+			CurrencyPairKey second = (day % 2 == 0 ? ETH_USD : BTC_USD);
+			this.process(first, day, PRICES[day]);
+			this.process(second, day, PRICES[day]);
+		}
+		this.process(BTC_USD, PRICES.length, PRICES[0]);
+
+		assertEquals(1d, this.last().get(0, 1), 1e-12);
+	}
+
+	/**
+	 * <p>A series and its reciprocal have opposite returns, so
+	 * a correlation of -1.
+	 * </p>
+	 */
+	@Test
+	public void opposite() {
+		for (int day = 0 ; day < PRICES.length ; day++) {
+			this.process(ETH_USD, day, 1_000_000_000_000L / PRICES[day]);
+			this.process(BTC_USD, day, PRICES[day]);
+		}
+		this.process(BTC_USD, PRICES.length, PRICES[0]);
+
+		assertEquals(-1d, this.last().get(0, 1), 1e-6);
+	}
+
+	/**
+	 * <p>A price for a day before the latest joins the latest day,
+	 * rather than being lost.
+	 * </p>
+	 */
+	@Test
+	public void late() {
+		for (int day = 0 ; day < PRICES.length ; day++) {
+			this.process(BTC_USD, day, PRICES[day]);
+			this.process(ETH_USD, day == 0 ? 0 : day - 1, PRICES[day]);
+		}
+		this.process(BTC_USD, PRICES.length, PRICES[0]);
+
+		assertEquals(1d, this.last().get(0, 1), 1e-12);
+	}
+
+	/**
+	 * <p>Pair 7 misses day 1, so its return to day 2 covers two
+	 * days, over which every other pair moved. Applying it changes
+	 * its row of the matrix and nothing else.
+	 * </p>
+	 */
+	@Test
+	public void onePriceOneRow() {
+		int size = 200;
+		int moved = 7;
+		for (int i = 0 ; i < size ; i++) {
+			this.process(currencyPair(i), 0, 1_000_000L + i * 1_000L);
+		}
+		for (int i = 0 ; i < size ; i++) {
+			if (i != moved) {
+				this.process(currencyPair(i), 1, 1_010_000L + i * 1_007L);
+			}
+		}
+		this.process(currencyPair(moved), 2, 1_020_000L);
+		double[] before = this.correlationProcessor.sums();
+
+		this.process(currencyPair(0), 3, 1_000_000L);
+		double[] after = this.correlationProcessor.sums();
+
+		int changed = 0;
+		for (int i = 0 ; i < size ; i++) {
+			for (int j = 0 ; j <= i ; j++) {
+				if (before[Correlation.index(i, j)] != after[Correlation.index(i, j)]) {
+					assertTrue(i + "," + j, i == moved || j == moved);
+					changed++;
+				}
+			}
+		}
+		assertEquals(size, changed);
+	}
+
+	/**
+	 * <p>200 currency pairs fit in a capacity of 256, the anchors
+	 * are its square, the sums its triangle. Under 1 megabyte as
+	 * {@code double}.
+	 * </p>
+	 */
+	@Test
+	public void stateSize() {
+		for (int i = 0 ; i < 200 ; i++) {
+			this.process(currencyPair(i), 0, 1_000_000L);
+		}
+
+		int capacity = 256;
+		assertEquals(3 * capacity + capacity * capacity + Correlation.index(capacity, 0),
+				this.correlationProcessor.stateLength());
+		assertTrue(this.correlationProcessor.stateLength() * Double.BYTES < 1024 * 1024);
+	}
+
+	private static CurrencyPairKey currencyPair(int i) {
+		return new CurrencyPairKey("C" + i, "USD");
+	}
+
+	private void process(CurrencyPairKey key, long day, long rate) {
+		Entry<CurrencyPairKey, CurrencyPairValue> entry
+			= new SimpleImmutableEntry<>(key, new CurrencyPairValue(TimePrice.toTimestamp(day), rate));
+		assertTrue(this.correlationProcessor.tryProcess0(entry));
+	}
+
+	@SuppressWarnings("unchecked")
+	private Correlation last() {
+		Object item = null;
+		for (Object next = this.outbox.queueWithOrdinal(0).poll() ; next != null ;
+				next = this.outbox.queueWithOrdinal(0).poll()) {
+			item = next;
+		}
+		return ((Entry<String, Correlation>) item).getValue();
+	}
+}
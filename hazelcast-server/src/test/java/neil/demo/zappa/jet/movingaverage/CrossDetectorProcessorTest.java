@@ -0,0 +1,93 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+import com.hazelcast.jet.datamodel.Tuple3;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Crosses of a fast indicator over a slow one, with the day's
+ * values replaced and a late day.
+ * </p>
+ * <p>{@link TestSupport} saves and restores a snapshot between
+ * items, so this checks both days kept come back.
+ * </p>
+ */
+public class CrossDetectorProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final CrossoverRule RULE = new CrossoverRule("Fast/Slow", 0, 1);
+
+	/**
+	 * <p>Day 2 crosses upward, then is replaced by values that
+	 * don't cross, so day 3 crosses upward again from the replaced
+	 * values. The late day 2 is ignored. Day 3 is replaced below,
+	 * so day 4 crosses upward, and day 5 downward. Day 5 replaced
+	 * above no longer crosses, so has no alert.
+	 * </p>
+	 */
+	@Test
+	public void crossReplacedAndLate() {
+		TestSupport.verifyProcessor(() -> new CrossDetectorProcessor(2, RULE))
+			.input(Arrays.asList(
+					input(1, 10L, 20L),
+					input(2, 30L, 20L),
+					input(2, 15L, 20L),
+					input(3, 25L, 20L),
+					input(2, 5L, 20L),
+					input(3, 10L, 20L),
+					input(4, 30L, 20L),
+					input(5, 10L, 20L),
+					input(5, 25L, 20L)
+					))
+			.expectOutput(Arrays.asList(
+					alert(2, CrossDetectorProcessor.UPWARD, 30L, 20L),
+					alert(3, CrossDetectorProcessor.UPWARD, 25L, 20L),
+					alert(4, CrossDetectorProcessor.UPWARD, 30L, 20L),
+					alert(5, CrossDetectorProcessor.DOWNWARD, 10L, 20L)
+					));
+	}
+
+	/**
+	 * <p>A replaced day that now crosses is alerted, compared with
+	 * the day before rather than the values it replaces.
+	 * </p>
+	 */
+	@Test
+	public void replacedCrosses() {
+		TestSupport.verifyProcessor(() -> new CrossDetectorProcessor(2, RULE))
+			.input(Arrays.asList(
+					input(1, 10L, 20L),
+					input(2, 15L, 20L),
+					input(2, 30L, 20L)
+					))
+			.expectOutput(Arrays.asList(
+					alert(2, CrossDetectorProcessor.UPWARD, 30L, 20L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void ruleOutsidePrices() {
+		new CrossDetectorProcessor(1, RULE);
+	}
+
+	private static TimePrices input(long day, long fast, long slow) {
+		return new TimePrices(BTC_USD, TimePrice.toTimestamp(day), new long[] { fast, slow });
+	}
+
+	private static Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>
+		alert(long day, String trend, long fast, long slow) {
+		return new SimpleImmutableEntry<>(
+				Tuple3.tuple3(LocalDate.ofEpochDay(day), "BTC/USD", RULE.getName()),
+				Tuple3.tuple3(trend, TimePrice.toBigDecimal(fast), TimePrice.toBigDecimal(slow)));
+	}
+}
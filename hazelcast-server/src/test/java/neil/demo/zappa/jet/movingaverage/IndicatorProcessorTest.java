@@ -0,0 +1,256 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Each indicator against values worked out by hand, on
+ * small periods so the warm-up is short.
+ * </p>
+ * <p>{@link TestSupport} also saves and restores a snapshot
+ * between items, and offers output one item at a time, so
+ * this checks the state survives both.
+ * </p>
+ */
+public class IndicatorProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final CurrencyPairKey ETH_USD = new CurrencyPairKey("ETH", "USD");
+	private static final long NO = TimePrice.NO_RATE;
+
+	/**
+	 * <p>EMA(3) of 10, 20, 30, 40 is seeded as 20 from the first
+	 * three, then moves half way to 40.
+	 * </p>
+	 */
+	@Test
+	public void ema() {
+		TestSupport.verifyProcessor(() -> new EmaProcessor(3))
+			.input(prices(BTC_USD, 10_000L, 20_000L, 30_000L, 40_000L))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 3, 20_000L),
+					output(BTC_USD, 4, 30_000L)
+					));
+	}
+
+	/**
+	 * <p>Currency pairs interleaved don't share state, the second
+	 * pair's average is ready a price later.
+	 * </p>
+	 */
+	@Test
+	public void emaPerCurrencyPair() {
+		List<Entry<CurrencyPairKey, CurrencyPairValue>> input = new ArrayList<>();
+		input.add(price(BTC_USD, 1, 10_000L));
+		input.add(price(ETH_USD, 1, 100L));
+		input.add(price(BTC_USD, 2, 30_000L));
+		input.add(price(ETH_USD, 2, 200L));
+		input.add(price(ETH_USD, 3, 600L));
+
+		TestSupport.verifyProcessor(() -> new EmaProcessor(2))
+			.input(input)
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 20_000L),
+					output(ETH_USD, 2, 150L),
+					output(ETH_USD, 3, 450L)
+					));
+	}
+
+	/**
+	 * <p>RSI(2) of 100, 110, 105, 115. After the first two changes
+	 * average gain is 5 and loss 2.5, so 100 - 100 / 3. Then gain
+	 * is (5 + 10) / 2 and loss 2.5 / 2, so 100 - 100 / 7.
+	 * </p>
+	 */
+	@Test
+	public void rsi() {
+		TestSupport.verifyProcessor(() -> new RsiProcessor(2))
+			.input(prices(BTC_USD, 1_000_000L, 1_100_000L, 1_050_000L, 1_150_000L))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 3, 666_667L),
+					output(BTC_USD, 4, 857_143L)
+					));
+	}
+
+	/**
+	 * <p>No falls is 100, no change at all is 50.
+	 * </p>
+	 */
+	@Test
+	public void rsiLimits() {
+		TestSupport.verifyProcessor(() -> new RsiProcessor(2))
+			.input(prices(BTC_USD, 100L, 200L, 300L))
+			.expectOutput(Arrays.asList(output(BTC_USD, 3, 1_000_000L)));
+
+		TestSupport.verifyProcessor(() -> new RsiProcessor(2))
+			.input(prices(BTC_USD, 100L, 100L, 100L))
+			.expectOutput(Arrays.asList(output(BTC_USD, 3, 500_000L)));
+	}
+
+	/**
+	 * <p>MACD(2, 3, 2) of 100, 200, 400, 300. The third price gives
+	 * 316.67 - 233.33, the fourth 305.56 - 266.67 and a signal
+	 * seeded from the average of both.
+	 * </p>
+	 */
+	@Test
+	public void macd() {
+		TestSupport.verifyProcessor(() -> new MacdProcessor(2, 3, 2))
+			.input(prices(BTC_USD, 100L, 200L, 400L, 300L))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 3, 83L, NO, NO),
+					output(BTC_USD, 4, 39L, 61L, -22L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void macdFastNotLessThanSlow() {
+		new MacdProcessor(26, 12, 9);
+	}
+
+	/**
+	 * <p>Bollinger(2, 2) of 100, 300, 500. Each pair is 100
+	 * either side of its average, so the bands are 200 away.
+	 * </p>
+	 */
+	@Test
+	public void bollinger() {
+		TestSupport.verifyProcessor(() -> new BollingerProcessor(2, 2.0))
+			.input(prices(BTC_USD, 100L, 300L, 500L))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 200L, 400L, 0L),
+					output(BTC_USD, 3, 400L, 600L, 200L)
+					));
+	}
+
+	/**
+	 * <p>After many wraps of the ringbuffer, and part way between
+	 * recalculations, a flat price has bands of zero width with
+	 * nothing left over from earlier prices.
+	 * </p>
+	 */
+	@Test
+	public void bollingerNoDrift() {
+		long[] rates = new long[1_010];
+		for (int i = 0 ; i < rates.length ; i++) {
+			rates[i] = (i < rates.length - 20 ? 1_000_000L + (i % 7) * 123_457L : 654_321L);
+		}
+
+		// One currency pair, state and history at the start of the arrays
+		BollingerProcessor bollingerProcessor = new BollingerProcessor(20, 2.0);
+		bollingerProcessor.state = new double[2];
+		bollingerProcessor.history = new long[20];
+
+		long[] output = new long[3];
+		for (int i = 0 ; i < rates.length ; i++) {
+			bollingerProcessor.update(rates[i], i, 0, 0, output);
+		}
+
+		assertEquals(654_321L, output[0]);
+		assertEquals(654_321L, output[1]);
+		assertEquals(654_321L, output[2]);
+	}
+
+	/**
+	 * <p>EMA(2) of 10 and 30 is 20. A second price for day 2 of 50
+	 * replaces the 30, so the seed is 30. A late price for day 1
+	 * is dropped, and 60 on day 3 moves two thirds of the way
+	 * from 30.
+	 * </p>
+	 */
+	@Test
+	public void emaDuplicateAndLate() {
+		TestSupport.verifyProcessor(() -> new EmaProcessor(2))
+			.input(Arrays.asList(
+					price(BTC_USD, 1, 10_000L),
+					price(BTC_USD, 2, 30_000L),
+					price(BTC_USD, 2, 50_000L),
+					price(BTC_USD, 1, 99_000L),
+					price(BTC_USD, 3, 60_000L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 20_000L),
+					output(BTC_USD, 2, 30_000L),
+					output(BTC_USD, 3, 50_000L)
+					));
+	}
+
+	/**
+	 * <p>RSI(2) of 100, 110, 105 is as in {@link #rsi()}. Replacing
+	 * 105 with 120 makes both changes rises, so 100. Then 115 is as
+	 * if the rises were the only ones, average gain 5 and loss 2.5.
+	 * </p>
+	 */
+	@Test
+	public void rsiDuplicate() {
+		TestSupport.verifyProcessor(() -> new RsiProcessor(2))
+			.input(Arrays.asList(
+					price(BTC_USD, 1, 1_000_000L),
+					price(BTC_USD, 2, 1_100_000L),
+					price(BTC_USD, 3, 1_050_000L),
+					price(BTC_USD, 3, 1_200_000L),
+					price(BTC_USD, 4, 1_150_000L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 3, 666_667L),
+					output(BTC_USD, 3, 1_000_000L),
+					output(BTC_USD, 4, 666_667L)
+					));
+	}
+
+	/**
+	 * <p>Bollinger(2, 2) of 100 and 300, then 500 replacing the 300,
+	 * is 300 with 200 either side. When 100 follows, the 100 before
+	 * is evicted, not the 300 that was replaced.
+	 * </p>
+	 */
+	@Test
+	public void bollingerDuplicate() {
+		TestSupport.verifyProcessor(() -> new BollingerProcessor(2, 2.0))
+			.input(Arrays.asList(
+					price(BTC_USD, 1, 100L),
+					price(BTC_USD, 2, 300L),
+					price(BTC_USD, 2, 500L),
+					price(BTC_USD, 3, 100L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 200L, 400L, 0L),
+					output(BTC_USD, 2, 300L, 700L, -100L),
+					output(BTC_USD, 3, 300L, 700L, -100L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void periodNotPositive() {
+		new EmaProcessor(12, 0);
+	}
+
+	private static List<Entry<CurrencyPairKey, CurrencyPairValue>> prices(CurrencyPairKey key, long... rates) {
+		List<Entry<CurrencyPairKey, CurrencyPairValue>> result = new ArrayList<>();
+		for (int i = 0 ; i < rates.length ; i++) {
+			result.add(price(key, i + 1, rates[i]));
+		}
+		return result;
+	}
+
+	private static Entry<CurrencyPairKey, CurrencyPairValue> price(CurrencyPairKey key, long day, long rate) {
+		return new SimpleImmutableEntry<>(key, new CurrencyPairValue(TimePrice.toTimestamp(day), rate));
+	}
+
+	private static TimePrices output(CurrencyPairKey key, long day, long... rates) {
+		return new TimePrices(key, TimePrice.toTimestamp(day), rates);
+	}
+}
@@ -0,0 +1,51 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.Test;
+
+/**
+ * <p>Fixed-point rounding, checked against {@link BigDecimal}.
+ * </p>
+ */
+public class MovingAverageProcessorTest {
+
+	@Test
+	public void divideHalfUpRoundsHalvesAwayFromZero() {
+		assertEquals(3L, MovingAverageProcessor.divideHalfUp(5L, 2L));
+		assertEquals(-3L, MovingAverageProcessor.divideHalfUp(-5L, 2L));
+		assertEquals(2L, MovingAverageProcessor.divideHalfUp(7L, 3L));
+		assertEquals(-2L, MovingAverageProcessor.divideHalfUp(-7L, 3L));
+		assertEquals(0L, MovingAverageProcessor.divideHalfUp(0L, 50L));
+	}
+
+	@Test
+	public void divideHalfUpMatchesBigDecimal() {
+		for (long dividend = -1_000L ; dividend <= 1_000L ; dividend++) {
+			for (long divisor = 1L ; divisor <= 13L ; divisor++) {
+				long expected = BigDecimal.valueOf(dividend)
+						.divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP).longValueExact();
+				assertEquals(dividend + "/" + divisor, expected, MovingAverageProcessor.divideHalfUp(dividend, divisor));
+			}
+		}
+	}
+
+	/**
+	 * <p>1.0049 and 1.0050 average 1.00495, which is 1.00 to 2
+	 * places. Scaling the divisor rounds once and gets this,
+	 * rounding to 4 places then 2 would give 1.01.
+	 * </p>
+	 */
+	@Test
+	public void scaledDivisorRoundsOnce() {
+		long sum = 10049L + 10050L;
+
+		assertEquals(100L, MovingAverageProcessor.divideHalfUp(sum, 2 * 100L));
+		assertEquals(101L, MovingAverageProcessor.divideHalfUp(
+				MovingAverageProcessor.divideHalfUp(sum, 2L), 100L));
+	}
+
+}
@@ -0,0 +1,165 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+import com.hazelcast.jet.datamodel.Tuple3;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>The mean and variance of the changes, the z-score against the
+ * threshold, and what happens after a spike.
+ * </p>
+ * <p>A period of 5 gives weight {@code 1 / n} to the first 3
+ * changes and {@code 1 / 3} after. The warm up prices move up to
+ * 2% a day, and spikes are looked for after the 5th change.
+ * </p>
+ */
+public class SpikeDetectorProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final String NAME = "Z-Score 4";
+	private static final int PERIOD = 5;
+	private static final double THRESHOLD = 4d;
+	private static final long[] WARM_UP = {
+			1_000_000L, 1_010_000L, 1_000_000L, 1_020_000L, 1_010_000L,
+			1_000_000L, 1_015_000L, 1_005_000L, 1_000_000L, 1_010_000L
+	};
+
+	/**
+	 * <p>The first 3 changes give their exact mean and population
+	 * variance, as Welford's method. The next 2 are weighted
+	 * {@code 2 / (period + 1)}, decaying the earlier ones.
+	 * </p>
+	 */
+	@Test
+	public void welfordThenExponential() {
+		SpikeDetectorProcessor spikeDetectorProcessor = new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD);
+		double[] changes = new double[5];
+		for (int i = 0 ; i <= changes.length ; i++) {
+			spikeDetectorProcessor.tryProcess0(input(i + 1, WARM_UP[i]));
+			if (i > 0) {
+				changes[i - 1] = (double) (WARM_UP[i] - WARM_UP[i - 1]) / WARM_UP[i - 1];
+			}
+		}
+
+		double mean = (changes[0] + changes[1] + changes[2]) / 3;
+		double variance = (Math.pow(changes[0] - mean, 2) + Math.pow(changes[1] - mean, 2)
+				+ Math.pow(changes[2] - mean, 2)) / 3;
+		double alpha = 2d / (PERIOD + 1);
+		for (int i = 3 ; i < changes.length ; i++) {
+			double difference = changes[i] - mean;
+			mean += alpha * difference;
+			variance = (1 - alpha) * (variance + alpha * difference * difference);
+		}
+
+		double[] stats = spikeDetectorProcessor.statsOf(BTC_USD);
+		assertEquals(mean, stats[0], 1e-15);
+		assertEquals(variance, stats[1], 1e-15);
+	}
+
+	/**
+	 * <p>A price whose change is just inside the threshold's
+	 * standard deviations is not a spike, the next price up is.
+	 * </p>
+	 */
+	@Test
+	public void thresholdEdge() {
+		SpikeDetectorProcessor spikeDetectorProcessor = new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD);
+		for (int i = 0 ; i < WARM_UP.length ; i++) {
+			spikeDetectorProcessor.tryProcess0(input(i + 1, WARM_UP[i]));
+		}
+		double[] stats = spikeDetectorProcessor.statsOf(BTC_USD);
+		long previous = WARM_UP[WARM_UP.length - 1];
+		long inside = (long) Math.floor(previous * (1 + stats[0] + THRESHOLD * Math.sqrt(stats[1])));
+		long outside = inside + 1;
+		long day = WARM_UP.length + 1;
+
+		TestSupport.verifyProcessor(() -> new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD))
+			.input(warmUpAnd(input(day, inside)))
+			.expectOutput(Collections.emptyList());
+
+		TestSupport.verifyProcessor(() -> new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD))
+			.input(warmUpAnd(input(day, outside)))
+			.expectOutput(Arrays.asList(
+					alert(day, SpikeDetectorProcessor.SPIKE_UP, outside, previous)
+					));
+	}
+
+	/**
+	 * <p>A bad tick up is alerted once, and the return to the price
+	 * before is not. A fall followed by a price close to it is the
+	 * price moving, alerted once and then taken as the new level.
+	 * </p>
+	 */
+	@Test
+	public void spikeThenReturnOrMove() {
+		long day = WARM_UP.length;
+
+		TestSupport.verifyProcessor(() -> new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD))
+			.input(warmUpAnd(
+					input(day + 1, 2_000_000L),
+					input(day + 2, 1_005_000L),
+					input(day + 3, 500_000L),
+					input(day + 4, 505_000L),
+					input(day + 5, 510_000L)
+					))
+			.expectOutput(Arrays.asList(
+					alert(day + 1, SpikeDetectorProcessor.SPIKE_UP, 2_000_000L, 1_010_000L),
+					alert(day + 3, SpikeDetectorProcessor.SPIKE_DOWN, 500_000L, 1_005_000L)
+					));
+	}
+
+	/**
+	 * <p>A zero price can't be measured from, so isn't the first
+	 * level, and after that is a spike down even while warming up.
+	 * </p>
+	 */
+	@Test
+	public void zeroPrice() {
+		TestSupport.verifyProcessor(() -> new SpikeDetectorProcessor(NAME, PERIOD, THRESHOLD))
+			.input(Arrays.asList(
+					input(1, 0L),
+					input(2, 1_000_000L),
+					input(3, 0L),
+					input(4, 1_010_000L)
+					))
+			.expectOutput(Arrays.asList(
+					alert(3, SpikeDetectorProcessor.SPIKE_DOWN, 0L, 1_000_000L)
+					));
+	}
+
+	private static List<Object> warmUpAnd(Object... items) {
+		List<Object> input = new ArrayList<>();
+		for (int i = 0 ; i < WARM_UP.length ; i++) {
+			input.add(input(i + 1, WARM_UP[i]));
+		}
+		input.addAll(Arrays.asList(items));
+		return input;
+	}
+
+	private static Entry<CurrencyPairKey, CurrencyPairValue> input(long day, long rate) {
+		return new SimpleImmutableEntry<>(BTC_USD, new CurrencyPairValue(TimePrice.toTimestamp(day), rate));
+	}
+
+	private static Entry<Tuple3<LocalDate, String, String>, Tuple3<String, BigDecimal, BigDecimal>>
+		alert(long day, String direction, long rate, long previous) {
+		return new SimpleImmutableEntry<>(
+				Tuple3.tuple3(LocalDate.ofEpochDay(day), "BTC/USD", NAME),
+				Tuple3.tuple3(direction, TimePrice.toBigDecimal(rate), TimePrice.toBigDecimal(previous)));
+	}
+}
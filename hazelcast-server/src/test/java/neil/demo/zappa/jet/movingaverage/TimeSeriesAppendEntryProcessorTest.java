@@ -0,0 +1,54 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import neil.demo.zappa.TimePrice;
+import neil.demo.zappa.TimeSeriesBlock;
+import neil.demo.zappa.TimeSeriesKey;
+
+/**
+ * <p>Appending changes the block in place, and the backup is
+ * given the same price to append.
+ * </p>
+ */
+public class TimeSeriesAppendEntryProcessorTest {
+
+	private static final TimeSeriesKey KEY = new TimeSeriesKey("BTC/USD", "Current", 24_225L);
+
+	@Test
+	public void append() {
+		Entry<TimeSeriesKey, TimeSeriesBlock> entry = new SimpleEntry<>(KEY, null);
+
+		new TimeSeriesAppendEntryProcessor(1L, 10L).process(entry);
+		TimeSeriesBlock block = entry.getValue();
+		new TimeSeriesAppendEntryProcessor(3L, 30L).process(entry);
+		new TimeSeriesAppendEntryProcessor(2L, 20L).process(entry);
+		new TimeSeriesAppendEntryProcessor(3L, 33L).process(entry);
+
+		assertSame(block, entry.getValue());
+		assertEquals(Arrays.asList(new TimePrice(1L, 10L), new TimePrice(2L, 20L), new TimePrice(3L, 33L)),
+				block.range(Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void backup() {
+		Entry<TimeSeriesKey, TimeSeriesBlock> entry = new SimpleEntry<>(KEY, null);
+		Entry<TimeSeriesKey, TimeSeriesBlock> backup = new SimpleEntry<>(KEY, null);
+
+		for (long i = 1 ; i <= 40 ; i++) {
+			TimeSeriesAppendEntryProcessor timeSeriesAppendEntryProcessor = new TimeSeriesAppendEntryProcessor(i, i * 10);
+			timeSeriesAppendEntryProcessor.process(entry);
+			timeSeriesAppendEntryProcessor.getBackupProcessor().processBackup(backup);
+		}
+
+		assertEquals(entry.getValue().range(Long.MIN_VALUE, Long.MAX_VALUE),
+				backup.getValue().range(Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+}
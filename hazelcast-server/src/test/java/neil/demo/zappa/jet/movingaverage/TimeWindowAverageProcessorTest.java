@@ -0,0 +1,128 @@
+package neil.demo.zappa.jet.movingaverage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import com.hazelcast.jet.core.test.TestSupport;
+
+import neil.demo.zappa.CurrencyPairKey;
+import neil.demo.zappa.CurrencyPairValue;
+import neil.demo.zappa.TimePrice;
+
+/**
+ * <p>Averages over 2 and 3 days, with prices once a day, for each
+ * way of filling a gap, and for duplicate and late prices.
+ * </p>
+ * <p>{@link TestSupport} saves and restores a snapshot between
+ * items, so each test is also a snapshot round trip of the
+ * deque, the sums and the window starts.
+ * </p>
+ */
+public class TimeWindowAverageProcessorTest {
+
+	private static final CurrencyPairKey BTC_USD = new CurrencyPairKey("BTC", "USD");
+	private static final CurrencyPairKey ETH_USD = new CurrencyPairKey("ETH", "USD");
+	private static final long DAY = 24 * 60 * 60 * 1_000L;
+	private static final long NO = TimePrice.NO_RATE;
+
+	/**
+	 * <p>Day 3 is missed and filled with day 2's 200, so the 2 day
+	 * average on day 4 is of 200 and 400, and the 3 day of 200,
+	 * 200 and 400. Days 5 to 9 are missed too, only days 8 and 9
+	 * are filled with day 4's 400, earlier would be evicted.
+	 * </p>
+	 */
+	@Test
+	public void gapFillPrevious() {
+		TestSupport.verifyProcessor(() -> new TimeWindowAverageProcessor(GapFill.PREVIOUS, DAY, 2 * DAY, 3 * DAY))
+			.input(Arrays.asList(
+					input(BTC_USD, 1, 100L),
+					input(BTC_USD, 2, 200L),
+					input(BTC_USD, 4, 400L),
+					input(BTC_USD, 10, 1_000L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 150L, NO),
+					output(BTC_USD, 4, 300L, 267L),
+					output(BTC_USD, 10, 700L, 600L)
+					));
+	}
+
+	/**
+	 * <p>Day 3 is filled with 300, half way from 200 to 400.
+	 * </p>
+	 */
+	@Test
+	public void gapFillLinear() {
+		TestSupport.verifyProcessor(() -> new TimeWindowAverageProcessor(GapFill.LINEAR, DAY, 2 * DAY, 3 * DAY))
+			.input(Arrays.asList(
+					input(BTC_USD, 1, 100L),
+					input(BTC_USD, 2, 200L),
+					input(BTC_USD, 4, 400L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 150L, NO),
+					output(BTC_USD, 4, 350L, 300L)
+					));
+	}
+
+	/**
+	 * <p>Day 3 is not filled, the 2 day window has only day 4.
+	 * </p>
+	 */
+	@Test
+	public void gapFillNone() {
+		TestSupport.verifyProcessor(() -> new TimeWindowAverageProcessor(GapFill.NONE, DAY, 2 * DAY, 3 * DAY))
+			.input(Arrays.asList(
+					input(BTC_USD, 1, 100L),
+					input(BTC_USD, 2, 200L),
+					input(BTC_USD, 4, 400L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 150L, NO),
+					output(BTC_USD, 4, 400L, 300L)
+					));
+	}
+
+	/**
+	 * <p>A second price for day 2 replaces the first in every window
+	 * and is output again. A price for day 1 after day 2 is late and
+	 * is dropped. Another currency pair in between is kept apart.
+	 * </p>
+	 */
+	@Test
+	public void duplicateAndLate() {
+		TestSupport.verifyProcessor(() -> new TimeWindowAverageProcessor(GapFill.PREVIOUS, DAY, 2 * DAY, 3 * DAY))
+			.input(Arrays.asList(
+					input(BTC_USD, 1, 100L),
+					input(ETH_USD, 1, 10L),
+					input(BTC_USD, 2, 200L),
+					input(BTC_USD, 2, 400L),
+					input(ETH_USD, 2, 20L),
+					input(BTC_USD, 1, 999L),
+					input(BTC_USD, 3, 600L)
+					))
+			.expectOutput(Arrays.asList(
+					output(BTC_USD, 2, 150L, NO),
+					output(BTC_USD, 2, 250L, NO),
+					output(ETH_USD, 2, 15L, NO),
+					output(BTC_USD, 3, 500L, 367L)
+					));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void durationLessThanStep() {
+		new TimeWindowAverageProcessor(GapFill.PREVIOUS, DAY, DAY - 1);
+	}
+
+	private static Entry<CurrencyPairKey, CurrencyPairValue> input(CurrencyPairKey key, long day, long rate) {
+		return new SimpleImmutableEntry<>(key, new CurrencyPairValue(TimePrice.toTimestamp(day), rate));
+	}
+
+	private static TimePrices output(CurrencyPairKey key, long day, long... rates) {
+		return new TimePrices(key, TimePrice.toTimestamp(day), rates);
+	}
+}
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.avro.specific.SpecificRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.CommandLineRunner;
@@ -22,7 +23,7 @@ public class WriterAccount1 implements CommandLineRunner {
 
 	@Autowired
 	@Qualifier(MyConstants.BEAN_PRODUCER_PREFIX + MyConstants.KAFKA_TOPIC_NAME_ACCOUNT)
-	private KafkaTemplate<String, String> kafkaAccountProducerTemplate;
+	private KafkaTemplate<String, SpecificRecord> kafkaAccountProducerTemplate;
 
 	
 	/**
@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.avro.specific.SpecificRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.CommandLineRunner;
@@ -28,7 +29,7 @@ public class WriterGPS implements CommandLineRunner {
 	private ApplicationContext applicationContext;
 	@Autowired
 	@Qualifier(MyConstants.BEAN_PRODUCER_PREFIX + MyConstants.KAFKA_TOPIC_NAME_GPS)
-	private KafkaTemplate<String, String> kafkaGpsProducerTemplate;
+	private KafkaTemplate<String, SpecificRecord> kafkaGpsProducerTemplate;
 
 	/**
 	 * <p>One single file of input, write to a Kafka topic with
@@ -3,6 +3,7 @@ package neil.demo.zappa;
 import java.util.List;
 import java.util.TreeMap;
 
+import org.apache.avro.specific.SpecificRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.CommandLineRunner;
@@ -18,7 +19,7 @@ public class WriterAccount2 implements CommandLineRunner {
 
 	@Autowired
 	@Qualifier(MyConstants.BEAN_PRODUCER_PREFIX + MyConstants.KAFKA_TOPIC_NAME_ACCOUNT)
-	private KafkaTemplate<String, String> kafkaAccountProducerTemplate;
+	private KafkaTemplate<String, SpecificRecord> kafkaAccountProducerTemplate;
 
 	/**
 	 * <p>Simple iteration, print all data for each key, even if this results in